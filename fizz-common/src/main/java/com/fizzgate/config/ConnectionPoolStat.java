@@ -0,0 +1,191 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.config;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gauges of a connection pool: the open, active, idle connections, the pending acquires,
+ * and the count and latency of acquires, the latency includes the connect time of new connections.
+ * The max latency is the one of the last one to two minutes, the others are since the pool is created.
+ * <p>
+ * The pool is instrumented by {@link #instrument(ConnectionProvider)} and {@link #instrument(HttpClient)},
+ * a connection is active from being acquired to the response being received or the connection being closed.
+ */
+
+public class ConnectionPoolStat {
+
+    private static final AttributeKey<Boolean> OPENED = AttributeKey.valueOf("connPoolStatOpened");
+
+    private static final AttributeKey<Boolean> ACTIVE = AttributeKey.valueOf("connPoolStatActive");
+
+    private static final long                  MAX_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final String        name;
+
+    private final AtomicInteger total           = new AtomicInteger(0);
+
+    private final AtomicInteger active          = new AtomicInteger(0);
+
+    private final AtomicInteger pending         = new AtomicInteger(0);
+
+    private final LongAdder     acquires        = new LongAdder();
+
+    private final LongAdder     acquireNanos    = new LongAdder();
+
+    /**
+     * max acquire latency of the current window
+     */
+    private final AtomicLong    acquireMaxNanos = new AtomicLong(0);
+
+    private volatile long       prevAcquireMaxNanos = 0;
+
+    private volatile long       maxWindowStart      = System.nanoTime();
+
+    public ConnectionPoolStat(String name) {
+        this.name = name;
+    }
+
+    public ConnectionProvider instrument(ConnectionProvider provider) {
+        return new ConnectionProvider() {
+
+            @Override
+            public Mono<? extends Connection> acquire(Bootstrap bootstrap) {
+                return Mono.defer(
+                        () -> {
+                            long start = System.nanoTime();
+                            pending.incrementAndGet();
+                            return provider.acquire(bootstrap)
+                                           .doOnNext(connection -> acquired(connection.channel(), System.nanoTime() - start))
+                                           .doFinally(s -> pending.decrementAndGet());
+                        }
+                );
+            }
+
+            @Override
+            public Mono<Void> disposeLater() {
+                return provider.disposeLater();
+            }
+
+            @Override
+            public boolean isDisposed() {
+                return provider.isDisposed();
+            }
+        };
+    }
+
+    public HttpClient instrument(HttpClient httpClient) {
+        return httpClient.doAfterResponse((response, connection) -> released(connection.channel()));
+    }
+
+    private void acquired(Channel channel, long nanos) {
+        acquires.increment();
+        acquireNanos.add(nanos);
+        rollMaxWindow(System.nanoTime());
+        acquireMaxNanos.accumulateAndGet(nanos, Math::max);
+        if (channel.attr(OPENED).setIfAbsent(Boolean.TRUE) == null) {
+            total.incrementAndGet();
+            channel.closeFuture().addListener(
+                    f -> {
+                        released(channel);
+                        total.decrementAndGet();
+                    }
+            );
+        }
+        if (channel.attr(ACTIVE).getAndSet(Boolean.TRUE) == null) {
+            active.incrementAndGet();
+        }
+    }
+
+    private void released(Channel channel) {
+        if (channel.attr(ACTIVE).getAndSet(null) != null) {
+            active.decrementAndGet();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getTotal() {
+        return total.get();
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public int getIdle() {
+        return Math.max(total.get() - active.get(), 0);
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public long getAcquires() {
+        return acquires.sum();
+    }
+
+    public double getAcquireAvgMillis() {
+        long n = acquires.sum();
+        return n == 0 ? 0 : acquireNanos.sum() / 1_000_000d / n;
+    }
+
+    private void rollMaxWindow(long now) {
+        long start = maxWindowStart;
+        if (now - start >= MAX_WINDOW_NANOS) {
+            synchronized (this) {
+                if (maxWindowStart == start) {
+                    long max = acquireMaxNanos.getAndSet(0);
+                    prevAcquireMaxNanos = now - start < MAX_WINDOW_NANOS << 1 ? max : 0;
+                    maxWindowStart = now;
+                }
+            }
+        }
+    }
+
+    public double getAcquireMaxMillis() {
+        rollMaxWindow(System.nanoTime());
+        return Math.max(acquireMaxNanos.get(), prevAcquireMaxNanos) / 1_000_000d;
+    }
+
+    @Override
+    public String toString() {
+        return  "{ name="             + name +
+                ", total="            + getTotal() +
+                ", active="           + getActive() +
+                ", idle="             + getIdle() +
+                ", pending="          + getPending() +
+                ", acquires="         + getAcquires() +
+                ", acquireAvgMillis=" + getAcquireAvgMillis() +
+                ", acquireMaxMillis=" + getAcquireMaxMillis() +
+                " }";
+    }
+}
@@ -29,11 +29,14 @@ import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 import reactor.netty.tcp.TcpClient;
 
 import javax.annotation.Resource;
 import javax.net.ssl.SSLException;
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -60,6 +63,82 @@ public abstract class WebClientConfig {
 
     private Boolean       trustInsecureSSL        = null; // false
 
+    private boolean       perUpstreamConnPool     = false;
+
+    private int           maxUpstreamConnPools    = 256;
+
+    private long          upstreamConnPoolIdleTimeout = 600_000; // an upstream pool unused for this long is disposed, 0 means never
+
+    private ConnPool      connPool                = new ConnPool();
+
+    private Map<String, ConnPool> upstreamConnPools = new HashMap<>();
+
+    /**
+     * Settings of a connection pool, null means the reactor netty default.
+     */
+    public static class ConnPool {
+
+        private Integer maxConnections         = null; // 500, per remote address
+
+        private Integer pendingAcquireMaxCount = null; // 2 * maxConnections
+
+        private Long    pendingAcquireTimeout  = null; // 45_000
+
+        private Long    maxIdleTime            = null;
+
+        private Long    maxLifeTime            = null;
+
+        public Integer getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(Integer maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public Integer getPendingAcquireMaxCount() {
+            return pendingAcquireMaxCount;
+        }
+
+        public void setPendingAcquireMaxCount(Integer pendingAcquireMaxCount) {
+            this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+        }
+
+        public Long getPendingAcquireTimeout() {
+            return pendingAcquireTimeout;
+        }
+
+        public void setPendingAcquireTimeout(Long pendingAcquireTimeout) {
+            this.pendingAcquireTimeout = pendingAcquireTimeout;
+        }
+
+        public Long getMaxIdleTime() {
+            return maxIdleTime;
+        }
+
+        public void setMaxIdleTime(Long maxIdleTime) {
+            this.maxIdleTime = maxIdleTime;
+        }
+
+        public Long getMaxLifeTime() {
+            return maxLifeTime;
+        }
+
+        public void setMaxLifeTime(Long maxLifeTime) {
+            this.maxLifeTime = maxLifeTime;
+        }
+
+        @Override
+        public String toString() {
+            return  "{ maxConnections="         + maxConnections +
+                    ", pendingAcquireMaxCount=" + pendingAcquireMaxCount +
+                    ", pendingAcquireTimeout="  + pendingAcquireTimeout +
+                    ", maxIdleTime="            + maxIdleTime +
+                    ", maxLifeTime="            + maxLifeTime +
+                    " }";
+        }
+    }
+
     public Boolean getTrustInsecureSSL() {
         return trustInsecureSSL;
     }
@@ -126,6 +205,49 @@ public abstract class WebClientConfig {
         this.compress = compress;
     }
 
+    public boolean isPerUpstreamConnPool() {
+        return perUpstreamConnPool;
+    }
+
+    public void setPerUpstreamConnPool(boolean perUpstreamConnPool) {
+        this.perUpstreamConnPool = perUpstreamConnPool;
+    }
+
+    public int getMaxUpstreamConnPools() {
+        return maxUpstreamConnPools;
+    }
+
+    public void setMaxUpstreamConnPools(int maxUpstreamConnPools) {
+        this.maxUpstreamConnPools = maxUpstreamConnPools;
+    }
+
+    public long getUpstreamConnPoolIdleTimeout() {
+        return upstreamConnPoolIdleTimeout;
+    }
+
+    public void setUpstreamConnPoolIdleTimeout(long upstreamConnPoolIdleTimeout) {
+        this.upstreamConnPoolIdleTimeout = upstreamConnPoolIdleTimeout;
+    }
+
+    public ConnPool getConnPool() {
+        return connPool;
+    }
+
+    public void setConnPool(ConnPool connPool) {
+        this.connPool = connPool;
+    }
+
+    /**
+     * @return upstream, which is host:port or service, to the pool settings of it
+     */
+    public Map<String, ConnPool> getUpstreamConnPools() {
+        return upstreamConnPools;
+    }
+
+    public void setUpstreamConnPools(Map<String, ConnPool> upstreamConnPools) {
+        this.upstreamConnPools = upstreamConnPools;
+    }
+
     /*
     @Resource
     ReactorClientHttpConnector reactorClientHttpConnector;
@@ -138,9 +260,50 @@ public abstract class WebClientConfig {
     WebClientBuilderConfig webClientBuilderConfig;
 
     public WebClient webClient() {
+        return webClient(HttpClient.create());
+    }
+
+    /**
+     * @param provider the connection provider dedicated to an upstream, from {@link #connectionProvider(String)}
+     * @return the web client whose connections are pooled by the provider
+     */
+    public WebClient webClient(ConnectionProvider provider, ConnectionPoolStat stat) {
+        return webClient(stat.instrument(HttpClient.create(stat.instrument(provider))));
+    }
+
+    /**
+     * @return the connection provider of the upstream, which should be disposed by the caller when no longer used,
+     * the pool settings are the ones of the upstream in {@link #upstreamConnPools}, or else {@link #connPool}
+     */
+    public ConnectionProvider connectionProvider(String upstream) {
+        ConnPool cp = upstreamConnPools.getOrDefault(upstream, connPool);
+        ConnectionProvider.Builder builder = ConnectionProvider.builder(upstream);
+        Integer maxConnections = cp.maxConnections == null ? connPool.maxConnections : cp.maxConnections;
+        if (maxConnections != null) {
+            builder.maxConnections(maxConnections);
+        }
+        Integer pendingAcquireMaxCount = cp.pendingAcquireMaxCount == null ? connPool.pendingAcquireMaxCount : cp.pendingAcquireMaxCount;
+        if (pendingAcquireMaxCount != null) {
+            builder.pendingAcquireMaxCount(pendingAcquireMaxCount);
+        }
+        Long pendingAcquireTimeout = cp.pendingAcquireTimeout == null ? connPool.pendingAcquireTimeout : cp.pendingAcquireTimeout;
+        if (pendingAcquireTimeout != null) {
+            builder.pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeout));
+        }
+        Long maxIdleTime = cp.maxIdleTime == null ? connPool.maxIdleTime : cp.maxIdleTime;
+        if (maxIdleTime != null) {
+            builder.maxIdleTime(Duration.ofMillis(maxIdleTime));
+        }
+        Long maxLifeTime = cp.maxLifeTime == null ? connPool.maxLifeTime : cp.maxLifeTime;
+        if (maxLifeTime != null) {
+            builder.maxLifeTime(Duration.ofMillis(maxLifeTime));
+        }
+        return builder.build();
+    }
+
+    private WebClient webClient(HttpClient httpClient) {
 
-        HttpClient httpClient = HttpClient.create()
-                                          .tcpConfiguration(
+        httpClient = httpClient.tcpConfiguration(
                                               tcpClient -> {
                                                   TcpClient newTcpClient = tcpClient.doOnConnected(
                                                           connection -> {
@@ -195,13 +358,18 @@ public abstract class WebClientConfig {
 
     @Override
     public String toString() {
-        return  "{ connReadTimeout="  + connReadTimeout +
-                ", connWriteTimeout=" + connWriteTimeout +
-                ", chConnTimeout="    + chConnTimeout +
-                ", chTcpNodelay="     + chTcpNodelay +
-                ", chSoKeepAlive="    + chSoKeepAlive +
-                ", compress="         + compress +
-                ", trustInsecureSSL=" + trustInsecureSSL +
+        return  "{ connReadTimeout="             + connReadTimeout +
+                ", connWriteTimeout="            + connWriteTimeout +
+                ", chConnTimeout="               + chConnTimeout +
+                ", chTcpNodelay="                + chTcpNodelay +
+                ", chSoKeepAlive="               + chSoKeepAlive +
+                ", compress="                    + compress +
+                ", trustInsecureSSL="            + trustInsecureSSL +
+                ", perUpstreamConnPool="         + perUpstreamConnPool +
+                ", maxUpstreamConnPools="        + maxUpstreamConnPools +
+                ", upstreamConnPoolIdleTimeout=" + upstreamConnPoolIdleTimeout +
+                ", connPool="                    + connPool +
+                ", upstreamConnPools="           + upstreamConnPools +
                 " }";
     }
 }
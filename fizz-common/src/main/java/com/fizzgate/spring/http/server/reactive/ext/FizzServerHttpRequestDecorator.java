@@ -17,6 +17,8 @@
 
 package com.fizzgate.spring.http.server.reactive.ext;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.handler.codec.http.cookie.Cookie;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.NettyDataBuffer;
@@ -40,6 +42,7 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -51,6 +54,9 @@ public class FizzServerHttpRequestDecorator extends ServerHttpRequestDecorator {
 
     private static final Pattern QUERY_PATTERN = Pattern.compile("([^&=]+)(=?)([^&]+)?");
 
+    private static final AtomicReferenceFieldUpdater<FizzServerHttpRequestDecorator, ByteBuf> RETAINED_BODY =
+            AtomicReferenceFieldUpdater.newUpdater(FizzServerHttpRequestDecorator.class, ByteBuf.class, "retainedBody");
+
     private AbstractServerHttpRequest         delegate;
 
     private HttpServerRequest                 nativeRequest;
@@ -67,6 +73,12 @@ public class FizzServerHttpRequestDecorator extends ServerHttpRequestDecorator {
 
     private byte[]                            bodyBytes;
 
+    /**
+     * read by the subscribers of the body on any thread, and released once by whichever thread completes the exchange
+     */
+    @Nullable
+    private volatile ByteBuf                  retainedBody;
+
     public FizzServerHttpRequestDecorator(ServerHttpRequest delegate) {
         super(delegate);
         this.delegate = (AbstractServerHttpRequest) delegate;
@@ -84,6 +96,13 @@ public class FizzServerHttpRequestDecorator extends ServerHttpRequestDecorator {
         return queryParams;
     }
 
+    /**
+     * @return whether the query params are parsed, then they may be modified and differ from the raw query
+     */
+    public boolean isQueryParamsParsed() {
+        return queryParams != null;
+    }
+
     private MultiValueMap<String, String> initQueryParams() {
         MultiValueMap<String, String> queryParams = new LinkedMultiValueMap<>();
         String query = getURI().getRawQuery();
@@ -139,11 +158,44 @@ public class FizzServerHttpRequestDecorator extends ServerHttpRequestDecorator {
     }
 
     public void setEmptyBody() {
+        releaseBody();
         body = Flux.empty();
         bodyBytes = null;
     }
 
+    /**
+     * Keep the body without copying it to heap, the body is retained,
+     * and each subscriber of {@link #getBody()} gets a retained duplicate of it, which should be released after read,
+     * the body itself is released by {@link #releaseBody()}, which should be called when the exchange completes.
+     */
+    public void retainBody(DataBuffer body) {
+        if (!(body instanceof NettyDataBuffer)) {
+            setBody(body);
+            return;
+        }
+        releaseBody();
+        retainedBody = ((NettyDataBuffer) body).getNativeBuffer().retain();
+        bodyBytes = null;
+        this.body = Flux.defer(
+                () -> {
+                    ByteBuf b = retainedBody;
+                    if (b == null) {
+                        return Flux.empty();
+                    }
+                    return Flux.just(NettyDataBufferUtils.from(b.retainedDuplicate()));
+                }
+        );
+    }
+
+    public void releaseBody() {
+        ByteBuf b = RETAINED_BODY.getAndSet(this, null);
+        if (b != null) {
+            b.release();
+        }
+    }
+
     public void setBody(DataBuffer body) {
+        releaseBody();
         if (body instanceof PooledDataBuffer) {
             byte[] bytes = NettyDataBufferUtils.copyBytes(body);
             setBody(bytes);
@@ -162,9 +214,9 @@ public class FizzServerHttpRequestDecorator extends ServerHttpRequestDecorator {
     }
 
     public void setBody(byte[] body) {
+        releaseBody();
         bodyBytes = body;
-        NettyDataBuffer from = NettyDataBufferUtils.from(bodyBytes);
-        this.body = Flux.just(from);
+        this.body = Flux.defer(() -> Flux.just(NettyDataBufferUtils.from(body)));
     }
 
     @Override
@@ -173,6 +225,12 @@ public class FizzServerHttpRequestDecorator extends ServerHttpRequestDecorator {
     }
 
     public byte[] getBodyBytes() {
+        if (bodyBytes == null) {
+            ByteBuf b = retainedBody;
+            if (b != null) {
+                bodyBytes = ByteBufUtil.getBytes(b);
+            }
+        }
         return bodyBytes;
     }
 }
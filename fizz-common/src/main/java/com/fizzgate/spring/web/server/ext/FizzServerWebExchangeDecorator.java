@@ -101,6 +101,7 @@ public class FizzServerWebExchangeDecorator extends ServerWebExchangeDecorator {
                                                  return EMPTY_FORM_DATA;
                                              } else {
                                                  CharBuffer charBuffer = charset.decode(body.asByteBuffer());
+                                                 NettyDataBufferUtils.releaseBody(body);
                                                  return parseFormData(charset, charBuffer.toString());
                                              }
                                          }
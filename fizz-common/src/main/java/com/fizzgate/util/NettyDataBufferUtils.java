@@ -17,6 +17,7 @@
 
 package com.fizzgate.util;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.NettyDataBuffer;
@@ -45,6 +46,19 @@ public abstract class NettyDataBufferUtils extends org.springframework.core.io.b
         return (NettyDataBuffer) dataBufferFactory.wrap(bytes);
     }
 
+    public static NettyDataBuffer from(ByteBuf byteBuf) {
+        return dataBufferFactory.wrap(byteBuf);
+    }
+
+    /**
+     * Release the data buffer read from a request body, {@link #EMPTY_DATA_BUFFER} is shared and never released.
+     */
+    public static void releaseBody(DataBuffer dataBuffer) {
+        if (dataBuffer != EMPTY_DATA_BUFFER) {
+            release(dataBuffer);
+        }
+    }
+
     public static byte[] copyBytes(DataBuffer dataBuffer) {
         byte[] bytes = new byte[dataBuffer.readableByteCount()];
         dataBuffer.read(bytes);
@@ -6,9 +6,12 @@ import org.springframework.lang.Nullable;
 import org.springframework.util.AntPathMatcher;
 import org.springframework.util.Assert;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -75,6 +78,251 @@ public class UrlTransformUtils {
 		return backendPath;
 	}
 
+	/**
+	 * compile the frontend path pattern and the backend path into a template,
+	 * which transforms request paths to backend paths in one pass without regex
+	 * @param frontendPath frontend path
+	 * @param backendPath backend path
+	 * @return the template, its transform result is the same as {@link #transform(String, String, String)}
+	 */
+	public static BackendPathTemplate compile(String frontendPath, String backendPath) {
+		return new BackendPathTemplate(frontendPath, backendPath);
+	}
+
+	/**
+	 * Backend path compiled into literals and variable slots, like /a/{id}/b is "/a/", {id}, "/b".
+	 * If the frontend path only has exact, {@code {var}} and {@code *} segments, and an optional trailing {@code **},
+	 * the variables are located by walking the request path segments, otherwise they are extracted by {@link #ANT_PATH_MATCHER}.
+	 * Backend paths with more than one { in a segment fall back to {@link #transform(String, String, String)}.
+	 */
+	public static final class BackendPathTemplate {
+
+		private static final String DOUBLE_WILDCARD = "**";
+
+		private static final String WILDCARD        = "*";
+
+		private static final String boundsKey       = "bptBoundsT";
+
+		private final String   frontendPath;
+
+		private final String   backendPath;
+
+		private final boolean  fallback;
+
+		/** literals[i] is before the slot i, the last one is after all slots */
+		private final String[] literals;
+
+		private final String[] slotNames;
+
+		/** the frontend group of slot, -1 if no such variable */
+		private final int[]    slotGroups;
+
+		/** the frontend path segments, null if located by ant matcher */
+		private final String[] segments;
+
+		/** the group of frontend segment, -1 if exact */
+		private final int[]    segmentGroups;
+
+		private final boolean  tailDoubleWildcard;
+
+		private final int      groupCount;
+
+		private BackendPathTemplate(String frontendPath, String backendPath) {
+			this.frontendPath = frontendPath;
+			this.backendPath = backendPath;
+
+			List<String> literalList = new ArrayList<>();
+			List<String> slotNameList = new ArrayList<>();
+			boolean fb = backendPath == null;
+			if (!fb) {
+				int literalStart = 0, runStart = 0, bl = backendPath.length();
+				while (runStart <= bl) {
+					int runEnd = backendPath.indexOf('/', runStart);
+					if (runEnd == -1) {
+						runEnd = bl;
+					}
+					int open = backendPath.indexOf('{', runStart);
+					if (open > -1 && open < runEnd) {
+						int open1 = backendPath.indexOf('{', open + 1);
+						if (open1 > -1 && open1 < runEnd) {
+							fb = true;
+							break;
+						}
+						int close = backendPath.indexOf('}', open + 1);
+						if (close > -1 && close < runEnd) {
+							int close1 = backendPath.indexOf('}', close + 1);
+							if (close1 > -1 && close1 < runEnd) {
+								fb = true;
+								break;
+							}
+							literalList.add(backendPath.substring(literalStart, open));
+							slotNameList.add(backendPath.substring(open + 1, close));
+							literalStart = close + 1;
+						}
+					}
+					runStart = runEnd + 1;
+				}
+				if (!fb) {
+					literalList.add(backendPath.substring(literalStart));
+				}
+			}
+			fallback = fb;
+
+			String[] segs = frontendPath.indexOf('#') > -1 || frontendPath.indexOf('?') > -1 ? null : frontendPath.split("/", -1);
+			int[] groups = null;
+			boolean tail = false;
+			int g = 0;
+			Map<String, Integer> name2group = new HashMap<>();
+			if (segs != null) {
+				groups = new int[segs.length];
+				for (int i = 0; i < segs.length; i++) {
+					String seg = segs[i];
+					if (seg.equals(DOUBLE_WILDCARD) && i == segs.length - 1 && i > 0) {
+						tail = true;
+						groups[i] = g;
+						name2group.put("$" + (++g), groups[i]);
+					} else if (seg.equals(WILDCARD)) {
+						groups[i] = g;
+						name2group.put("$" + (++g), groups[i]);
+					} else if (isUriVar(seg)) {
+						groups[i] = g;
+						name2group.put(seg.substring(1, seg.length() - 1), g);
+						name2group.put("$" + (++g), groups[i]);
+					} else if (seg.indexOf('*') > -1 || seg.indexOf('{') > -1 || seg.indexOf('}') > -1) {
+						segs = null;
+						groups = null;
+						tail = false;
+						g = 0;
+						name2group.clear();
+						break;
+					} else {
+						groups[i] = -1;
+					}
+				}
+			}
+			segments = segs;
+			segmentGroups = groups;
+			tailDoubleWildcard = tail;
+			groupCount = g;
+
+			literals = literalList.toArray(new String[0]);
+			slotNames = slotNameList.toArray(new String[0]);
+			slotGroups = new int[slotNames.length];
+			for (int i = 0; i < slotNames.length; i++) {
+				Integer group = name2group.get(slotNames[i]);
+				slotGroups[i] = group == null ? -1 : group;
+			}
+		}
+
+		/**
+		 * @return whether the template is compiled from the frontend path and backend path
+		 */
+		public boolean isCompiledFrom(String frontendPath, String backendPath) {
+			return Objects.equals(this.frontendPath, frontendPath) && Objects.equals(this.backendPath, backendPath);
+		}
+
+		private static boolean isUriVar(String seg) {
+			int l = seg.length();
+			if (l < 3 || seg.charAt(0) != '{' || seg.charAt(l - 1) != '}') {
+				return false;
+			}
+			for (int i = 1; i < l - 1; i++) {
+				char c = seg.charAt(i);
+				if (c == '{' || c == '}' || c == ':') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @param reqPath request path
+		 * @return the transformed backend path
+		 * @throws IllegalStateException when the request path does not match the frontend path pattern
+		 */
+		public String transform(String reqPath) {
+			if (fallback) {
+				return UrlTransformUtils.transform(frontendPath, backendPath, reqPath);
+			}
+			int[] bounds = null;
+			Map<String, String> variables = null;
+			if (segments == null) {
+				variables = ANT_PATH_MATCHER.extractUriTemplateVariables(frontendPath, reqPath);
+			} else {
+				bounds = match(reqPath);
+				if (bounds == null) {
+					return UrlTransformUtils.transform(frontendPath, backendPath, reqPath);
+				}
+			}
+			if (slotNames.length == 0) {
+				return literals[0];
+			}
+			StringBuilder b = new StringBuilder(backendPath.length() + reqPath.length());
+			for (int i = 0; i < slotNames.length; i++) {
+				b.append(literals[i]);
+				if (bounds == null) {
+					String v = variables.get(slotNames[i]);
+					if (v != null) {
+						if (v.indexOf('{') > -1) {
+							return UrlTransformUtils.transform(frontendPath, backendPath, reqPath);
+						}
+						b.append(v);
+					}
+				} else {
+					int g = slotGroups[i];
+					if (g > -1) {
+						int start = bounds[g << 1], end = bounds[(g << 1) + 1];
+						if (reqPath.indexOf('{', start) > -1 && reqPath.indexOf('{', start) < end) {
+							return UrlTransformUtils.transform(frontendPath, backendPath, reqPath);
+						}
+						b.append(reqPath, start, end);
+					}
+				}
+			}
+			b.append(literals[slotNames.length]);
+			return b.toString();
+		}
+
+		/**
+		 * @return the start and end of each group in the request path, or null if not match,
+		 * the array is reused by the next match in the same thread
+		 */
+		private int[] match(String reqPath) {
+			int[] bounds = (int[]) ThreadContext.get(boundsKey);
+			if (bounds == null || bounds.length < groupCount << 1) {
+				bounds = new int[Math.max(groupCount << 1, 8)];
+				ThreadContext.set(boundsKey, bounds);
+			}
+			int from = 0, rl = reqPath.length();
+			for (int i = 0; i < segments.length; i++) {
+				if (from > rl) {
+					return null;
+				}
+				int g = segmentGroups[i];
+				if (tailDoubleWildcard && i == segments.length - 1) {
+					bounds[g << 1] = from;
+					bounds[(g << 1) + 1] = rl;
+					return bounds;
+				}
+				int end = reqPath.indexOf('/', from);
+				if (end == -1) {
+					end = rl;
+				}
+				if (g > -1) {
+					bounds[g << 1] = from;
+					bounds[(g << 1) + 1] = end;
+				} else {
+					String seg = segments[i];
+					if (seg.length() != end - from || !reqPath.startsWith(seg, from)) {
+						return null;
+					}
+				}
+				from = end + 1;
+			}
+			return from == rl + 1 ? bounds : null;
+		}
+	}
+
 	/**
 	 * 自定义Ant风格路径匹配器
 	 * 设置默认路径分隔符为{@code #}
@@ -0,0 +1,95 @@
+/*
+ *  Copyright (C) 2021 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.fizzgate.config;
+
+import com.fizzgate.util.ReflectionUtils;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionPoolStatTests {
+
+    private static void acquired(ConnectionPoolStat stat, Channel channel, long millis) {
+        ReflectionUtils.invokeMethod("acquired", stat, new Class[]{Channel.class, long.class}, new Object[]{channel, TimeUnit.MILLISECONDS.toNanos(millis)});
+    }
+
+    private static void released(ConnectionPoolStat stat, Channel channel) {
+        ReflectionUtils.invokeMethod("released", stat, new Class[]{Channel.class}, new Object[]{channel});
+    }
+
+    /**
+     * pretend the current max window started the given seconds ago
+     */
+    private static void shiftMaxWindow(ConnectionPoolStat stat, long seconds) {
+        ReflectionUtils.set(stat, "maxWindowStart", System.nanoTime() - TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    @Test
+    void connectionTest() {
+        ConnectionPoolStat stat = new ConnectionPoolStat("connectionTest");
+        EmbeddedChannel ch = new EmbeddedChannel();
+        acquired(stat, ch, 5);
+        assertEquals(1, stat.getTotal());
+        assertEquals(1, stat.getActive());
+        assertEquals(0, stat.getIdle());
+
+        released(stat, ch);
+        released(stat, ch);
+        assertEquals(0, stat.getActive());
+        assertEquals(1, stat.getIdle());
+
+        // a pooled connection acquired again is not counted as a new one
+        acquired(stat, ch, 1);
+        assertEquals(1, stat.getTotal());
+        assertEquals(1, stat.getActive());
+        assertEquals(2, stat.getAcquires());
+        assertEquals(3.0, stat.getAcquireAvgMillis());
+
+        ch.close();
+        assertEquals(0, stat.getTotal());
+        assertEquals(0, stat.getActive());
+    }
+
+    @Test
+    void acquireMaxTest() {
+        ConnectionPoolStat stat = new ConnectionPoolStat("acquireMaxTest");
+        EmbeddedChannel ch = new EmbeddedChannel();
+        acquired(stat, ch, 5);
+        acquired(stat, ch, 3);
+        assertEquals(5.0, stat.getAcquireMaxMillis());
+
+        // the max of the previous minute is still reported
+        shiftMaxWindow(stat, 61);
+        acquired(stat, ch, 2);
+        assertEquals(5.0, stat.getAcquireMaxMillis());
+
+        // and is dropped one more minute later
+        shiftMaxWindow(stat, 61);
+        assertEquals(2.0, stat.getAcquireMaxMillis());
+
+        // nothing is acquired in the last two minutes
+        shiftMaxWindow(stat, 121);
+        assertEquals(0.0, stat.getAcquireMaxMillis());
+        assertEquals(3, stat.getAcquires());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.spring.http.server.reactive.ext;
+
+import com.fizzgate.util.NettyDataBufferUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FizzServerHttpRequestDecoratorTests {
+
+    private static ByteBuf pooledBody(String body) {
+        ByteBuf b = PooledByteBufAllocator.DEFAULT.buffer();
+        b.writeCharSequence(body, StandardCharsets.UTF_8);
+        return b;
+    }
+
+    /**
+     * Keep the joined body like CallbackFilter and RequestBodyPlugin do, the joined body is released after retained.
+     */
+    private static FizzServerHttpRequestDecorator retainBody(ByteBuf body) {
+        FizzServerHttpRequestDecorator request = new FizzServerHttpRequestDecorator(MockServerHttpRequest.post("/x").build());
+        DataBuffer joined = NettyDataBufferUtils.from(body);
+        try {
+            request.retainBody(joined);
+        } finally {
+            NettyDataBufferUtils.release(joined);
+        }
+        return request;
+    }
+
+    private static String read(FizzServerHttpRequestDecorator request) {
+        DataBuffer b = request.getBody().single().block();
+        try {
+            return b.toString(StandardCharsets.UTF_8);
+        } finally {
+            NettyDataBufferUtils.releaseBody(b);
+        }
+    }
+
+    @Test
+    void retryTest() {
+        ByteBuf body = pooledBody("abc");
+        FizzServerHttpRequestDecorator request = retainBody(body);
+        assertEquals(1, body.refCnt());
+
+        // each retry subscribes to the body again and gets the whole body
+        for (int i = 0; i < 3; i++) {
+            assertEquals("abc", read(request));
+            assertEquals(1, body.refCnt());
+        }
+        assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), request.getBodyBytes());
+        assertEquals(1, body.refCnt());
+
+        // released when the exchange completes, and only once
+        request.releaseBody();
+        assertEquals(0, body.refCnt());
+        request.releaseBody();
+        assertEquals(0, body.refCnt());
+        assertNull(request.getBody().blockFirst());
+    }
+
+    @Test
+    void setBodyAfterRetainBodyTest() {
+        ByteBuf body = pooledBody("encrypted");
+        FizzServerHttpRequestDecorator request = retainBody(body);
+
+        // the way of the dedicated line codec: read and release the body, then replace it with the decrypted one
+        DataBuffer b = request.getBody().single().block();
+        NettyDataBufferUtils.releaseBody(b);
+        byte[] bytes = request.getBodyBytes();
+        assertEquals("encrypted", new String(bytes, StandardCharsets.UTF_8));
+        request.setBody("decrypted");
+        assertEquals(0, body.refCnt());
+
+        assertEquals("decrypted", read(request));
+        assertEquals("decrypted", read(request));
+        request.releaseBody();
+        assertEquals(0, body.refCnt());
+    }
+
+    @Test
+    void setEmptyBodyTest() {
+        ByteBuf body = pooledBody("abc");
+        FizzServerHttpRequestDecorator request = retainBody(body);
+        request.setEmptyBody();
+        assertEquals(0, body.refCnt());
+        assertNull(request.getBody().blockFirst());
+        assertNull(request.getBodyBytes());
+    }
+}
@@ -0,0 +1,52 @@
+package com.fizzgate.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author zhongjie
+ */
+
+public class UrlTransformUtilsTests {
+
+    @Test
+    void compileTest() {
+        String[][] cases = {
+                // frontend path,   backend path,            request path
+                {"/a/{id}",         "/b/{id}/c",             "/a/1"},
+                {"/a/{id}",         "/b/{$1}",               "/a/1"},
+                {"/a/{id}",         "/b/{x}/c",              "/a/1"},
+                {"/a/{id}",         "/b/c",                  "/a/1"},
+                {"/a/{id}",         "/b/{id",                "/a/1"},
+                {"/a/*/{y}",        "/b/{$2}/{$1}/{y}",      "/a/1/2"},
+                {"/a/*/{y}",        "/b/{$2}-{$1}",          "/a/1/2"},
+                {"/a/**",           "/b/{$1}",               "/a/x/y"},
+                {"/a/**",           "/b/{$1}",               "/a/"},
+                {"/**",             "/{$1}",                 "/"},
+                {"/a/{id:\\d+}",    "/b/{id}",               "/a/1"},
+                {"/a/{id}.json",    "/b/{$1}/{id}",          "/a/1.json"},
+                {"/a/**/b",         "/c/{$1}",               "/a/x/y/b"},
+        };
+        for (String[] c : cases) {
+            assertEquals(UrlTransformUtils.transform(c[0], c[1], c[2]), UrlTransformUtils.compile(c[0], c[1]).transform(c[2]));
+        }
+        assertThrows(IllegalStateException.class, () -> UrlTransformUtils.compile("/a/{id}", "/b/{id}").transform("/x/1"));
+    }
+
+    @Test
+    void reuseBoundsTest() {
+        UrlTransformUtils.BackendPathTemplate t1 = UrlTransformUtils.compile("/a/{id}",                    "/b/{id}");
+        UrlTransformUtils.BackendPathTemplate t9 = UrlTransformUtils.compile("/a/{a}/{b}/{c}/{d}/{e}/*/*/*/*", "/b/{e}/{$9}/{a}");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("/b/1",       t1.transform("/a/1"));
+            assertEquals("/b/5/10/1",  t9.transform("/a/1/2/3/4/5/6/7/8/10"));
+            assertEquals("/b/2",       t1.transform("/a/2"));
+        }
+        assertTrue(t1.isCompiledFrom("/a/{id}", "/b/{id}"));
+        assertFalse(t1.isCompiledFrom("/a/{id}", "/c/{id}"));
+    }
+}
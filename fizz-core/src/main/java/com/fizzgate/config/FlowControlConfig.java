@@ -23,6 +23,7 @@ import org.springframework.context.annotation.Configuration;
 
 import com.fizzgate.stats.FlowStat;
 import com.fizzgate.stats.circuitbreaker.CircuitBreakManager;
+import com.fizzgate.stats.ratelimit.ClusterRateLimiter;
 
 /**
  * @author hongqiaowei
@@ -32,8 +33,10 @@ import com.fizzgate.stats.circuitbreaker.CircuitBreakManager;
 @Configuration
 public class FlowControlConfig {
 
-    @Bean
-    public FlowStat flowStat(CircuitBreakManager circuitBreakManager) {
-        return new FlowStat(circuitBreakManager);
+    @Bean(destroyMethod = "shutdown")
+    public FlowStat flowStat(CircuitBreakManager circuitBreakManager, ClusterRateLimiter clusterRateLimiter) {
+        FlowStat flowStat = new FlowStat(circuitBreakManager);
+        flowStat.setClusterRateLimiter(clusterRateLimiter);
+        return flowStat;
     }
 }
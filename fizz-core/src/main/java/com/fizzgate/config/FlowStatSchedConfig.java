@@ -21,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.stream.StreamRecords;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 
@@ -32,8 +33,13 @@ import com.fizzgate.stats.ratelimit.ResourceRateLimitConfig;
 import com.fizzgate.stats.ratelimit.ResourceRateLimitConfigService;
 import com.fizzgate.util.*;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
 import javax.annotation.Resource;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -74,6 +80,18 @@ public class FlowStatSchedConfig extends SchedConfig {
     private static final String _5xxStatus       = "\"status5xxs\":";
     private static final String _504Status       = "\"status504s\":";
 
+    private static final String _fields          = "\"fields\":";
+    private static final String _rows            = "\"rows\":";
+    private static final String _data            = "data";
+    private static final String _null            = "null";
+
+    private static final String compactFields    = "[\"id\",\"resource\",\"type\",\"app\",\"sourceIp\",\"service\",\"path\",\"start\",\"reqs\",\"completeReqs\","
+                                                 + "\"peakConcurrents\",\"reqPerSec\",\"peakRps\",\"blockReqs\",\"totalBlockReqs\",\"errors\",\"avgRespTime\","
+                                                 + "\"maxRespTime\",\"minRespTime\",\"status2xxs\",\"status4xxs\",\"status5xxs\",\"status504s\"]";
+
+    private static final String COMPACT          = "compact";
+    private static final String REDIS_STREAM     = "redis-stream";
+
     private static final String parentResourceList = "$prl";
 
     @Resource
@@ -93,6 +111,11 @@ public class FlowStatSchedConfig extends SchedConfig {
 
     private long startTimeSlot = 0;
 
+    /**
+     * Idle stats skipped by the last {@link #toMsgs}
+     */
+    private int skips = 0;
+
     // private Map<String, AtomicLong> resourceTimeWindow2totalBlockRequestsMap = new HashMap<>(128);
 
     @Scheduled(cron = "${flow-stat-sched.cron}")
@@ -113,147 +136,260 @@ public class FlowStatSchedConfig extends SchedConfig {
             return;
         }
 
-        resourceTimeWindowStats.forEach(
-                rtws -> {
-                    String resource = rtws.getResourceId();
-                    String app = null, pi = null, node = ResourceIdUtils.NODE, service = null, path = null;
-                    int type = ResourceRateLimitConfig.Type.NODE, id = 0;
-                    ResourceRateLimitConfig c = resourceRateLimitConfigService.getResourceRateLimitConfig(resource);
-
-                    if (c == null) { // _global, host, service, app, app+service, ip, ip+service
-                        node = ResourceIdUtils.getNode(resource);
-                        if (node != null) {
-                            if (!node.equals(ResourceIdUtils.NODE)) {
-                                type = ResourceRateLimitConfig.Type.HOST;
-                            }
+        boolean compact   = COMPACT.equals(flowStatSchedConfigProperties.getFormat());
+        int     batchSize = Math.max(flowStatSchedConfigProperties.getBatchSize(), 1);
+        boolean skipIdle  = flowStatSchedConfigProperties.isSkipIdle();
+        List<String> msgs = toMsgs(resourceTimeWindowStats, compact, batchSize, skipIdle);
+
+        send(msgs);
+
+        if (log.isDebugEnabled()) {
+            String wt = 'w' + toDP19(startTimeSlot);
+            org.apache.logging.log4j.ThreadContext.put(Consts.TRACE_ID, wt);
+            for (String msg : msgs) {
+                log.debug("report " + wt + ": " + msg);
+            }
+        }
+
+        startTimeSlot = recentEndTimeSlot;
+        if (log.isInfoEnabled()) {
+            log.info(toDP23(st) + " fss " + toDP23(System.currentTimeMillis()) + ", " + msgs.size() + " msgs, " + skips + " idle skipped");
+        }
+    }
+
+    /**
+     * Builds the messages of the stats, batchSize stats at most in one message
+     */
+    List<String> toMsgs(List<ResourceTimeWindowStat> resourceTimeWindowStats, boolean compact, int batchSize, boolean skipIdle) {
+        List<String> msgs = new ArrayList<>();
+        StringBuilder b = null;
+        int n = 0;
+        skips = 0;
+
+        for (ResourceTimeWindowStat rtws : resourceTimeWindowStats) {
+            ResourceKey resource = rtws.getResourceKey();
+            String app = null, pi = null, node = ResourceIdUtils.NODE, service = null, path = null;
+            int type = ResourceRateLimitConfig.Type.NODE, id = 0;
+            ResourceRateLimitConfig c = resourceRateLimitConfigService.getResourceRateLimitConfig(resource);
+
+            if (c == null) { // _global, host, service, app, app+service, ip, ip+service
+                node = resource.node;
+                if (node != null) {
+                    if (!node.equals(ResourceIdUtils.NODE)) {
+                        type = ResourceRateLimitConfig.Type.HOST;
+                    }
+                } else {
+                    service = resource.service;
+                    app = resource.app;
+                    pi = resource.ip;
+                    if (service == null) {
+                        if (app == null) {
+                            type = ResourceRateLimitConfig.Type.IP;
                         } else {
-                            service = ResourceIdUtils.getService(resource);
-                            app = ResourceIdUtils.getApp(resource);
-                            pi = ResourceIdUtils.getIp(resource);
-                            if (service == null) {
-                                if (app == null) {
-                                    type = ResourceRateLimitConfig.Type.IP;
-                                } else {
-                                    ResourceRateLimitConfig appConfig = resourceRateLimitConfigService.getResourceRateLimitConfig(ResourceIdUtils.APP_DEFAULT_RESOURCE);
-                                    if (appConfig != null && appConfig.isEnable()) {
-                                        type = ResourceRateLimitConfig.Type.APP_DEFAULT;
-                                    } else {
-                                        type = ResourceRateLimitConfig.Type.APP;
-                                    }
-                                }
+                            ResourceRateLimitConfig appConfig = resourceRateLimitConfigService.getResourceRateLimitConfig(ResourceIdUtils.APP_DEFAULT_RESOURCE_KEY);
+                            if (appConfig != null && appConfig.isEnable()) {
+                                type = ResourceRateLimitConfig.Type.APP_DEFAULT;
                             } else {
-                                if (app == null && pi == null) {
-                                    type = ResourceRateLimitConfig.Type.SERVICE_DEFAULT;
-                                } else {
-                                    if (app == null) {
-                                        type = ResourceRateLimitConfig.Type.IP;
-                                    } else {
-                                        type = ResourceRateLimitConfig.Type.APP;
-                                    }
-                                }
+                                type = ResourceRateLimitConfig.Type.APP;
                             }
                         }
                     } else {
-                        app = c.app;
-                        pi = c.ip;
-                        service = c.service;
-                        path = c.path;
-                        type = c.type;
-                        id = c.id;
-                    }
-
-                    List<TimeWindowStat> wins = rtws.getWindows();
-                    for (int i = 0; i < wins.size(); i++) {
-                        TimeWindowStat w = wins.get(i);
-                        StringBuilder b = ThreadContext.getStringBuilder();
-                        long timeWin = w.getStartTime();
-                        BigDecimal rps = w.getRps();
-                        BigDecimal peakRps = w.getPeakRps();
-                        double qps, pRps;
-                        if (rps == null) {
-                            qps = 0.00;
+                        if (app == null && pi == null) {
+                            type = ResourceRateLimitConfig.Type.SERVICE_DEFAULT;
                         } else {
-                            qps = rps.doubleValue();
-                        }
-                        if (peakRps == null) {
-                            pRps = 0.00;
-                        } else {
-                            pRps = peakRps.doubleValue();
+                            if (app == null) {
+                                type = ResourceRateLimitConfig.Type.IP;
+                            } else {
+                                type = ResourceRateLimitConfig.Type.APP;
+                            }
                         }
+                    }
+                }
+            } else {
+                app = c.app;
+                pi = c.ip;
+                service = c.service;
+                path = c.path;
+                type = c.type;
+                id = c.id;
+            }
+
+            String r = null;
+            if (type == ResourceRateLimitConfig.Type.NODE || type == ResourceRateLimitConfig.Type.HOST) {
+                r = node;
+            } else if (type == ResourceRateLimitConfig.Type.SERVICE_DEFAULT || type == ResourceRateLimitConfig.Type.SERVICE) {
+                r = service;
+            }
+
+            List<TimeWindowStat> wins = rtws.getWindows();
+            for (int i = 0; i < wins.size(); i++) {
+                TimeWindowStat w = wins.get(i);
+                if (skipIdle && isIdle(w)) {
+                    skips++;
+                    continue;
+                }
+                if (b == null) {
+                    b = ThreadContext.getStringBuilder();
+                    startMsg(b, compact, batchSize);
+                } else {
+                    b.append(Consts.S.COMMA);
+                }
+                if (compact) {
+                    appendRow(b, id, r, type, app, pi, service, path, w);
+                } else {
+                    appendJson(b, id, r, type, app, pi, service, path, w);
+                }
+                if (++n == batchSize) {
+                    endMsg(b, compact, batchSize);
+                    msgs.add(b.toString());
+                    b = null;
+                    n = 0;
+                }
+            }
+        }
+        if (b != null) {
+            endMsg(b, compact, batchSize);
+            msgs.add(b.toString());
+        }
+        return msgs;
+    }
 
-                        long tbrs = w.getTotalBlockRequests();
+    private static boolean isIdle(TimeWindowStat w) {
+        return isZero(w.getTotal()) && isZero(w.getCompReqs()) && isZero(w.getPeakConcurrentReqeusts()) && isZero(w.getTotalBlockRequests());
+    }
 
-                        b.append(Consts.S.LEFT_BRACE);
-                        b.append(_ip);                     toJsonStringValue(b, ip);                 b.append(Consts.S.COMMA);
-                        b.append(_id);                     b.append(id);                             b.append(Consts.S.COMMA);
+    private static boolean isZero(Long v) {
+        return v == null || v == 0;
+    }
 
-                        String r = null;
-                        if (type == ResourceRateLimitConfig.Type.NODE || type == ResourceRateLimitConfig.Type.HOST) {
-                            r = node;
-                        } else if (type == ResourceRateLimitConfig.Type.SERVICE_DEFAULT || type == ResourceRateLimitConfig.Type.SERVICE) {
-                            r = service;
-                        }
-                        if (r != null) {
-                        b.append(_resource);               toJsonStringValue(b, r);                  b.append(Consts.S.COMMA);
-                        }
+    private void startMsg(StringBuilder b, boolean compact, int batchSize) {
+        if (compact) {
+            b.append(Consts.S.LEFT_BRACE);
+            b.append(_ip);      toJsonStringValue(b, ip);  b.append(Consts.S.COMMA);
+            b.append(_fields);  b.append(compactFields);   b.append(Consts.S.COMMA);
+            b.append(_rows);    b.append(Consts.S.LEFT_SQUARE_BRACKET);
+        } else if (batchSize > 1) {
+            b.append(Consts.S.LEFT_SQUARE_BRACKET);
+        }
+    }
 
-                        b.append(_type);                   b.append(type);                           b.append(Consts.S.COMMA);
+    private static void endMsg(StringBuilder b, boolean compact, int batchSize) {
+        if (compact) {
+            b.append(Consts.S.RIGHT_SQUARE_BRACKET).append(Consts.S.RIGHT_BRACE);
+        } else if (batchSize > 1) {
+            b.append(Consts.S.RIGHT_SQUARE_BRACKET);
+        }
+    }
 
-                        if (app != null) {
-                        b.append(_app);                    toJsonStringValue(b, app);                b.append(Consts.S.COMMA);
-                        }
+    private void appendJson(StringBuilder b, int id, String r, int type, String app, String pi, String service, String path, TimeWindowStat w) {
+        b.append(Consts.S.LEFT_BRACE);
+        b.append(_ip);                     toJsonStringValue(b, ip);                 b.append(Consts.S.COMMA);
+        b.append(_id);                     b.append(id);                             b.append(Consts.S.COMMA);
 
-                        if (pi != null) {
-                        b.append(_sourceIp);               toJsonStringValue(b, pi);                 b.append(Consts.S.COMMA);
-                        }
+        if (r != null) {
+        b.append(_resource);               toJsonStringValue(b, r);                  b.append(Consts.S.COMMA);
+        }
 
-                        if (service != null) {
-                        b.append(_service);                toJsonStringValue(b, service);            b.append(Consts.S.COMMA);
-                        }
+        b.append(_type);                   b.append(type);                           b.append(Consts.S.COMMA);
 
-                        if (path != null) {
-                        b.append(_path);                   toJsonStringValue(b, path);               b.append(Consts.S.COMMA);
-                        }
+        if (app != null) {
+        b.append(_app);                    toJsonStringValue(b, app);                b.append(Consts.S.COMMA);
+        }
 
-                        b.append(_start);                  b.append(timeWin);                        b.append(Consts.S.COMMA);
-                        b.append(_reqs);                   b.append(w.getTotal());                   b.append(Consts.S.COMMA);
-                        b.append(_completeReqs);           b.append(w.getCompReqs());                b.append(Consts.S.COMMA);
-                        b.append(_peakConcurrents);        b.append(w.getPeakConcurrentReqeusts());  b.append(Consts.S.COMMA);
-                        b.append(_reqPerSec);              b.append(qps);                            b.append(Consts.S.COMMA);
-                        b.append(_peakRps);                b.append(pRps);                           b.append(Consts.S.COMMA);
-                        b.append(_blockReqs);              b.append(w.getBlockRequests());           b.append(Consts.S.COMMA);
-                        b.append(_totalBlockReqs);         b.append(tbrs);                           b.append(Consts.S.COMMA);
-                        b.append(_errors);                 b.append(w.getErrors());                  b.append(Consts.S.COMMA);
-                        b.append(_avgRespTime);            b.append(w.getAvgRt());                   b.append(Consts.S.COMMA);
-                        b.append(_maxRespTime);            b.append(w.getMax());                     b.append(Consts.S.COMMA);
-                        b.append(_minRespTime);            b.append(w.getMin());                     b.append(Consts.S.COMMA);
-
-                        b.append(_2xxStatus);              b.append(w.get2xxStatus());               b.append(Consts.S.COMMA);
-                        b.append(_4xxStatus);              b.append(w.get4xxStatus());               b.append(Consts.S.COMMA);
-                        b.append(_5xxStatus);              b.append(w.get5xxStatus());               b.append(Consts.S.COMMA);
-                        b.append(_504Status);              b.append(w.get504Status());
-
-                        b.append(Consts.S.RIGHT_BRACE);
-                        String msg = b.toString();
-                        if ("kafka".equals(flowStatSchedConfigProperties.getDest())) { // for internal use
-                            // log.warn(msg, LogService.HANDLE_STGY, LogService.toKF(flowStatSchedConfigProperties.getQueue()));
-                            FLOW_LOGGER.info(msg);
-                        } else {
-                            rt.convertAndSend(flowStatSchedConfigProperties.getQueue(), msg).subscribe();
-                        }
-                        if (log.isDebugEnabled()) {
-                            String wt = 'w' + toDP19(timeWin);
-                            // log.debug("report " + wt + ": " + msg, LogService.BIZ_ID, wt);
-                            org.apache.logging.log4j.ThreadContext.put(Consts.TRACE_ID, wt);
-                            log.debug("report " + wt + ": " + msg);
-                        }
-                    }
-                }
-        );
+        if (pi != null) {
+        b.append(_sourceIp);               toJsonStringValue(b, pi);                 b.append(Consts.S.COMMA);
+        }
 
-        startTimeSlot = recentEndTimeSlot;
-        if (log.isInfoEnabled()) {
-            log.info(toDP23(st) + " fss " + toDP23(System.currentTimeMillis()));
+        if (service != null) {
+        b.append(_service);                toJsonStringValue(b, service);            b.append(Consts.S.COMMA);
+        }
+
+        if (path != null) {
+        b.append(_path);                   toJsonStringValue(b, path);               b.append(Consts.S.COMMA);
+        }
+
+        b.append(_start);                  b.append(w.getStartTime());               b.append(Consts.S.COMMA);
+        b.append(_reqs);                   b.append(w.getTotal());                   b.append(Consts.S.COMMA);
+        b.append(_completeReqs);           b.append(w.getCompReqs());                b.append(Consts.S.COMMA);
+        b.append(_peakConcurrents);        b.append(w.getPeakConcurrentReqeusts());  b.append(Consts.S.COMMA);
+        b.append(_reqPerSec);              b.append(toDouble(w.getRps()));           b.append(Consts.S.COMMA);
+        b.append(_peakRps);                b.append(toDouble(w.getPeakRps()));       b.append(Consts.S.COMMA);
+        b.append(_blockReqs);              b.append(w.getBlockRequests());           b.append(Consts.S.COMMA);
+        b.append(_totalBlockReqs);         b.append(w.getTotalBlockRequests());      b.append(Consts.S.COMMA);
+        b.append(_errors);                 b.append(w.getErrors());                  b.append(Consts.S.COMMA);
+        b.append(_avgRespTime);            b.append(w.getAvgRt());                   b.append(Consts.S.COMMA);
+        b.append(_maxRespTime);            b.append(w.getMax());                     b.append(Consts.S.COMMA);
+        b.append(_minRespTime);            b.append(w.getMin());                     b.append(Consts.S.COMMA);
+
+        b.append(_2xxStatus);              b.append(w.get2xxStatus());               b.append(Consts.S.COMMA);
+        b.append(_4xxStatus);              b.append(w.get4xxStatus());               b.append(Consts.S.COMMA);
+        b.append(_5xxStatus);              b.append(w.get5xxStatus());               b.append(Consts.S.COMMA);
+        b.append(_504Status);              b.append(w.get504Status());
+
+        b.append(Consts.S.RIGHT_BRACE);
+    }
+
+    /**
+     * Values in the order of compactFields
+     */
+    private static void appendRow(StringBuilder b, int id, String r, int type, String app, String pi, String service, String path, TimeWindowStat w) {
+        b.append(Consts.S.LEFT_SQUARE_BRACKET);
+        b.append(id);                                b.append(Consts.S.COMMA);
+        toJsonStringValueOrNull(b, r);               b.append(Consts.S.COMMA);
+        b.append(type);                              b.append(Consts.S.COMMA);
+        toJsonStringValueOrNull(b, app);             b.append(Consts.S.COMMA);
+        toJsonStringValueOrNull(b, pi);              b.append(Consts.S.COMMA);
+        toJsonStringValueOrNull(b, service);         b.append(Consts.S.COMMA);
+        toJsonStringValueOrNull(b, path);            b.append(Consts.S.COMMA);
+        b.append(w.getStartTime());                  b.append(Consts.S.COMMA);
+        b.append(w.getTotal());                      b.append(Consts.S.COMMA);
+        b.append(w.getCompReqs());                   b.append(Consts.S.COMMA);
+        b.append(w.getPeakConcurrentReqeusts());     b.append(Consts.S.COMMA);
+        b.append(toDouble(w.getRps()));              b.append(Consts.S.COMMA);
+        b.append(toDouble(w.getPeakRps()));          b.append(Consts.S.COMMA);
+        b.append(w.getBlockRequests());              b.append(Consts.S.COMMA);
+        b.append(w.getTotalBlockRequests());         b.append(Consts.S.COMMA);
+        b.append(w.getErrors());                     b.append(Consts.S.COMMA);
+        b.append(w.getAvgRt());                      b.append(Consts.S.COMMA);
+        b.append(w.getMax());                        b.append(Consts.S.COMMA);
+        b.append(w.getMin());                        b.append(Consts.S.COMMA);
+        b.append(w.get2xxStatus());                  b.append(Consts.S.COMMA);
+        b.append(w.get4xxStatus());                  b.append(Consts.S.COMMA);
+        b.append(w.get5xxStatus());                  b.append(Consts.S.COMMA);
+        b.append(w.get504Status());
+        b.append(Consts.S.RIGHT_SQUARE_BRACKET);
+    }
+
+    private void send(List<String> msgs) {
+        if (msgs.isEmpty()) {
+            return;
+        }
+        String dest = flowStatSchedConfigProperties.getDest();
+        if ("kafka".equals(dest)) { // for internal use
+            for (String msg : msgs) {
+                // log.warn(msg, LogService.HANDLE_STGY, LogService.toKF(flowStatSchedConfigProperties.getQueue()));
+                FLOW_LOGGER.info(msg);
+            }
+            return;
+        }
+        String queue = flowStatSchedConfigProperties.getQueue();
+        int concurrency = Math.max(flowStatSchedConfigProperties.getSendConcurrency(), 1);
+        Flux<String> msgFlux = Flux.fromIterable(msgs);
+        if (REDIS_STREAM.equals(dest)) {
+            // commands issued concurrently on the shared connection are pipelined
+            Mono<?> add = msgFlux.flatMap(
+                                         msg -> rt.opsForStream().add(StreamRecords.string(Collections.singletonMap(_data, msg)).withStreamKey(queue)),
+                                         concurrency
+                                 )
+                                 .then();
+            long maxLen = flowStatSchedConfigProperties.getStreamMaxLen();
+            if (maxLen > 0) {
+                add = add.then(rt.opsForStream().trim(queue, maxLen));
+            }
+            add.subscribe(null, t -> log.error("add flow stat to stream " + queue + " error", t));
+        } else {
+            msgFlux.flatMap(msg -> rt.convertAndSend(queue, msg), concurrency)
+                   .subscribe(null, t -> log.error("publish flow stat to " + queue + " error", t));
         }
     }
 
@@ -290,4 +426,19 @@ public class FlowStatSchedConfig extends SchedConfig {
     private static void toJsonStringValue(StringBuilder b, String value) {
         b.append(Consts.S.DOUBLE_QUOTE).append(value).append(Consts.S.DOUBLE_QUOTE);
     }
+
+    private static void toJsonStringValueOrNull(StringBuilder b, String value) {
+        if (value == null) {
+            b.append(_null);
+        } else {
+            toJsonStringValue(b, value);
+        }
+    }
+
+    private static double toDouble(BigDecimal v) {
+        if (v == null) {
+            return 0.00;
+        }
+        return v.doubleValue();
+    }
 }
@@ -39,4 +39,35 @@ public class FlowStatSchedConfigProperties {
 
     @Value("${flow-stat-sched.queue:fizz_resource_access_stat}")
     private String queue;
+
+    /**
+     * Max stats in one message, 1 means one json object per message, otherwise a json array or a compact message,
+     * which the consumers of the queue must accept
+     */
+    @Value("${flow-stat-sched.batch-size:1}")
+    private int batchSize;
+
+    /**
+     * json or compact, compact message holds field names once and the stats as rows of values
+     */
+    @Value("${flow-stat-sched.format:json}")
+    private String format;
+
+    /**
+     * Skip the stat of a resource without any request in the time window
+     */
+    @Value("${flow-stat-sched.skip-idle:false}")
+    private boolean skipIdle;
+
+    /**
+     * Max length of the stream if dest is redis-stream, not trimmed if not positive
+     */
+    @Value("${flow-stat-sched.stream-max-len:100000}")
+    private long streamMaxLen;
+
+    /**
+     * Max messages sent to redis concurrently, the commands are pipelined on the shared connection
+     */
+    @Value("${flow-stat-sched.send-concurrency:16}")
+    private int sendConcurrency;
 }
@@ -52,13 +52,8 @@ public abstract class ManualApiConfig {
         // gatewayGroupService.currentGatewayGroupSet = Stream.of(GatewayGroup.DEFAULT).collect(Collectors.toSet());
         gatewayGroupService.currentGatewayGroupSet.add(GatewayGroup.DEFAULT);
         List<ApiConfig> apiConfigs = setApiConfigs();
+        apiConfigService.add(apiConfigs);
         for (ApiConfig ac : apiConfigs) {
-            ServiceConfig sc = apiConfigService.serviceConfigMap.get(ac.service);
-            if (sc == null) {
-                sc = new ServiceConfig(ac.service);
-                apiConfigService.serviceConfigMap.put(ac.service, sc);
-            }
-            sc.add(ac);
             log.info("manual add {}", ac);
         }
     }
@@ -20,22 +20,37 @@ import com.fizzgate.aggregate.web.loader.ConfigLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.scheduling.annotation.Scheduled;
 
 import com.fizzgate.plugin.auth.ApiConfig2appsService;
 import com.fizzgate.plugin.auth.ApiConfigService;
+import com.fizzgate.plugin.auth.ApiConfigServiceProperties;
 import com.fizzgate.plugin.auth.AppService;
 import com.fizzgate.plugin.auth.GatewayGroupService;
 import com.fizzgate.proxy.RpcInstanceService;
+import com.fizzgate.proxy.RpcInstanceServiceImpl;
 import com.fizzgate.service_registry.RegistryCenterService;
 import com.fizzgate.stats.degrade.DegradeRuleService;
 import com.fizzgate.stats.ratelimit.ResourceRateLimitConfigService;
 import com.fizzgate.util.Result;
 
 import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * refresh config local cache config
+ * <p>
+ * A domain is refreshed only if its redis hashes changed since the last refresh, which is known by the fingerprint of the hashes:
+ * the values of the {@code <hash key>_version} keys, which the manager must update with every change of the hashes,
+ * a domain without such keys is always refreshed, unless the checksum is enabled,
+ * then the fingerprint of a hash without version key is its sha1 computed in redis.
+ *
  * @see ApiConfigService#refreshLocalCache() refresh api config local cache
  * @see ApiConfig2appsService#refreshLocalCache() refresh api config to apps local cache
  * @see ConfigLoader#refreshLocalCache()  refresh aggregate config local cache
@@ -51,9 +66,31 @@ import javax.annotation.Resource;
 public class RefreshLocalCacheConfig {
     private static final Logger LOGGER = LoggerFactory.getLogger(RefreshLocalCacheConfig.class);
 
+    private static final String VERSION_KEY_SUFFIX = "_version";
+
+    private static final RedisScript<String> CHECKSUM_SCRIPT = new DefaultRedisScript<>(
+            "local t = redis.call('HGETALL', KEYS[1]) " +
+            "for i = 1, #t do t[i] = #t[i] .. ':' .. t[i] end " +
+            "return redis.sha1hex(table.concat(t))",
+            String.class
+    );
+
+    private static final Duration FINGERPRINT_TIMEOUT = Duration.ofSeconds(10);
+
+    @FunctionalInterface
+    interface LocalCacheRefresher {
+        void refresh() throws Throwable;
+    }
+
     @Resource
     private RefreshLocalCacheConfigProperties refreshLocalCacheConfigProperties;
 
+    @Resource
+    private ApiConfigServiceProperties apiConfigServiceProperties;
+
+    @Resource(name = AggregateRedisConfig.AGGREGATE_REACTIVE_REDIS_TEMPLATE)
+    private ReactiveStringRedisTemplate rt;
+
     @Resource
     private ConfigLoader configLoader;
 
@@ -84,25 +121,22 @@ public class RefreshLocalCacheConfig {
 //    @Resource
 //    private DegradeRuleService degradeRuleService;
 
+    /**
+     * domain to the fingerprint of its hashes when it was refreshed, only accessed by the scheduling thread
+     */
+    private final Map<String, String> refreshedFingerprints = new HashMap<>();
+
     @Scheduled(initialDelayString = "${refresh-local-cache.initial-delay-millis:300000}",
             fixedRateString = "${refresh-local-cache.fixed-rate-millis:300000}")
     public void refreshLocalCache() {
         if (refreshLocalCacheConfigProperties.isApiConfigCacheRefreshEnabled()) {
-            LOGGER.debug("refresh api config local cache");
-            try {
-                apiConfigService.refreshLocalCache();
-            } catch (Throwable t) {
-                LOGGER.warn("refresh api config local cache exception", t);
-            }
+            refresh("api config", apiConfigService::refreshLocalCache, true,
+                    apiConfigServiceProperties.getFizzApiConfig(), apiConfigServiceProperties.getFizzPluginConfig());
         }
 
         if (refreshLocalCacheConfigProperties.isApiConfig2AppsCacheRefreshEnabled()) {
-            LOGGER.debug("refresh api config to apps local cache");
-            try {
-                apiConfig2AppsService.refreshLocalCache();
-            } catch (Throwable t) {
-                LOGGER.warn("refresh api config to apps local cache exception", t);
-            }
+            // the apps are in many sets besides the hash, so only a version key tells whether they changed, never checksum them
+            refresh("api config to apps", apiConfig2AppsService::refreshLocalCache, false, ApiConfig2appsService.fizzApiConfigAppSetSize);
         }
 
         if (refreshLocalCacheConfigProperties.isAggregateConfigCacheRefreshEnabled()) {
@@ -115,59 +149,89 @@ public class RefreshLocalCacheConfig {
         }
 
         if (refreshLocalCacheConfigProperties.isGatewayGroupCacheRefreshEnabled()) {
-            LOGGER.debug("refresh gateway group local cache");
-            try {
-                gatewayGroupService.refreshLocalCache();
-            } catch (Throwable t) {
-                LOGGER.warn("refresh gateway group local cache exception", t);
-            }
+            refresh("gateway group", gatewayGroupService::refreshLocalCache, true, GatewayGroupService.fizzGatewayGroup);
         }
 
         if (refreshLocalCacheConfigProperties.isAppAuthCacheRefreshEnabled()) {
-            LOGGER.debug("refresh app auth local cache");
-            try {
-                appService.refreshLocalCache();
-            } catch (Throwable t) {
-                LOGGER.warn("refresh app auth local cache exception", t);
-            }
+            refresh("app auth", appService::refreshLocalCache, true, AppService.fizzApp);
         }
 
         if (refreshLocalCacheConfigProperties.isFlowControlRuleCacheRefreshEnabled()) {
-            LOGGER.debug("refresh flow control rule local cache");
-            try {
-                resourceRateLimitConfigService.refreshLocalCache();
-            } catch (Throwable t) {
-                LOGGER.warn("refresh flow control rule local cache exception", t);
-            }
+            refresh("flow control rule", resourceRateLimitConfigService::refreshLocalCache, true, ResourceRateLimitConfigService.fizzRateLimit);
         }
 
         if (refreshLocalCacheConfigProperties.isRpcServiceCacheRefreshEnabled()) {
-            LOGGER.debug("refresh rpc service local cache");
-            try {
-                rpcInstanceService.refreshLocalCache();
-            } catch (Throwable t) {
-                LOGGER.warn("refresh rpc service local cache exception", t);
-            }
+            refresh("rpc service", rpcInstanceService::refreshLocalCache, true, RpcInstanceServiceImpl.RPC_SERVICE_HASH_KEY);
         }
 
 //        if (refreshLocalCacheConfigProperties.isDegradeRuleCacheRefreshEnabled()) {
-//            LOGGER.debug("refresh degrade rule local cache");
-//            try {
-//                degradeRuleService.refreshLocalCache();
-//            } catch (Throwable t) {
-//                LOGGER.warn("refresh degrade rule local cache exception", t);
-//            }
+//            refresh("degrade rule", degradeRuleService::refreshLocalCache, true, "fizz_degrade_rule");
 //        }
 
         if (refreshLocalCacheConfigProperties.isRegistryCenterCacheRefreshEnabled()) {
-            Result<?> result = registryCenterService.initRegistryCenter();
-            if (result.code == Result.SUCC) {
-                LOGGER.info("refresh registry center local cache done");
+            refresh("registry center",
+                    () -> {
+                        Result<?> result = registryCenterService.initRegistryCenter();
+                        if (result.code != Result.SUCC) {
+                            throw new RuntimeException(result.msg, result.t);
+                        }
+                    },
+                    true, RegistryCenterService.FIZZ_REGISTRY);
+        }
+
+        fizzMangerConfig.updateMangerUrl();
+    }
+
+    void refresh(String domain, LocalCacheRefresher refresher, boolean checksum, String... hashKeys) {
+        String fingerprint = null;
+        if (refreshLocalCacheConfigProperties.isSkipUnchangedEnabled()) {
+            fingerprint = fingerprint(domain, checksum && refreshLocalCacheConfigProperties.isChecksumEnabled(), hashKeys);
+            if (fingerprint != null && fingerprint.equals(refreshedFingerprints.get(domain))) {
+                LOGGER.debug("{} local cache is up to date", domain);
+                return;
+            }
+        }
+        LOGGER.debug("refresh {} local cache", domain);
+        try {
+            refresher.refresh();
+            if (fingerprint == null) {
+                refreshedFingerprints.remove(domain);
             } else {
-                LOGGER.warn("fail to refresh registry center local cache: {}", result.msg, result.t);
+                refreshedFingerprints.put(domain, fingerprint);
             }
+        } catch (Throwable t) {
+            refreshedFingerprints.remove(domain);
+            LOGGER.warn("refresh {} local cache exception", domain, t);
         }
+    }
 
-        fizzMangerConfig.updateMangerUrl();
+    /**
+     * The fingerprint is taken before the refresh, a change made during the refresh just causes another refresh next time.
+     *
+     * @return the fingerprint of the hashes, or null if it is unknown and the domain should be refreshed anyway
+     */
+    String fingerprint(String domain, boolean checksum, String... hashKeys) {
+        try {
+            StringBuilder b = new StringBuilder(64 * hashKeys.length);
+            for (String hashKey : hashKeys) {
+                String version = rt.opsForValue().get(hashKey + VERSION_KEY_SUFFIX).block(FINGERPRINT_TIMEOUT);
+                if (version != null) {
+                    b.append('v').append(version);
+                } else if (checksum) {
+                    String sha1 = rt.execute(CHECKSUM_SCRIPT, Collections.singletonList(hashKey)).next().block(FINGERPRINT_TIMEOUT);
+                    if (sha1 == null) {
+                        return null;
+                    }
+                    b.append('c').append(sha1);
+                } else {
+                    return null;
+                }
+                b.append(',');
+            }
+            return b.toString();
+        } catch (Throwable t) {
+            LOGGER.warn("get {} local cache fingerprint exception", domain, t);
+            return null;
+        }
     }
 }
@@ -57,4 +57,19 @@ public class RefreshLocalCacheConfigProperties {
 
     @Value("${refresh-local-cache.registry-center-enabled:false}")
     private boolean registryCenterCacheRefreshEnabled;
+
+    /**
+     * skip refreshing the local cache of a domain whose redis data is not changed since the last refresh,
+     * which is known by the {@code <hash key>_version} keys the manager should update with every change of the hashes,
+     * a domain without such keys is always refreshed
+     */
+    @Value("${refresh-local-cache.skip-unchanged-enabled:true}")
+    private boolean skipUnchangedEnabled;
+
+    /**
+     * compute the sha1 of a hash without version key in redis, by a lua script reading the whole hash,
+     * which blocks redis during the computation, so only for small hashes
+     */
+    @Value("${refresh-local-cache.checksum-enabled:false}")
+    private boolean checksumEnabled;
 }
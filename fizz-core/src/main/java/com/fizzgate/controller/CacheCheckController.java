@@ -37,6 +37,7 @@ import com.fizzgate.stats.ratelimit.ResourceRateLimitConfigService;
 import com.fizzgate.util.Consts;
 import com.fizzgate.util.JacksonUtils;
 import com.fizzgate.util.ResourceIdUtils;
+import com.fizzgate.util.ResourceKey;
 
 import reactor.core.publisher.Mono;
 
@@ -124,19 +125,19 @@ public class CacheCheckController {
 	public Mono<String> resourceStats(ServerWebExchange exchange) {
 		Map<String, Object> map = new HashMap<>();
 		int nodeCnt = 0, serviceDefaultCnt = 0, serviceCnt = 0, servicePathCnt = 0, appDefaultCnt = 0, appCnt = 0, ipCnt = 0, hostCnt = 0;
-		ConcurrentMap<String, ResourceStat> resourceStats = flowStat.resourceStats;
-		Set<Map.Entry<String, ResourceStat>> entrySet = resourceStats.entrySet();
-		for (Map.Entry<String, ResourceStat> entry : entrySet) {
-			String resource = entry.getKey();
+		ConcurrentMap<ResourceKey, ResourceStat> resourceStats = flowStat.resourceStats;
+		Set<Map.Entry<ResourceKey, ResourceStat>> entrySet = resourceStats.entrySet();
+		for (Map.Entry<ResourceKey, ResourceStat> entry : entrySet) {
+			ResourceKey resource = entry.getKey();
 			ResourceRateLimitConfig config = resourceRateLimitConfigService.getResourceRateLimitConfig(resource);
 			if (config == null) {
-				String app = ResourceIdUtils.getApp(resource);
-				String ip = ResourceIdUtils.getIp(resource);
-				String node = ResourceIdUtils.getNode(resource);
-				String service = ResourceIdUtils.getService(resource);
+				String app = resource.app;
+				String ip = resource.ip;
+				String node = resource.node;
+				String service = resource.service;
 				if (node == null) {
 					if (app != null) {
-						ResourceRateLimitConfig appConfig = resourceRateLimitConfigService.getResourceRateLimitConfig(ResourceIdUtils.APP_DEFAULT_RESOURCE);
+						ResourceRateLimitConfig appConfig = resourceRateLimitConfigService.getResourceRateLimitConfig(ResourceIdUtils.APP_DEFAULT_RESOURCE_KEY);
 						if (appConfig != null && appConfig.isEnable()) {
 							appDefaultCnt++;
 						} else {
@@ -0,0 +1,55 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.controller;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.fizzgate.config.ConnectionPoolStat;
+import com.fizzgate.proxy.FizzWebClient;
+import com.fizzgate.util.JacksonUtils;
+
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.TreeMap;
+
+@RestController
+@RequestMapping("/admin/connectionPool")
+public class ConnectionPoolController {
+
+	@Resource
+	private FizzWebClient fizzWebClient;
+
+	/**
+	 * @param upstream host:port or service, all upstreams if absent
+	 */
+	@GetMapping("/stats")
+	public Mono<String> stats(ServerWebExchange exchange, @RequestParam(value = "upstream", required = false) String upstream) {
+		Map<String, ConnectionPoolStat> stats = fizzWebClient.getConnectionPoolStats();
+		if (upstream == null) {
+			return Mono.just(JacksonUtils.writeValueAsString(new TreeMap<>(stats)));
+		}
+		ConnectionPoolStat stat = stats.get(upstream);
+		return Mono.just(stat == null ? "{}" : JacksonUtils.writeValueAsString(stat));
+	}
+}
@@ -26,6 +26,7 @@ import javax.annotation.Resource;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.annotation.Order;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.http.HttpHeaders;
@@ -44,6 +45,7 @@ import com.fizzgate.plugin.auth.GatewayGroupService;
 import com.fizzgate.plugin.auth.Receiver;
 import com.fizzgate.proxy.CallbackService;
 import com.fizzgate.proxy.DiscoveryClientUriSelector;
+import com.fizzgate.proxy.Route;
 import com.fizzgate.proxy.ServiceInstance;
 import com.fizzgate.service_registry.RegistryCenterService;
 import com.fizzgate.spring.http.server.reactive.ext.FizzServerHttpRequestDecorator;
@@ -89,6 +91,12 @@ public class CallbackFilter extends FizzWebFilter {
     @Resource
     private GatewayGroupService gatewayGroupService;
 
+    /**
+     * keep the request body as the pooled buffer received instead of copying it to heap
+     */
+    @Value("${fizz.request-body.zero-copy:false}")
+    private boolean zeroCopyBody;
+
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
@@ -99,6 +107,9 @@ public class CallbackFilter extends FizzWebFilter {
         if (req instanceof FizzServerHttpRequestDecorator) {
             return doFilter(exchange, chain);
         }
+        if (!needBody(exchange)) {
+            return chain.filter(exchange);
+        }
         return
                 NettyDataBufferUtils.join(req.getBody()).defaultIfEmpty(NettyDataBufferUtils.EMPTY_DATA_BUFFER)
                         .flatMap(
@@ -106,7 +117,11 @@ public class CallbackFilter extends FizzWebFilter {
                                     FizzServerHttpRequestDecorator requestDecorator = new FizzServerHttpRequestDecorator(req);
                                     if (body != NettyDataBufferUtils.EMPTY_DATA_BUFFER) {
                                         try {
-                                            requestDecorator.setBody(body);
+                                            if (zeroCopyBody) {
+                                                requestDecorator.retainBody(body);
+                                            } else {
+                                                requestDecorator.setBody(body);
+                                            }
                                         } finally {
                                             NettyDataBufferUtils.release(body);
                                         }
@@ -117,11 +132,28 @@ public class CallbackFilter extends FizzWebFilter {
                                     if (MediaType.APPLICATION_FORM_URLENCODED.isCompatibleWith(contentType)) {
                                         newExchange = new FizzServerWebExchangeDecorator(mutatedExchange);
                                     }
+                                    if (zeroCopyBody) {
+                                        return doFilter(newExchange, chain).doFinally(s -> requestDecorator.releaseBody());
+                                    }
                                     return doFilter(newExchange, chain);
                                 }
                         );
     }
     
+    /**
+     * The body is joined only if the route reads it here or may send it more than once,
+     * for other routes the body is streamed to the backend as it is received.
+     * Routes with a body plugin have decorated the request before this filter.
+     */
+    private static boolean needBody(ServerWebExchange exchange) {
+        ApiConfig ac = WebUtils.getApiConfig(exchange);
+        if (ac == null || ac.type == ApiConfig.Type.CALLBACK) {
+            return true;
+        }
+        Route route = WebUtils.getRoute(exchange);
+        return route == null || route.retryCount > 0;
+    }
+
     public Mono<Void> doFilter(ServerWebExchange exchange, WebFilterChain chain) {
     	String traceId = WebUtils.getTraceId(exchange);
     	org.apache.logging.log4j.ThreadContext.put(Consts.TRACE_ID, traceId);
@@ -132,6 +164,7 @@ public class CallbackFilter extends FizzWebFilter {
             FizzServerHttpRequestDecorator req = (FizzServerHttpRequestDecorator) exchange.getRequest();
             return req.getBody().defaultIfEmpty(NettyDataBufferUtils.EMPTY_DATA_BUFFER).single().flatMap(b -> {
             							String body = b.toString(StandardCharsets.UTF_8);
+                                        NettyDataBufferUtils.releaseBody(b);
                                         HashMap<String, ServiceInstance> service2instMap = getService2instMap(ac);
                                         HttpHeaders headers = WebUtils.mergeAppendHeaders(exchange);
                                         pushReq2manager(exchange, headers, body, service2instMap, cc.id, ac.gatewayGroups.iterator().next());
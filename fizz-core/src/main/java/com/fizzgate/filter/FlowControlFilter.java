@@ -31,6 +31,8 @@ import com.fizzgate.stats.degrade.DegradeRule;
 import com.fizzgate.stats.ratelimit.ResourceRateLimitConfig;
 import com.fizzgate.stats.ratelimit.ResourceRateLimitConfigService;
 import com.fizzgate.util.*;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,8 +51,11 @@ import reactor.core.publisher.SignalType;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
 
 /**
  * @author hongqiaowei
@@ -84,6 +89,95 @@ public class FlowControlFilter extends FizzWebFilter {
 
 
 
+	/**
+	 * Resource chain key of a request, app, ip and path are null if no rate limit config or
+	 * circuit breaker is for them, so the key is bounded by the configs rather than the requests
+	 */
+	private static final class ResourceChainKey {
+
+		private final String app;
+		private final String ip;
+		private final String node;
+		private final String service;
+		private final String path;
+		private final int    hash;
+
+		ResourceChainKey(String app, String ip, String node, String service, String path) {
+			this.app     = app;
+			this.ip      = ip;
+			this.node    = node;
+			this.service = service;
+			this.path    = path;
+			this.hash    = Objects.hash(app, ip, node, service, path);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof ResourceChainKey)) {
+				return false;
+			}
+			ResourceChainKey that = (ResourceChainKey) o;
+			return hash == that.hash && Objects.equals(path, that.path) && Objects.equals(service, that.service)
+					&& Objects.equals(app, that.app) && Objects.equals(ip, that.ip) && Objects.equals(node, that.node);
+		}
+	}
+
+	/**
+	 * Immutable resource chain of a request and the parents of each resource in the chain,
+	 * it is also the totalBlockFunc passed to FlowStat
+	 */
+	private static final class ResourceChainPlan implements BiFunction<ResourceConfig, List<ResourceConfig>, List<ResourceConfig>> {
+
+		private final List<ResourceConfig>       resourceConfigs;
+
+		private final List<List<ResourceConfig>> parents;
+
+		ResourceChainPlan(List<ResourceConfig> resourceConfigs, List<List<ResourceConfig>> parents) {
+			this.resourceConfigs = Collections.unmodifiableList(resourceConfigs);
+			this.parents         = parents;
+		}
+
+		@Override
+		public List<ResourceConfig> apply(ResourceConfig rc, List<ResourceConfig> rcs) {
+			for (int i = 0; i < resourceConfigs.size(); i++) {
+				if (resourceConfigs.get(i) == rc) {
+					return parents.get(i);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Resource chain plans built with the specified rate limit config and circuit breaker versions,
+	 * the least recently used plans are evicted once there are max size plans
+	 */
+	private static final class ResourceChainPlanCache {
+
+		private final long                                  rateLimitConfigVersion;
+		private final long                                  circuitBreakerVersion;
+		private final ResourceRateLimitConfigService.Dimensions dimensions;
+
+		private final Cache<ResourceChainKey, ResourceChainPlan> plans;
+
+		ResourceChainPlanCache(long rateLimitConfigVersion, long circuitBreakerVersion, ResourceRateLimitConfigService.Dimensions dimensions, int maxSize) {
+			this.rateLimitConfigVersion = rateLimitConfigVersion;
+			this.circuitBreakerVersion  = circuitBreakerVersion;
+			this.dimensions             = dimensions;
+			this.plans                  = Caffeine.newBuilder().maximumSize(maxSize).build();
+		}
+	}
+
+	private volatile ResourceChainPlanCache resourceChainPlanCache;
+
 	@Resource
 	private FlowControlFilterProperties    flowControlFilterProperties;
 
@@ -170,10 +264,9 @@ public class FlowControlFilter extends FizzWebFilter {
 
 			long currentTimeSlot = flowStat.currentTimeSlotId();
 			String host = request.getHeaders().getFirst(HttpHeaders.HOST);
-			List<ResourceConfig> resourceConfigs = getFlowControlConfigs(app, ip, host, service, path);
-			IncrRequestResult result = flowStat.incrRequest(exchange, resourceConfigs, currentTimeSlot, (rc, rcs) -> {
-				return getResourceConfigItselfAndParents(rc, rcs);
-			});
+			ResourceChainPlan plan = getResourceChainPlan(app, ip, host, service, path);
+			List<ResourceConfig> resourceConfigs = plan.resourceConfigs;
+			IncrRequestResult result = flowStat.incrRequest(exchange, resourceConfigs, currentTimeSlot, plan);
 
 			if (result != null && !result.isSuccess()) {
 				String blockedResourceId = result.getBlockedResourceId();
@@ -216,7 +309,7 @@ public class FlowControlFilter extends FizzWebFilter {
 						LOGGER.info("{} exceed {} flow limit, blocked by maximum QPS", traceId, blockedResourceId);
 					}
 
-					ResourceRateLimitConfig c = resourceRateLimitConfigService.getResourceRateLimitConfig(ResourceIdUtils.NODE_RESOURCE);
+					ResourceRateLimitConfig c = resourceRateLimitConfigService.getResourceRateLimitConfig(ResourceIdUtils.NODE_RESOURCE_KEY);
 					String rt = c.responseType, rc = c.responseContent;
 					c = resourceRateLimitConfigService.getResourceRateLimitConfig(blockedResourceId);
 					if (c != null) {
@@ -300,23 +393,56 @@ public class FlowControlFilter extends FizzWebFilter {
 		exchange.getAttributes().put(WebUtils.TRACE_ID, traceId);
 	}
 
+	private ResourceChainPlan getResourceChainPlan(String app, String ip, String node, String service, String path) {
+		long rateLimitConfigVersion = resourceRateLimitConfigService.getVersion();
+		long circuitBreakerVersion = circuitBreakManager.getVersion();
+		ResourceChainPlanCache cache = resourceChainPlanCache;
+		if (cache == null || cache.rateLimitConfigVersion != rateLimitConfigVersion || cache.circuitBreakerVersion != circuitBreakerVersion) {
+			cache = new ResourceChainPlanCache(rateLimitConfigVersion, circuitBreakerVersion, resourceRateLimitConfigService.getDimensions(),
+					flowControlFilterProperties.getResourceChainPlanCacheSize());
+			resourceChainPlanCache = cache;
+		}
+
+		if (StringUtils.isBlank(node) || node.equals(ResourceIdUtils.NODE)) {
+			node = null;
+		}
+		ResourceChainKey key = new ResourceChainKey(
+				cache.dimensions.hasApp(app) ? app : null,
+				cache.dimensions.hasIp(ip)   ? ip  : null,
+				node,
+				service,
+				cache.dimensions.hasPath(service, path) || circuitBreakManager.hasCircuitBreaker(service, path) ? path : null
+		);
+		ResourceChainPlan plan = cache.plans.getIfPresent(key);
+		if (plan == null) {
+			List<ResourceConfig> resourceConfigs = getFlowControlConfigs(app, ip, node, service, path);
+			List<List<ResourceConfig>> parents = new ArrayList<>(resourceConfigs.size());
+			for (ResourceConfig rc : resourceConfigs) {
+				parents.add(Collections.unmodifiableList(getResourceConfigItselfAndParents(rc, resourceConfigs)));
+			}
+			plan = new ResourceChainPlan(resourceConfigs, parents);
+			cache.plans.put(key, plan);
+		}
+		return plan;
+	}
+
 	private List<ResourceConfig> getResourceConfigItselfAndParents(ResourceConfig rc, List<ResourceConfig> rcs) {
 		boolean check = false;
-		String rcId = rc.getResourceId();
-		String rcApp = ResourceIdUtils.getApp(rcId);
-		String rcIp = ResourceIdUtils.getIp(rcId);
+		ResourceKey rcId = rc.getResourceKey();
+		String rcApp = rcId.app;
+		String rcIp = rcId.ip;
 		List<ResourceConfig> result = new ArrayList<>();
 		for (int i = rcs.size() - 1; i > -1; i--) {
 			ResourceConfig r = rcs.get(i);
-			String id = r.getResourceId();
-			String node = ResourceIdUtils.getNode(id);
+			ResourceKey id = r.getResourceKey();
+			String node = id.node;
 			if (node != null && !node.equals(ResourceIdUtils.NODE)) {
 				result.add(r);
 				continue;
 			}
-			String app = ResourceIdUtils.getApp(id);
-			String ip = ResourceIdUtils.getIp(id);
-			String path = ResourceIdUtils.getPath(id);
+			String app = id.app;
+			String ip = id.ip;
+			String path = id.path;
 			if (check) {
 				if (rcIp != null) {
 					if (ip != null) {
@@ -355,28 +481,27 @@ public class FlowControlFilter extends FizzWebFilter {
 		boolean hasHost = (StringUtils.isNotBlank(node) && !node.equals(ResourceIdUtils.NODE));
 		int sz = hasHost ? 10 : 9;
 		List<ResourceConfig> resourceConfigs = new ArrayList<>(sz);
-		StringBuilder b = ThreadContext.getStringBuilder();
 
         if (hasHost) {
-            // String resourceId = ResourceIdUtils.buildResourceId(app, ip, node, service, path);
-			String resourceId = ResourceIdUtils.buildResourceId(null, null, node, null, null);
+            // ResourceKey resourceId = ResourceKey.of(app, ip, node, service, path);
+			ResourceKey resourceId = ResourceKey.of(null, null, node, null, null);
             ResourceConfig resourceConfig = new ResourceConfig(resourceId, -1L, -1L);
             resourceConfigs.add(resourceConfig);
         }
-		checkRateLimitConfigAndAddTo(resourceConfigs, b, null, null, ResourceIdUtils.NODE, null, null, null);
-		checkRateLimitConfigAndAddTo(resourceConfigs, b, null, null, null, service, null, ResourceIdUtils.SERVICE_DEFAULT);
-		checkRateLimitConfigAndAddTo(resourceConfigs, b, null, null, null, service, path, null);
+		checkRateLimitConfigAndAddTo(resourceConfigs, null, null, ResourceIdUtils.NODE, null, null, null);
+		checkRateLimitConfigAndAddTo(resourceConfigs, null, null, null, service, null, ResourceIdUtils.SERVICE_DEFAULT);
+		checkRateLimitConfigAndAddTo(resourceConfigs, null, null, null, service, path, null);
 
 		if (app != null) {
-			checkRateLimitConfigAndAddTo(resourceConfigs, b, app, null, null, null, null, ResourceIdUtils.APP_DEFAULT);
-			checkRateLimitConfigAndAddTo(resourceConfigs, b, app, null, null, service, null, null);
-			checkRateLimitConfigAndAddTo(resourceConfigs, b, app, null, null, service, path, null);
+			checkRateLimitConfigAndAddTo(resourceConfigs, app, null, null, null, null, ResourceIdUtils.APP_DEFAULT);
+			checkRateLimitConfigAndAddTo(resourceConfigs, app, null, null, service, null, null);
+			checkRateLimitConfigAndAddTo(resourceConfigs, app, null, null, service, path, null);
 		}
 
 		if (ip != null) {
-			checkRateLimitConfigAndAddTo(resourceConfigs, b, null, ip, null, null, null, null);
-			checkRateLimitConfigAndAddTo(resourceConfigs, b, null, ip, null, service, null, null);
-			checkRateLimitConfigAndAddTo(resourceConfigs, b, null, ip, null, service, path, null);
+			checkRateLimitConfigAndAddTo(resourceConfigs, null, ip, null, null, null, null);
+			checkRateLimitConfigAndAddTo(resourceConfigs, null, ip, null, service, null, null);
+			checkRateLimitConfigAndAddTo(resourceConfigs, null, ip, null, service, path, null);
 		}
 
 		if (LOGGER.isDebugEnabled()) {
@@ -385,43 +510,40 @@ public class FlowControlFilter extends FizzWebFilter {
 		return resourceConfigs;
 	}
 
-	private void checkRateLimitConfigAndAddTo(List<ResourceConfig> resourceConfigs, StringBuilder b, String app, String ip, String node, String service, String path, String defaultRateLimitConfigId) {
-		ResourceIdUtils.buildResourceIdTo(b, app, ip, node, service, path);
-		String resourceId = b.toString();
+	private void checkRateLimitConfigAndAddTo(List<ResourceConfig> resourceConfigs, String app, String ip, String node, String service, String path, String defaultRateLimitConfigId) {
+		ResourceKey resourceId = ResourceKey.of(app, ip, node, service, path);
 
 		// degrade rule only support service and path
 		boolean checkDegradeRule = app == null && ip == null && node == null;
 
 		checkRateLimitConfigAndAddTo(resourceConfigs, resourceId, defaultRateLimitConfigId, checkDegradeRule);
-		b.delete(0, b.length());
 	}
 
-	private void checkRateLimitConfigAndAddTo(List<ResourceConfig> resourceConfigs, String resource, String defaultRateLimitConfigId, boolean checkDegradeRule) {
+	private void checkRateLimitConfigAndAddTo(List<ResourceConfig> resourceConfigs, ResourceKey resource, String defaultRateLimitConfigId, boolean checkDegradeRule) {
 		int prevSize = resourceConfigs.size();
 		ResourceConfig rc = null;
 		ResourceRateLimitConfig rateLimitConfig = resourceRateLimitConfigService.getResourceRateLimitConfig(resource);
 		if (rateLimitConfig != null && rateLimitConfig.isEnable()) {
 			something4appAndIp(resourceConfigs, rateLimitConfig);
-			rc = new ResourceConfig(resource, rateLimitConfig.concurrents, rateLimitConfig.qps);
+			rc = newResourceConfig(resource, rateLimitConfig);
 			resourceConfigs.add(rc);
 		} else {
-			String node = ResourceIdUtils.getNode(resource);
+			String node = resource.node;
 			if (node != null && node.equals(ResourceIdUtils.NODE)) {
 				rc = new ResourceConfig(resource, -1L, -1L);
 			}
 			if (defaultRateLimitConfigId != null) {
 				if (defaultRateLimitConfigId.equals(ResourceIdUtils.SERVICE_DEFAULT)) {
 					rc = new ResourceConfig(resource, -1L, -1L);
-					rateLimitConfig = resourceRateLimitConfigService.getResourceRateLimitConfig(ResourceIdUtils.SERVICE_DEFAULT_RESOURCE);
+					rateLimitConfig = resourceRateLimitConfigService.getResourceRateLimitConfig(ResourceIdUtils.SERVICE_DEFAULT_RESOURCE_KEY);
 					if (rateLimitConfig != null && rateLimitConfig.isEnable()) {
-						rc.setMaxCon(rateLimitConfig.concurrents);
-						rc.setMaxQPS(rateLimitConfig.qps);
+						rc = newResourceConfig(resource, rateLimitConfig);
 					}
 				}
 				if (defaultRateLimitConfigId.equals(ResourceIdUtils.APP_DEFAULT)) {
-					rateLimitConfig = resourceRateLimitConfigService.getResourceRateLimitConfig(ResourceIdUtils.APP_DEFAULT_RESOURCE);
+					rateLimitConfig = resourceRateLimitConfigService.getResourceRateLimitConfig(ResourceIdUtils.APP_DEFAULT_RESOURCE_KEY);
 					if (rateLimitConfig != null && rateLimitConfig.isEnable()) {
-						rc = new ResourceConfig(resource, rateLimitConfig.concurrents, rateLimitConfig.qps);
+						rc = newResourceConfig(resource, rateLimitConfig);
 					}
 				}
 			}
@@ -431,7 +553,7 @@ public class FlowControlFilter extends FizzWebFilter {
 		}
 
 		if (checkDegradeRule && resourceConfigs.size() == prevSize) {
-			CircuitBreaker cb = circuitBreakManager.getCircuitBreaker(resource);
+			CircuitBreaker cb = circuitBreakManager.getCircuitBreaker(resource.toString());
 			/*if (cb == null) {
 				if (defaultRateLimitConfigId != null && defaultRateLimitConfigId.equals(ResourceIdUtils.SERVICE_DEFAULT)) {
 					cb = circuitBreakManager.getCircuitBreaker(ResourceIdUtils.SERVICE_DEFAULT_RESOURCE);
@@ -447,15 +569,23 @@ public class FlowControlFilter extends FizzWebFilter {
 		}
 	}
 
+	private ResourceConfig newResourceConfig(ResourceKey resource, ResourceRateLimitConfig rateLimitConfig) {
+		ResourceConfig rc = new ResourceConfig(resource, rateLimitConfig.concurrents, rateLimitConfig.qps);
+		rc.setQpsMode(rateLimitConfig.mode);
+		rc.setBurst(rateLimitConfig.burst);
+		rc.setQpsScope(rateLimitConfig.scope);
+		return rc;
+	}
+
 	private void something4appAndIp(List<ResourceConfig> resourceConfigs, ResourceRateLimitConfig rateLimitConfig) {
 		int sz = resourceConfigs.size();
-		String prev = null, prevPrev = null;
+		ResourceKey prev = null, prevPrev = null;
 		if (sz > 1) {
-			prev = resourceConfigs.get(sz - 1).getResourceId();
-			prevPrev = resourceConfigs.get(sz - 2).getResourceId();
+			prev = resourceConfigs.get(sz - 1).getResourceKey();
+			prevPrev = resourceConfigs.get(sz - 2).getResourceKey();
 
 			if (rateLimitConfig.type == ResourceRateLimitConfig.Type.APP) {
-				String app = ResourceIdUtils.getApp(prev);
+				String app = prev.app;
 				if (rateLimitConfig.path == null) {
 					if (rateLimitConfig.service != null && app == null) {
 						something4(resourceConfigs, rateLimitConfig.app, null, null);
@@ -465,11 +595,11 @@ public class FlowControlFilter extends FizzWebFilter {
 						something4(resourceConfigs, rateLimitConfig.app, null, null);
 						something4(resourceConfigs, rateLimitConfig.app, null, rateLimitConfig.service);
 					} else {
-						String service = ResourceIdUtils.getService(prev);
+						String service = prev.service;
 						if (service == null) {
 							something4(resourceConfigs, rateLimitConfig.app, null, rateLimitConfig.service);
 						} /*else {
-							app = ResourceIdUtils.getApp(prevPrev);
+							app = prevPrev.app;
 							if (app == null) {
 								something4(resourceConfigs, rateLimitConfig.app, null, null);
 							}
@@ -481,21 +611,21 @@ public class FlowControlFilter extends FizzWebFilter {
 
 				if (rateLimitConfig.service == null && rateLimitConfig.path == null) {
 				} else if (rateLimitConfig.path == null) {
-					String ip = ResourceIdUtils.getIp(prev);
+					String ip = prev.ip;
 					if (ip == null) {
 						something4(resourceConfigs, null, rateLimitConfig.ip, null);
 					}
 				} else {
-					String ip = ResourceIdUtils.getIp(prev);
+					String ip = prev.ip;
 					if (ip == null) {
 						something4(resourceConfigs, null, rateLimitConfig.ip, null);
 						something4(resourceConfigs, null, rateLimitConfig.ip, rateLimitConfig.service);
 					} else {
-						String service = ResourceIdUtils.getService(prev);
+						String service = prev.service;
 						if (service == null) {
 							something4(resourceConfigs, null, rateLimitConfig.ip, rateLimitConfig.service);
 						} /*else {
-							ip = ResourceIdUtils.getIp(prevPrev);
+							ip = prevPrev.ip;
 							if (ip == null) {
 								something4(resourceConfigs, null, rateLimitConfig.ip, null);
 							}
@@ -507,7 +637,7 @@ public class FlowControlFilter extends FizzWebFilter {
 	}
 
 	private void something4(List<ResourceConfig> resourceConfigs, String app, String ip, String service) {
-		String r = ResourceIdUtils.buildResourceId(app, ip, null, service, null);
+		ResourceKey r = ResourceKey.of(app, ip, null, service, null);
 		ResourceConfig rc = new ResourceConfig(r, -1L, -1L);
 		resourceConfigs.add(rc);
 	}
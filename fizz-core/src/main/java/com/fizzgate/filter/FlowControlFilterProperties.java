@@ -39,4 +39,10 @@ public class FlowControlFilterProperties {
 
     @Value("${fizz.degrade.default-response-content:{\"code\":6002,\"msg\":\"The current service is unavailable, Please try again later.\"}}")
     private String degradeDefaultResponseContent;
+
+    /**
+     * Maximum cached resource chain plans, the least recently used ones are evicted beyond it
+     */
+    @Value("${fizz.flow-control.resource-chain-plan-cache-size:65536}")
+    private int resourceChainPlanCacheSize;
 }
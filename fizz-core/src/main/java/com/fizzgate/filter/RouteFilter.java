@@ -24,6 +24,7 @@ import com.fizzgate.proxy.Route;
 import com.fizzgate.proxy.dubbo.ApacheDubboGenericService;
 import com.fizzgate.proxy.dubbo.DubboInterfaceDeclaration;
 import com.fizzgate.service_registry.RegistryCenterService;
+import com.fizzgate.spring.http.server.reactive.ext.FizzServerHttpRequestDecorator;
 import com.fizzgate.stats.FlowStat;
 import com.fizzgate.stats.ResourceConfig;
 import com.fizzgate.util.*;
@@ -46,6 +47,7 @@ import org.springframework.web.server.WebFilterChain;
 import reactor.core.publisher.Mono;
 
 import javax.annotation.Resource;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.Function;
@@ -61,6 +63,11 @@ public class RouteFilter extends FizzWebFilter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RouteFilter.class);
 
+    private static final Set<String> CORS_HEADERS = new HashSet<>(Arrays.asList(
+            HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS,
+            HttpHeaders.ACCESS_CONTROL_MAX_AGE,      HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS
+    ));
+
     @Resource
     private FizzWebClient             fizzWebClient;
 
@@ -124,12 +131,25 @@ public class RouteFilter extends FizzWebFilter {
                                 .flatMap(genServerResponse(exchange));
 
         } else if (route.type == ApiConfig.Type.SERVICE_DISCOVERY) {
-            Map.Entry<String, List<String>> pathQueryTemplate = getBackendPathQueryTemplate(req, route).entrySet().iterator().next();
             String svc = RegistryCenterService.getServiceNameSpace(route.registryCenter, route.backendService);
+            String pathQuery = getBackendRawPathQuery(req, route);
+            if (pathQuery != null) {
+                return fizzWebClient.send2service(traceId, route.method, svc, pathQuery, true, hdrs, req.getBody(), route.timeout, route.retryCount, route.retryInterval)
+                                    .flatMap(genServerResponse(exchange));
+            }
+            Map.Entry<String, List<String>> pathQueryTemplate = getBackendPathQueryTemplate(req, route).entrySet().iterator().next();
             return fizzWebClient.send2service(traceId, route.method, svc, pathQueryTemplate.getKey(), hdrs, req.getBody(), route.timeout, route.retryCount, route.retryInterval, pathQueryTemplate.getValue().toArray(new String[0]))
                                 .flatMap(genServerResponse(exchange));
 
         } else if (route.type == ApiConfig.Type.REVERSE_PROXY) {
+            String pathQuery = getBackendRawPathQuery(req, route);
+            if (pathQuery != null) {
+                URI uri = URI.create(ThreadContext.getStringBuilder().append(route.nextHttpHostPort)
+                                                                     .append(pathQuery)
+                                                                     .toString());
+                return fizzWebClient.send(traceId, route.method, uri, hdrs, req.getBody(), route.timeout, route.retryCount, route.retryInterval)
+                                    .flatMap(genServerResponse(exchange));
+            }
             Map.Entry<String, List<String>> pathQueryTemplate = getBackendPathQueryTemplate(req, route).entrySet().iterator().next();
             String uri = ThreadContext.getStringBuilder().append(route.nextHttpHostPort)
                                                          .append(pathQueryTemplate.getKey())
@@ -142,6 +162,42 @@ public class RouteFilter extends FizzWebFilter {
         }
     }
 
+    /**
+     * The client query is forwarded verbatim if no plugin may have changed it, instead of being decoded and re-encoded.
+     *
+     * @return the encoded backend path and the raw client query, or null if the query is changed,
+     * or the backend path has chars to be encoded, then {@link #getBackendPathQueryTemplate(ServerHttpRequest, Route)} should be used
+     */
+    private static String getBackendRawPathQuery(ServerHttpRequest request, Route route) {
+        if (route.query != null || !isEncodedPath(route.backendPath)) {
+            return null;
+        }
+        if (request instanceof FizzServerHttpRequestDecorator && ((FizzServerHttpRequestDecorator) request).isQueryParamsParsed()) {
+            return null;
+        }
+        String rawQuery = request.getURI().getRawQuery();
+        if (rawQuery == null) {
+            return route.backendPath;
+        }
+        return ThreadContext.getStringBuilder(ThreadContext.sb0).append(route.backendPath).append(Consts.S.QUESTION).append(rawQuery).toString();
+    }
+
+    /**
+     * @return whether the path has only chars which are not encoded in a uri path
+     */
+    private static boolean isEncodedPath(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                continue;
+            }
+            if ("-._~!$&'()*+,;=:@/".indexOf(c) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private Map<String, List<String>> getBackendPathQueryTemplate(ServerHttpRequest request, Route route) {
         String qry = route.query;
         if (qry == null) {
@@ -165,20 +221,12 @@ public class RouteFilter extends FizzWebFilter {
             ServerHttpResponse clientResp = exchange.getResponse();
             clientResp.setStatusCode(remoteResp.statusCode());
             HttpHeaders clientRespHeaders = clientResp.getHeaders();
-            HttpHeaders remoteRespHeaders = remoteResp.headers().asHttpHeaders();
-            remoteRespHeaders.entrySet().forEach(
-                    h -> {
-                        String k = h.getKey();
-                        if (clientRespHeaders.containsKey(k)) {
-                            if (k.equals(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN) || k.equals(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS)
-                                    || k.equals(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS)
-                                    || k.equals(HttpHeaders.ACCESS_CONTROL_MAX_AGE)
-                                    || k.equals(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS)) {
-                            } else {
-                                clientRespHeaders.put(k, h.getValue());
-                            }
-                        } else {
-                            clientRespHeaders.put(k, h.getValue());
+            // the remote headers are read in place and each one is copied to the netty headers of the client response,
+            // the client response is written by netty, so unlike the request side there is no overlay here
+            remoteResp.headers().asHttpHeaders().forEach(
+                    (k, vs) -> {
+                        if (!CORS_HEADERS.contains(k) || !clientRespHeaders.containsKey(k)) {
+                            clientRespHeaders.put(k, vs);
                         }
                     }
             );
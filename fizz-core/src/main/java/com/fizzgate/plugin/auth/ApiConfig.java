@@ -120,6 +120,28 @@ public class ApiConfig {
 
     public  long               retryInterval      = 0;
 
+    private ApiConfigService.ApiConfigPathPatternComparator.PatternInfo pathPatternInfo;
+
+    private volatile RouteTemplate routeTemplate;
+
+    private volatile UrlTransformUtils.BackendPathTemplate backendPathTemplate;
+
+    /**
+     * The route of this api config with the plugin configs of the gateway group merged and sorted,
+     * requests get copies of it.
+     */
+    private static class RouteTemplate {
+
+        final List<PluginConfig> gatewayGroupPluginConfigs;
+
+        final Route              route;
+
+        RouteTemplate(List<PluginConfig> gatewayGroupPluginConfigs, Route route) {
+            this.gatewayGroupPluginConfigs = gatewayGroupPluginConfigs;
+            this.route = route;
+        }
+    }
+
     public void setDeleted(int v) {
         if (v == 1) {
             isDeleted = true;
@@ -158,6 +180,9 @@ public class ApiConfig {
     }
 
     public void setPath(String p) {
+        pathPatternInfo = null;
+        routeTemplate = null;
+        backendPathTemplate = null;
         if (StringUtils.isNotBlank(p)) {
             if ("/".equals(p)) {
                 path = match_all;
@@ -172,6 +197,12 @@ public class ApiConfig {
         }
     }
 
+    public void setBackendPath(String bp) {
+        routeTemplate = null;
+        backendPathTemplate = null;
+        backendPath = bp;
+    }
+
     public void setMethod(String m) {
         fizzMethod = HttpMethod.resolve(m);
         if (fizzMethod == null) {
@@ -191,6 +222,16 @@ public class ApiConfig {
         }
     }
 
+    @JsonIgnore
+    ApiConfigService.ApiConfigPathPatternComparator.PatternInfo getPathPatternInfo() {
+        ApiConfigService.ApiConfigPathPatternComparator.PatternInfo info = pathPatternInfo;
+        if (info == null) {
+            info = new ApiConfigService.ApiConfigPathPatternComparator.PatternInfo(path);
+            pathPatternInfo = info;
+        }
+        return info;
+    }
+
     @JsonIgnore
     public String getNextHttpHostPort() {
         int i = counter++;
@@ -206,7 +247,13 @@ public class ApiConfig {
         if (exactMatch) {
             return backendPath;
         }
-        return UrlTransformUtils.transform(path, backendPath, reqPath);
+        UrlTransformUtils.BackendPathTemplate t = backendPathTemplate;
+        // path and backendPath are public, so check the template against them in case they are assigned directly
+        if (t == null || !t.isCompiledFrom(path, backendPath)) {
+            t = UrlTransformUtils.compile(path, backendPath);
+            backendPathTemplate = t;
+        }
+        return t.transform(reqPath);
     }
 
     @Override
@@ -224,10 +271,25 @@ public class ApiConfig {
     }
 
     public Route getRoute(ServerWebExchange exchange, @Nullable List<PluginConfig> gatewayGroupPluginConfigs) {
-        ServerHttpRequest request = exchange.getRequest();
+        RouteTemplate t = routeTemplate;
+        if (t == null || t.gatewayGroupPluginConfigs != gatewayGroupPluginConfigs) {
+            t = new RouteTemplate(gatewayGroupPluginConfigs, newRouteTemplate(gatewayGroupPluginConfigs));
+            routeTemplate = t;
+        }
+
+        Route r = t.route.copy();
+        r.method = exchange.getRequest().getMethod();
+
+        if (this.type == Type.REVERSE_PROXY) {
+            r = r.nextHttpHostPort(getNextHttpHostPort());
+        }
+
+        return r;
+    }
+
+    private Route newRouteTemplate(@Nullable List<PluginConfig> gatewayGroupPluginConfigs) {
         Route r = new Route().dedicatedLine(  this.dedicatedLine)
                              .type(           this.type)
-                             .method(         request.getMethod())
                              .path(           this.path)
                              .registryCenter( this.registryCenter)
                              .backendService( this.backendService)
@@ -247,13 +309,8 @@ public class ApiConfig {
             pcs.addAll(gatewayGroupPluginConfigs);
             pcs.addAll(this.pluginConfigs);
             pcs.sort(null);
-            r.pluginConfigs = pcs;
+            r.pluginConfigs = Collections.unmodifiableList(pcs);
         }
-
-        if (this.type == Type.REVERSE_PROXY) {
-            r = r.nextHttpHostPort(getNextHttpHostPort());
-        }
-
         return r;
     }
 
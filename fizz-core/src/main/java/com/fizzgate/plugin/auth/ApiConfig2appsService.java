@@ -19,20 +19,24 @@ package com.fizzgate.plugin.auth;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import com.fizzgate.config.AggregateRedisConfig;
 import com.fizzgate.util.Consts;
+import com.fizzgate.util.IntBitmap;
 import com.fizzgate.util.JacksonUtils;
 import com.fizzgate.util.ReactorUtils;
 import com.fizzgate.util.ThreadContext;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author hongqiaowei
@@ -43,68 +47,196 @@ public class ApiConfig2appsService {
 
     private static final Logger log                       = LoggerFactory.getLogger(ApiConfig2appsService.class);
 
-    private static final String fizzApiConfigAppSetSize   = "fizz_api_config_app_set_size";
+    public  static final String fizzApiConfigAppSetSize   = "fizz_api_config_app_set_size";
 
     private static final String fizzApiConfigAppKeyPrefix = "fizz_api_config_app:";
 
     private static final String fizzApiConfigAppChannel   = "fizz_api_config_app_channel";
 
-    private Map<Integer/* api config id */, Set<String/* app */>> apiConfig2appsMap = new HashMap<>(128);
+    private volatile AppBitmaps apiConfig2appsMap = new AppBitmaps();
+
+    /**
+     * Apps are interned to dense ints, and the apps of an api config are kept in a compressed bitmap of the ints.
+     * The bitmaps are immutable, a change replaces the bitmap of the api config.
+     */
+    private static class AppBitmaps {
+
+        private final Map<String, Integer>     app2index          = new ConcurrentHashMap<>(256);
+
+        private final List<String>             apps               = new ArrayList<>(256);
+
+        private final Map<Integer, IntBitmap>  apiConfig2appsMap  = new ConcurrentHashMap<>(128);
+
+        /** app indexes of the app sets being loaded, built into bitmaps once all the sets of an api config are loaded */
+        private final Map<Integer, List<int[]>> loadingMap = new ConcurrentHashMap<>(128);
+
+        int indexOf(String app) {
+            Integer i = app2index.get(app);
+            return i == null ? -1 : i;
+        }
+
+        synchronized int intern(String app) {
+            Integer i = app2index.get(app);
+            if (i == null) {
+                i = apps.size();
+                apps.add(app);
+                app2index.put(app, i);
+            }
+            return i;
+        }
+
+        synchronized Set<String> toApps(IntBitmap bitmap) {
+            int[] is = bitmap.toArray();
+            Set<String> result = new HashSet<>(is.length * 4 / 3 + 1);
+            for (int i : is) {
+                result.add(apps.get(i));
+            }
+            return result;
+        }
+
+        private int[] intern(Collection<String> as) {
+            int[] is = new int[as.size()];
+            int n = 0;
+            for (String a : as) {
+                is[n++] = intern(a);
+            }
+            return is;
+        }
+
+        void add(Integer apiConfigId, Collection<String> as) {
+            int[] is = intern(as);
+            apiConfig2appsMap.compute(apiConfigId, (k, bitmap) -> bitmap == null ? IntBitmap.of(is) : bitmap.add(is));
+        }
+
+        void load(Integer apiConfigId, Collection<String> as) {
+            int[] is = intern(as);
+            loadingMap.compute(
+                    apiConfigId,
+                    (k, loading) -> {
+                        if (loading == null) {
+                            loading = new ArrayList<>(2);
+                        }
+                        loading.add(is);
+                        return loading;
+                    }
+            );
+        }
+
+        /**
+         * Build the bitmap of each api config from all its loaded app sets at once, instead of adding the sets one by one.
+         */
+        void buildLoaded() {
+            loadingMap.forEach(
+                    (apiConfigId, loading) -> {
+                        int size = 0;
+                        for (int[] is : loading) {
+                            size += is.length;
+                        }
+                        int[] all = new int[size];
+                        int n = 0;
+                        for (int[] is : loading) {
+                            System.arraycopy(is, 0, all, n, is.length);
+                            n += is.length;
+                        }
+                        apiConfig2appsMap.put(apiConfigId, IntBitmap.of(all));
+                    }
+            );
+            loadingMap.clear();
+        }
+
+        void remove(Integer apiConfigId, Collection<String> as) {
+            int[] is = new int[as.size()];
+            int n = 0;
+            for (String a : as) {
+                int i = indexOf(a);
+                if (i > -1) {
+                    is[n++] = i;
+                }
+            }
+            int[] removed = Arrays.copyOf(is, n);
+            apiConfig2appsMap.computeIfPresent(apiConfigId, (k, bitmap) -> bitmap.remove(removed));
+        }
+
+        boolean contains(int apiConfigId, String app) {
+            IntBitmap bitmap = apiConfig2appsMap.get(apiConfigId);
+            if (bitmap == null) {
+                return false;
+            }
+            int i = indexOf(app);
+            return i > -1 && bitmap.contains(i);
+        }
+    }
 
     @Resource(name = AggregateRedisConfig.AGGREGATE_REACTIVE_REDIS_TEMPLATE)
     private ReactiveStringRedisTemplate rt;
 
+    /**
+     * max number of app sets loaded from redis at the same time
+     */
+    @Value("${fizz-api-config-app.load-concurrency:64}")
+    private int loadConcurrency;
+
     @PostConstruct
     public void init() throws Throwable {
-        this.init(this::lsnChannel);
+        load(this::lsnChannel).subscribe();
     }
 
+    /**
+     * Returns after the app sets are loaded and swapped in, or throws the load error.
+     */
     public void refreshLocalCache() throws Throwable {
-        this.init(null);
+        load(null).block();
     }
 
-    private void init(Runnable doAfterLoadCache) throws Throwable {
-        Map<Integer, Set<String>> apiConfig2appsMapTmp = new HashMap<>(128);
+    /**
+     * Load the app sets with at most loadConcurrency SMEMBERS in flight, the commands share one connection and are pipelined,
+     * then swap the loaded map in.
+     */
+    private Mono<Object> load(Runnable doAfterLoadCache) {
+        AppBitmaps apiConfig2appsMapTmp = new AppBitmaps();
+        return
         rt.opsForHash().entries(fizzApiConfigAppSetSize)
                 .collectList()
-                .map(
+                .flatMap(
                     es -> {
                         log(es);
-                        Mono initiateFlux = ReactorUtils.getInitiateMono();
+                        List<String> keys = new ArrayList<>(es.size());
+                        List<Integer> apiConfigIds = new ArrayList<>(es.size());
                         for (Map.Entry<Object, Object> e : es) {
                             Integer apiConfigId = Integer.parseInt( (String) e.getKey()   );
                             int     appSetCount = Integer.parseInt( (String) e.getValue() );
                             for (int i = 0; i < appSetCount; i++) {
-                                int iFinal = i;
-                                initiateFlux = initiateFlux.flatMap(
-                                    o -> {
-                                        return
-                                        rt.opsForSet().members(fizzApiConfigAppKeyPrefix + apiConfigId + '_' + iFinal)
-                                                      .collectList()
-                                                      .map(
-                                                          as -> {
-                                                              save(apiConfigId, as, apiConfig2appsMapTmp);
-                                                              return ReactorUtils.NULL;
-                                                          }
-                                                      )
-                                                      ;
-                                    }
-                                );
+                                keys.add(fizzApiConfigAppKeyPrefix + apiConfigId + '_' + i);
+                                apiConfigIds.add(apiConfigId);
                             }
                         }
-                        return initiateFlux;
+                        return
+                        Flux.range(0, keys.size())
+                            .flatMap(
+                                i -> {
+                                    return
+                                    rt.opsForSet().members(keys.get(i))
+                                                  .collectList()
+                                                  .map(
+                                                      as -> {
+                                                          save(apiConfigIds.get(i), as, apiConfig2appsMapTmp);
+                                                          return ReactorUtils.NULL;
+                                                      }
+                                                  )
+                                                  ;
+                                },
+                                Math.max(loadConcurrency, 1)
+                            )
+                            .then(Mono.just(ReactorUtils.NULL));
                     }
                 )
-                .subscribe(
-                    m -> {
-                        m.subscribe(
-                            e -> {
-                                apiConfig2appsMap = apiConfig2appsMapTmp;
-                                if (doAfterLoadCache != null) {
-                                    doAfterLoadCache.run();
-                                }
-                            }
-                        );
+                .doOnNext(
+                    e -> {
+                        apiConfig2appsMapTmp.buildLoaded();
+                        apiConfig2appsMap = apiConfig2appsMapTmp;
+                        if (doAfterLoadCache != null) {
+                            doAfterLoadCache.run();
+                        }
                     }
                 );
     }
@@ -120,9 +252,8 @@ public class ApiConfig2appsService {
         log.info(b.toString());
     }
 
-    private void save(Integer apiConfigId, List<String> as, Map<Integer, Set<String>> apiConfig2appsMap) {
-        Set<String> appSet = apiConfig2appsMap.computeIfAbsent(apiConfigId, k -> new HashSet<>());
-        appSet.addAll(as);
+    private void save(Integer apiConfigId, List<String> as, AppBitmaps apiConfig2appsMap) {
+        apiConfig2appsMap.load(apiConfigId, as);
         log(apiConfigId, as);
     }
 
@@ -166,36 +297,36 @@ public class ApiConfig2appsService {
     }
 
     private void updateApiConfig2appsMap(ApiConfig2apps data) {
-        Set<String> apps = apiConfig2appsMap.get(data.id);
         if (data.isDeleted) {
-            if (apps != null) {
-                data.apps.forEach(apps::remove);
-                log.info("remove " + data);
-            }
+            apiConfig2appsMap.remove(data.id, data.apps);
+            log.info("remove " + data);
         } else {
-            if (apps == null) {
-                apps = new HashSet<>(32);
-                apiConfig2appsMap.put(data.id, apps);
-            }
-            apps.addAll(data.apps);
+            apiConfig2appsMap.add(data.id, data.apps);
             log.info("add " + data);
         }
     }
 
     public boolean contains(int api, String app) {
-        Set<String> apps = apiConfig2appsMap.get(api);
-        if (apps == null) {
-            return false;
-        } else {
-            return apps.contains(app);
-        }
+        return apiConfig2appsMap.contains(api, app);
     }
 
     public Set<String> remove(int id) {
-        return apiConfig2appsMap.remove(id);
+        AppBitmaps m = apiConfig2appsMap;
+        IntBitmap bitmap = m.apiConfig2appsMap.remove(id);
+        return bitmap == null ? null : m.toApps(bitmap);
     }
 
+    /**
+     * @return a copy of the api config to apps map
+     */
     public Map<Integer, Set<String>> getApiConfig2appsMap() {
-        return apiConfig2appsMap;
+        AppBitmaps m = apiConfig2appsMap;
+        Map<Integer, Set<String>> result = new HashMap<>(m.apiConfig2appsMap.size() * 4 / 3 + 1);
+        m.apiConfig2appsMap.forEach(
+                (apiConfigId, bitmap) -> {
+                    result.put(apiConfigId, m.toApps(bitmap));
+                }
+        );
+        return result;
     }
 }
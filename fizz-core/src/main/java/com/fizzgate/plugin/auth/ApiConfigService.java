@@ -17,6 +17,8 @@
 
 package com.fizzgate.plugin.auth;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,12 +59,23 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
 
     private static final Logger log = LoggerFactory.getLogger(ApiConfigService.class);
 
-    public  Map<String,  ServiceConfig> serviceConfigMap = new HashMap<>(128);
+    /**
+     * Copy on write, replaced as a whole when api config changes, don't change it directly after published.
+     */
+    public  volatile Map<String,  ServiceConfig> serviceConfigMap = new HashMap<>(128);
 
-    private Map<Integer, ApiConfig>     apiConfigMap     = new HashMap<>(128);
+    private volatile Map<Integer, ApiConfig>     apiConfigMap     = new HashMap<>(128);
 
     private Map<String,  String>        pluginConfigMap  = new HashMap<>(32);
 
+    /**
+     * Failure results of requests matching no route, shared by the requests, so don't change them.
+     * An entry is valid only for the service config map and the gateway groups it was computed with.
+     * The keys of path misses come from clients, so the cache is bounded and the least used entries are evicted,
+     * it is null if negative lookups are not cached.
+     */
+    private volatile Cache<NegativeLookupKey, NegativeLookup> negativeLookupCache;
+
     @Resource
     private ReactiveWebServerApplicationContext applicationContext;
 
@@ -90,9 +103,24 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
 
     @PostConstruct
     public void init() throws Throwable {
+        initNegativeLookupCache();
         this.init(this::lsnApiConfigChange);
     }
 
+    private void initNegativeLookupCache() {
+        int size = apiConfigServiceProperties.getNegativeLookupCacheSize();
+        if (size > 0) {
+            negativeLookupCache = Caffeine.newBuilder().maximumSize(size).build();
+        }
+    }
+
+    private void clearNegativeLookupCache() {
+        Cache<NegativeLookupKey, NegativeLookup> c = negativeLookupCache;
+        if (c != null) {
+            c.invalidateAll();
+        }
+    }
+
     // TODO: no need like this
     public void refreshLocalCache() throws Throwable {
         this.init(null);
@@ -142,8 +170,12 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
         if (error != ReactorUtils.EMPTY_THROWABLE) {
             throw error;
         }
-        this.apiConfigMap = apiConfigMapTmp;
-        this.serviceConfigMap = serviceConfigMapTmp;
+        serviceConfigMapTmp.values().forEach(ServiceConfig::compile);
+        synchronized (this) {
+            this.apiConfigMap = apiConfigMapTmp;
+            this.serviceConfigMap = serviceConfigMapTmp;
+        }
+        clearNegativeLookupCache();
     }
 
     // TODO: no need like this
@@ -167,15 +199,8 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
             log.info("api config change: {}", json);
             try {
                 ApiConfig ac = JacksonUtils.readValue(json, ApiConfig.class);
-                ApiConfig r = apiConfigMap.remove(ac.id);
-                if (!ac.isDeleted && r != null) {
-                    r.isDeleted = true;
-                    updateServiceConfigMap(r, serviceConfigMap);
-                }
-                updateServiceConfigMap(ac, serviceConfigMap);
-                if (!ac.isDeleted) {
-                    apiConfigMap.put(ac.id, ac);
-                } else {
+                onApiConfigChange(ac);
+                if (ac.isDeleted) {
                     apiConfig2AppsService.remove(ac.id);
                 }
             } catch (Throwable t) {
@@ -197,6 +222,73 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
         return Mono.just(ReactorUtils.EMPTY_THROWABLE);
     }
 
+    /**
+     * Apply the change to copies of the affected service configs and maps, then publish them,
+     * request threads read the old ones until the new ones are published.
+     */
+    private synchronized void onApiConfigChange(ApiConfig ac) {
+        Map<Integer, ApiConfig> apiConfigMapTmp = new HashMap<>(apiConfigMap);
+        Map<String,  ServiceConfig> serviceConfigMapTmp = new HashMap<>(serviceConfigMap);
+        ApiConfig r = apiConfigMapTmp.remove(ac.id);
+        if (r != null) {
+            copyServiceConfig(r.service, serviceConfigMapTmp);
+        }
+        if (r == null || !r.service.equals(ac.service)) {
+            copyServiceConfig(ac.service, serviceConfigMapTmp);
+        }
+        if (!ac.isDeleted && r != null) {
+            // r may be read by request threads, so it is removed as it is instead of being marked deleted
+            removeFromServiceConfigMap(r, serviceConfigMapTmp);
+        }
+        updateServiceConfigMap(ac, serviceConfigMapTmp);
+        if (!ac.isDeleted) {
+            apiConfigMapTmp.put(ac.id, ac);
+        }
+        ServiceConfig sc = serviceConfigMapTmp.get(ac.service);
+        if (sc != null) {
+            sc.compile();
+        }
+        if (r != null && !r.service.equals(ac.service)) {
+            sc = serviceConfigMapTmp.get(r.service);
+            if (sc != null) {
+                sc.compile();
+            }
+        }
+        apiConfigMap = apiConfigMapTmp;
+        serviceConfigMap = serviceConfigMapTmp;
+        clearNegativeLookupCache();
+    }
+
+    /**
+     * Add the api configs not from redis, like the ones of {@link com.fizzgate.config.ManualApiConfig},
+     * to copies of their service configs, then publish them.
+     */
+    public synchronized void add(List<ApiConfig> apiConfigs) {
+        Map<String, ServiceConfig> serviceConfigMapTmp = new HashMap<>(serviceConfigMap);
+        Set<String> services = new HashSet<>();
+        for (ApiConfig ac : apiConfigs) {
+            if (services.add(ac.service)) {
+                copyServiceConfig(ac.service, serviceConfigMapTmp);
+            }
+            updateServiceConfigMap(ac, serviceConfigMapTmp);
+        }
+        for (String service : services) {
+            ServiceConfig sc = serviceConfigMapTmp.get(service);
+            if (sc != null) {
+                sc.compile();
+            }
+        }
+        serviceConfigMap = serviceConfigMapTmp;
+        clearNegativeLookupCache();
+    }
+
+    private static void copyServiceConfig(String service, Map<String, ServiceConfig> serviceConfigMap) {
+        ServiceConfig sc = serviceConfigMap.get(service);
+        if (sc != null) {
+            serviceConfigMap.put(service, new ServiceConfig(sc));
+        }
+    }
+
     private Result<?> initPlugin() {
         Result<?> result = Result.succ();
         String key = apiConfigServiceProperties.getFizzPluginConfig();
@@ -293,16 +385,14 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
         return result;
     }
 
+    /**
+     * Apply the api config to its service config in the map, which can't be a compiled one, copy it first if so.
+     */
     public void updateServiceConfigMap(ApiConfig ac, Map<String, ServiceConfig> serviceConfigMap) {
-        ServiceConfig sc = serviceConfigMap.get(ac.service);
         if (ac.isDeleted) {
-            if (sc != null) {
-                sc.remove(ac);
-                if (sc.apiConfigMap.isEmpty()) {
-                    serviceConfigMap.remove(ac.service);
-                }
-            }
+            removeFromServiceConfigMap(ac, serviceConfigMap);
         } else {
+            ServiceConfig sc = serviceConfigMap.get(ac.service);
             if (sc == null) {
                 sc = new ServiceConfig(ac.service);
                 serviceConfigMap.put(ac.service, sc);
@@ -313,6 +403,16 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
         }
     }
 
+    private static void removeFromServiceConfigMap(ApiConfig ac, Map<String, ServiceConfig> serviceConfigMap) {
+        ServiceConfig sc = serviceConfigMap.get(ac.service);
+        if (sc != null) {
+            sc.remove(ac);
+            if (sc.isEmpty()) {
+                serviceConfigMap.remove(ac.service);
+            }
+        }
+    }
+
     @Override
     public void onApplicationEvent(ContextRefreshedEvent event) {
         Result<?> result = initPlugin();
@@ -383,29 +483,51 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
     }
 
     public Result<ApiConfig> get(boolean dedicatedLineRequest, Set<String> gatewayGroups, String app, String service, HttpMethod method, String path) {
-        ServiceConfig sc = serviceConfigMap.get(service);
+        Map<String, ServiceConfig> scm = serviceConfigMap;
+        boolean negativeLookupCacheable = false;
+        if (CollectionUtils.isEmpty(gatewayGroups)) {
+            gatewayGroups = gatewayGroupService.currentGatewayGroupSet;
+            negativeLookupCacheable = negativeLookupCache != null;
+        }
+        ServiceConfig sc = scm.get(service);
         if (sc == null) {
+            if (negativeLookupCacheable) {
+                NegativeLookupKey key = new NegativeLookupKey(dedicatedLineRequest, service, null, null);
+                Result<ApiConfig> r = getNegativeLookupResult(key, scm, gatewayGroups);
+                if (r == null) {
+                    r = putNegativeLookupResult(key, scm, gatewayGroups, Result.fail("no " + service + " service api config"));
+                }
+                return r;
+            }
             return Result.fail("no " + service + " service api config");
         }
-        if (CollectionUtils.isEmpty(gatewayGroups)) {
-            gatewayGroups = gatewayGroupService.currentGatewayGroupSet;
+        // an exact path is more specific than any path pattern, so patterns are matched only if no exact path the client can access
+        List<ApiConfig> apiConfigs = sc.getExactApiConfigs(dedicatedLineRequest, gatewayGroups, method, path);
+        boolean matched = !apiConfigs.isEmpty();
+        NegativeLookupKey key = null;
+        if (!matched && negativeLookupCacheable) {
+            key = new NegativeLookupKey(dedicatedLineRequest, service, method, path);
+            Result<ApiConfig> r = getNegativeLookupResult(key, scm, gatewayGroups);
+            if (r != null) {
+                return r;
+            }
         }
-        List<ApiConfig> apiConfigs = sc.getApiConfigs(dedicatedLineRequest, gatewayGroups, method, path);
-        if (apiConfigs.isEmpty()) {
+        List<ApiConfig> clientCanAccess = ThreadContext.getArrayList();
+        filterClientCanAccess(apiConfigs, dedicatedLineRequest, app, clientCanAccess);
+        if (clientCanAccess.isEmpty()) {
+            apiConfigs = sc.getPatternApiConfigs(dedicatedLineRequest, gatewayGroups, method, path);
+            matched = matched || !apiConfigs.isEmpty();
+            clientCanAccess = ThreadContext.getArrayList();
+            filterClientCanAccess(apiConfigs, dedicatedLineRequest, app, clientCanAccess);
+        }
+        if (!matched) {
             StringBuilder b = ThreadContext.getStringBuilder();
             b.append(service).append(" don't have api config matching ").append(gatewayGroups).append(" group ").append(method).append(" method ").append(path).append(" path");
-            return Result.fail(b.toString());
-        }
-        List<ApiConfig> clientCanAccess = ThreadContext.getArrayList();
-        for (int i = 0; i < apiConfigs.size(); i++) {
-            ApiConfig ac = apiConfigs.get(i);
-            if (!dedicatedLineRequest && ac.checkApp) {
-                if (StringUtils.isNotBlank(app) && apiConfig2AppsService.contains(ac.id, app)) {
-                    clientCanAccess.add(ac);
-                }
-            } else {
-                clientCanAccess.add(ac);
+            Result<ApiConfig> r = Result.fail(b.toString());
+            if (key != null) {
+                putNegativeLookupResult(key, scm, gatewayGroups, r);
             }
+            return r;
         }
         if (clientCanAccess.isEmpty()) {
             StringBuilder b = ThreadContext.getStringBuilder();
@@ -414,22 +536,18 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
             return Result.fail(b.toString());
         }
         ApiConfig bestOne = clientCanAccess.get(0);
-        if (clientCanAccess.size() != 1) {
-            clientCanAccess.sort(new ApiConfigPathPatternComparator(path)); // singleton ?
-            ApiConfig ac0 = clientCanAccess.get(0);
-            bestOne = ac0;
-            ApiConfig ac1 = clientCanAccess.get(1);
-            if (ac0.path.equals(ac1.path)) {
-                if (ac0.fizzMethod == ac1.fizzMethod) {
-                    if (StringUtils.isNotBlank(app)) {
-                        if (!ac0.checkApp) {
-                            bestOne = ac1;
-                        }
-                    }
-                } else {
-                    if (ac0.fizzMethod == ApiConfig.ALL_METHOD) {
-                        bestOne = ac1;
+        for (int i = 1; i < clientCanAccess.size(); i++) {
+            ApiConfig ac = clientCanAccess.get(i);
+            int c = ApiConfigPathPatternComparator.compare(ac, bestOne, path);
+            if (c < 0) {
+                bestOne = ac;
+            } else if (c == 0 && ac.path.equals(bestOne.path)) {
+                if (ac.fizzMethod == bestOne.fizzMethod) {
+                    if (StringUtils.isNotBlank(app) && !bestOne.checkApp && ac.checkApp) {
+                        bestOne = ac;
                     }
+                } else if (bestOne.fizzMethod == ApiConfig.ALL_METHOD) {
+                    bestOne = ac;
                 }
             }
         }
@@ -442,6 +560,32 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
         }
     }
 
+    private Result<ApiConfig> getNegativeLookupResult(NegativeLookupKey key, Map<String, ServiceConfig> scm, Set<String> gatewayGroups) {
+        NegativeLookup nl = negativeLookupCache.getIfPresent(key);
+        if (nl != null && nl.serviceConfigMap == scm && nl.gatewayGroups == gatewayGroups && nl.gatewayGroupsHash == gatewayGroups.hashCode()) {
+            return nl.result;
+        }
+        return null;
+    }
+
+    private Result<ApiConfig> putNegativeLookupResult(NegativeLookupKey key, Map<String, ServiceConfig> scm, Set<String> gatewayGroups, Result<ApiConfig> result) {
+        negativeLookupCache.put(key, new NegativeLookup(scm, gatewayGroups, result));
+        return result;
+    }
+
+    private void filterClientCanAccess(List<ApiConfig> apiConfigs, boolean dedicatedLineRequest, String app, List<ApiConfig> clientCanAccess) {
+        for (int i = 0; i < apiConfigs.size(); i++) {
+            ApiConfig ac = apiConfigs.get(i);
+            if (!dedicatedLineRequest && ac.checkApp) {
+                if (StringUtils.isNotBlank(app) && apiConfig2AppsService.contains(ac.id, app)) {
+                    clientCanAccess.add(ac);
+                }
+            } else {
+                clientCanAccess.add(ac);
+            }
+        }
+    }
+
     public Mono<Result<ApiConfig>> auth(ServerWebExchange exchange) {
         ServerHttpRequest req = exchange.getRequest();
         // LogService.setBizId(WebUtils.getTraceId(exchange));
@@ -561,19 +705,75 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
 
 
 
-    private static class ApiConfigPathPatternComparator implements Comparator<ApiConfig> {
+    private static final class NegativeLookupKey {
+
+        private final boolean    dedicatedLine;
+
+        private final String     service;
+
+        private final HttpMethod method;
+
+        private final String     path;
 
-        private final String path;
+        private final int        hash;
 
-        public ApiConfigPathPatternComparator(String path) {
-            this.path = path;
+        NegativeLookupKey(boolean dedicatedLine, String service, HttpMethod method, String path) {
+            this.dedicatedLine = dedicatedLine;
+            this.service       = service;
+            this.method        = method;
+            this.path          = path;
+            this.hash          = Objects.hash(dedicatedLine, service, method, path);
         }
 
         @Override
-        public int compare(ApiConfig ac1, ApiConfig ac2) {
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o instanceof NegativeLookupKey) {
+                NegativeLookupKey that = (NegativeLookupKey) o;
+                return hash == that.hash && dedicatedLine == that.dedicatedLine && method == that.method
+                        && Objects.equals(service, that.service) && Objects.equals(path, that.path);
+            }
+            return false;
+        }
+    }
+
+    private static final class NegativeLookup {
+
+        final Map<String, ServiceConfig> serviceConfigMap;
+
+        final Set<String>                gatewayGroups;
+
+        final int                        gatewayGroupsHash;
+
+        final Result<ApiConfig>          result;
+
+        NegativeLookup(Map<String, ServiceConfig> serviceConfigMap, Set<String> gatewayGroups, Result<ApiConfig> result) {
+            this.serviceConfigMap  = serviceConfigMap;
+            this.gatewayGroups     = gatewayGroups;
+            this.gatewayGroupsHash = gatewayGroups.hashCode();
+            this.result            = result;
+        }
+    }
+
+    /**
+     * Pick the more specific one of two matching api configs, the pattern info of api config is computed once and cached.
+     */
+    static class ApiConfigPathPatternComparator {
+
+        private ApiConfigPathPatternComparator() {
+        }
+
+        static int compare(ApiConfig ac1, ApiConfig ac2, String path) {
             String pattern1 = ac1.path, pattern2 = ac2.path;
-            ApiConfigPathPatternComparator.PatternInfo info1 = new ApiConfigPathPatternComparator.PatternInfo(pattern1);
-            ApiConfigPathPatternComparator.PatternInfo info2 = new ApiConfigPathPatternComparator.PatternInfo(pattern2);
+            ApiConfigPathPatternComparator.PatternInfo info1 = ac1.getPathPatternInfo();
+            ApiConfigPathPatternComparator.PatternInfo info2 = ac2.getPathPatternInfo();
 
             if (info1.isLeastSpecific() && info2.isLeastSpecific()) {
                 return 0;
@@ -585,8 +785,8 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
                 return -1;
             }
 
-            boolean pattern1EqualsPath = pattern1.equals(this.path);
-            boolean pattern2EqualsPath = pattern2.equals(this.path);
+            boolean pattern1EqualsPath = pattern1.equals(path);
+            boolean pattern2EqualsPath = pattern2.equals(path);
             if (pattern1EqualsPath && pattern2EqualsPath) {
                 return 0;
             }
@@ -632,7 +832,7 @@ public class ApiConfigService implements ApplicationListener<ContextRefreshedEve
             return 0;
         }
 
-        private static class PatternInfo {
+        static class PatternInfo {
 
             private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\{[^/]+?}");
 
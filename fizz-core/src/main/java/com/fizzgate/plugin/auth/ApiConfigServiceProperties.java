@@ -44,4 +44,10 @@ public class ApiConfigServiceProperties {
 
     @Value("${fizz-plugin-config.channel:fizz_plugin_config_channel}")
     private String fizzPluginConfigChannel;
+
+    /**
+     * max number of cached failure results of requests matching no route, 0 to disable
+     */
+    @Value("${fizz-api-config.negative-lookup-cache-size:10000}")
+    private int negativeLookupCacheSize;
 }
@@ -49,7 +49,7 @@ public class AppService {
 
     private static final Logger log            = LoggerFactory.getLogger(AppService.class);
 
-    private static final String fizzApp        = "fizz_app";
+    public  static final String fizzApp        = "fizz_app";
 
     private static final String fizzAppChannel = "fizz_app_channel";
 
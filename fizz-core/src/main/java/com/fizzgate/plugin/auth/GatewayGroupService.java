@@ -50,7 +50,7 @@ public class GatewayGroupService {
 
     private static final Logger log = LoggerFactory.getLogger(GatewayGroupService.class);
 
-    private static final String fizzGatewayGroup        = "fizz_gateway_group";
+    public  static final String fizzGatewayGroup        = "fizz_gateway_group";
 
     private static final String fizzGatewayGroupChannel = "fizz_gateway_group_channel";
 
@@ -0,0 +1,310 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.plugin.auth;
+
+import com.fizzgate.util.Consts;
+import com.fizzgate.util.ThreadContext;
+import com.fizzgate.util.UrlTransformUtils;
+
+import java.util.*;
+
+/**
+ * Path patterns of one service, gateway group and method compiled into a segment trie,
+ * a request path is matched in O(path segments) instead of running the ant matcher for each pattern.
+ * <p>
+ * A pattern segment is one of: an exact string, {@code {var}}, {@code *} or {@code **},
+ * the semantic is the same as {@link UrlTransformUtils#ANT_PATH_MATCHER}, which matches the whole path by a regex:
+ * {@code {var}} and {@code *} are {@code ([^/]*)} and match exactly one segment, which may be empty,
+ * so {@code /a/{id}} matches {@code /a/} and {@code /a//b}, but not {@code /a};
+ * {@code /**} and {@code /**}{@code /} are {@code /(.*)} and {@code /(.*)/} and match one or more segments,
+ * so {@code /x/**}{@code /y} matches {@code /x//y}, but not {@code /x/y}.
+ * Patterns with other syntax, like {@code *.json}, {@code ?} or {@code {var:regex}}, are kept aside and matched by the ant matcher.
+ * <p>
+ * Exact paths are not in the trie but in a hash index, which is keyed by the path and its trailing slash variant,
+ * and split by dedicated line, so they are found by one lookup without allocation.
+ * <p>
+ * The trie is immutable once built, the api configs of a pattern are copied into an array,
+ * so it can be read by any thread without synchronization after safe publication.
+ */
+
+public final class PathPatternTrie {
+
+    private static final String      DOUBLE_WILDCARD = "**";
+
+    private static final String      WILDCARD        = "*";
+
+    private static final String      matchedNodes    = "pptMatchedT";
+
+    private static final ApiConfig[] EMPTY           = new ApiConfig[0];
+
+    private static class Node {
+
+        Map<String, Node> exacts;
+
+        Node              uriVar;
+
+        Node              wildcard;
+
+        Node              doubleWildcard;
+
+        ApiConfig[]       apiConfigs;
+    }
+
+    private final Node                     root = new Node();
+
+    private final Map<String, ApiConfig[]> exacts;
+
+    private final Map<String, ApiConfig[]> dedicatedLineExacts;
+
+    private final String[]                 fallbackPathPatterns;
+
+    private final ApiConfig[][]            fallbackApiConfigs;
+
+    private final String[]                 pathPatterns;
+
+    private final ApiConfig[][]            pathPatternApiConfigs;
+
+    public PathPatternTrie(Map<String/*path patten*/, Set<ApiConfig>> pathPattern2apiConfigsMap) {
+        List<String> fallbacks = new ArrayList<>(0);
+        Map<String, List<ApiConfig>> exactMap = new HashMap<>(), dedicatedLineExactMap = new HashMap<>();
+        pathPatterns = new String[pathPattern2apiConfigsMap.size()];
+        pathPatternApiConfigs = new ApiConfig[pathPatterns.length][];
+        int i = 0;
+        for (Map.Entry<String, Set<ApiConfig>> entry : pathPattern2apiConfigsMap.entrySet()) {
+            String pathPattern = entry.getKey();
+            pathPatterns[i] = pathPattern;
+            pathPatternApiConfigs[i++] = entry.getValue().toArray(EMPTY);
+            if (!UrlTransformUtils.isAntPathPattern(pathPattern)) {
+                addExact(pathPattern, entry.getValue(), exactMap, dedicatedLineExactMap);
+                continue;
+            }
+            String[] segments = compile(pathPattern);
+            if (segments == null) {
+                fallbacks.add(pathPattern);
+            } else {
+                Node node = root;
+                for (String segment : segments) {
+                    node = child(node, segment);
+                }
+                node.apiConfigs = entry.getValue().toArray(EMPTY);
+            }
+        }
+        exacts = toArrayMap(exactMap);
+        dedicatedLineExacts = toArrayMap(dedicatedLineExactMap);
+        fallbackPathPatterns = fallbacks.toArray(new String[0]);
+        fallbackApiConfigs = new ApiConfig[fallbackPathPatterns.length][];
+        for (i = 0; i < fallbackPathPatterns.length; i++) {
+            fallbackApiConfigs[i] = pathPattern2apiConfigsMap.get(fallbackPathPatterns[i]).toArray(EMPTY);
+        }
+    }
+
+    /**
+     * @return a mutable copy of the path patterns and api configs the trie is built from
+     */
+    public Map<String/*path patten*/, Set<ApiConfig>> getPathPattern2apiConfigsMap() {
+        Map<String, Set<ApiConfig>> result = new HashMap<>(Math.max(pathPatterns.length * 4 / 3 + 1, 2));
+        for (int i = 0; i < pathPatterns.length; i++) {
+            Set<ApiConfig> apiConfigs = new HashSet<>(Math.max(pathPatternApiConfigs[i].length * 4 / 3 + 1, 2));
+            Collections.addAll(apiConfigs, pathPatternApiConfigs[i]);
+            result.put(pathPatterns[i], apiConfigs);
+        }
+        return result;
+    }
+
+    /**
+     * A request path matches an exact path if it is the path or its trailing slash variant is the path,
+     * so the path is indexed by itself, by itself with one more slash and, if it ends with exactly one slash, by itself without the slash.
+     * The api configs of the path are in front of the ones of the variants.
+     */
+    private static void addExact(String path, Set<ApiConfig> apiConfigs, Map<String, List<ApiConfig>> exactMap, Map<String, List<ApiConfig>> dedicatedLineExactMap) {
+        String slashVariant = path + Consts.S.FORWARD_SLASH;
+        String noSlashVariant = null;
+        int l = path.length();
+        if (l > 1 && path.charAt(l - 1) == Consts.S.FORWARD_SLASH && path.charAt(l - 2) != Consts.S.FORWARD_SLASH) {
+            noSlashVariant = path.substring(0, l - 1);
+        }
+        for (ApiConfig ac : apiConfigs) {
+            Map<String, List<ApiConfig>> m = ac.dedicatedLine ? dedicatedLineExactMap : exactMap;
+            m.computeIfAbsent(path, k -> new ArrayList<>(2)).add(0, ac);
+            m.computeIfAbsent(slashVariant, k -> new ArrayList<>(2)).add(ac);
+            if (noSlashVariant != null) {
+                m.computeIfAbsent(noSlashVariant, k -> new ArrayList<>(2)).add(ac);
+            }
+        }
+    }
+
+    private static Map<String, ApiConfig[]> toArrayMap(Map<String, List<ApiConfig>> m) {
+        if (m.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, ApiConfig[]> result = new HashMap<>(m.size() * 4 / 3 + 1);
+        m.forEach(
+                (path, apiConfigs) -> {
+                    result.put(path, apiConfigs.toArray(EMPTY));
+                }
+        );
+        return result;
+    }
+
+    /**
+     * Add the api configs whose path is exactly the path or the trailing slash variant of it to result.
+     */
+    public void matchExact(String path, boolean dedicatedLineRequest, List<ApiConfig> result) {
+        ApiConfig[] apiConfigs = (dedicatedLineRequest ? dedicatedLineExacts : exacts).get(path);
+        if (apiConfigs != null) {
+            Collections.addAll(result, apiConfigs);
+        }
+    }
+
+    /**
+     * Add the api configs whose path pattern matches the path or path0 to result,
+     * exact segments first, then {@code {var}}, {@code *} and {@code **}, then the fallback patterns.
+     * Exact paths are not included, see {@link #matchExact(String, boolean, List)}.
+     */
+    public void match(String path, String path0, boolean dedicatedLineRequest, List<ApiConfig> result) {
+        ArrayList<Node> matched = ThreadContext.getArrayList(matchedNodes);
+        match(root, path,  0, matched);
+        if (path0 != path) {
+            match(root, path0, 0, matched);
+        }
+        for (int i = 0; i < matched.size(); i++) {
+            addTo(result, matched.get(i).apiConfigs, dedicatedLineRequest);
+        }
+        matched.clear();
+        for (int i = 0; i < fallbackPathPatterns.length; i++) {
+            String pathPattern = fallbackPathPatterns[i];
+            if (pathPattern.equals(path) || pathPattern.equals(path0)
+                    || UrlTransformUtils.ANT_PATH_MATCHER.match(pathPattern, path) || UrlTransformUtils.ANT_PATH_MATCHER.match(pathPattern, path0)) {
+                addTo(result, fallbackApiConfigs[i], dedicatedLineRequest);
+            }
+        }
+    }
+
+    private static void match(Node node, String path, int from, List<Node> matched) {
+        int end = path.indexOf(Consts.S.FORWARD_SLASH, from);
+        boolean last = end == -1;
+        if (last) {
+            end = path.length();
+        }
+        if (node.exacts != null) {
+            Node n = node.exacts.get(path.substring(from, end));
+            if (n != null) {
+                next(n, path, end, last, matched);
+            }
+        }
+        if (node.uriVar != null) {
+            next(node.uriVar, path, end, last, matched);
+        }
+        if (node.wildcard != null) {
+            next(node.wildcard, path, end, last, matched);
+        }
+        if (node.doubleWildcard != null) {
+            while (true) {
+                next(node.doubleWildcard, path, end, last, matched);
+                if (last) {
+                    break;
+                }
+                end = path.indexOf(Consts.S.FORWARD_SLASH, end + 1);
+                if (end == -1) {
+                    end = path.length();
+                    last = true;
+                }
+            }
+        }
+    }
+
+    private static void next(Node n, String path, int end, boolean last, List<Node> matched) {
+        if (last) {
+            if (n.apiConfigs != null && !matched.contains(n)) {
+                matched.add(n);
+            }
+        } else {
+            match(n, path, end + 1, matched);
+        }
+    }
+
+    private static void addTo(List<ApiConfig> result, ApiConfig[] apiConfigs, boolean dedicatedLineRequest) {
+        for (ApiConfig ac : apiConfigs) {
+            if (ac.dedicatedLine == dedicatedLineRequest) {
+                result.add(ac);
+            }
+        }
+    }
+
+    private static Node child(Node node, String segment) {
+        if (segment.equals(DOUBLE_WILDCARD)) {
+            if (node.doubleWildcard == null) {
+                node.doubleWildcard = new Node();
+            }
+            return node.doubleWildcard;
+        } else if (segment.equals(WILDCARD)) {
+            if (node.wildcard == null) {
+                node.wildcard = new Node();
+            }
+            return node.wildcard;
+        } else if (isUriVar(segment)) {
+            if (node.uriVar == null) {
+                node.uriVar = new Node();
+            }
+            return node.uriVar;
+        } else {
+            if (node.exacts == null) {
+                node.exacts = new HashMap<>(4);
+            }
+            return node.exacts.computeIfAbsent(segment, k -> new Node());
+        }
+    }
+
+    /**
+     * @return the segments of the path pattern, or null if it can't be compiled into the trie
+     */
+    static String[] compile(String pathPattern) {
+        if (pathPattern.indexOf('#') > -1 || pathPattern.indexOf('?') > -1) {
+            return null;
+        }
+        String[] segments = pathPattern.split(Consts.S.FORWARD_SLASH_STR, -1);
+        for (int i = 0; i < segments.length; i++) {
+            String s = segments[i];
+            if (s.equals(DOUBLE_WILDCARD)) {
+                // the ant matcher treats ** as a multi segment wildcard only if it is next to a /
+                if (segments.length == 1 || (i > 0 && segments[i - 1].equals(DOUBLE_WILDCARD))) {
+                    return null;
+                }
+            } else if (!s.equals(WILDCARD) && !isUriVar(s)) {
+                if (s.indexOf('*') > -1 || s.indexOf('{') > -1 || s.indexOf('}') > -1) {
+                    return null;
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static boolean isUriVar(String segment) {
+        int l = segment.length();
+        if (l < 3 || segment.charAt(0) != '{' || segment.charAt(l - 1) != '}') {
+            return false;
+        }
+        for (int i = 1; i < l - 1; i++) {
+            char c = segment.charAt(i);
+            if (c == '{' || c == '}' || c == ':') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -20,7 +20,6 @@ package com.fizzgate.plugin.auth;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fizzgate.util.Consts;
 import com.fizzgate.util.ThreadContext;
-import com.fizzgate.util.UrlTransformUtils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,18 +37,88 @@ public class ServiceConfig {
 
     private String id;
 
-    public Map<String/*gateway group*/,
-                                        Map<Object/*method*/,
-                                                              Map<String/*path patten*/, Set<ApiConfig>>
-                                        >
-           >
-           apiConfigMap = new HashMap<>();
+    /**
+     * The mutable tables the route table is compiled from, null once compiled.
+     */
+    private Map<String/*gateway group*/,
+                                         Map<Object/*method*/,
+                                                               Map<String/*path patten*/, Set<ApiConfig>>
+                                         >
+            >
+            apiConfigMap = new HashMap<>();
+
+    /**
+     * The immutable route table compiled from apiConfigMap, null if not compiled yet.
+     */
+    private volatile Map<String/*gateway group*/, Map<Object/*method*/, PathPatternTrie>> routeTable;
 
     public ServiceConfig(String id) {
         this.id = id;
     }
 
+    /**
+     * Deep copy the api configs of sc, for changing a service config that may be read by other threads,
+     * the copy can be changed, compiled and then replace sc.
+     */
+    public ServiceConfig(ServiceConfig sc) {
+        this.id = sc.id;
+        this.apiConfigMap = sc.getApiConfigMap();
+    }
+
+    /**
+     * @return a mutable copy of the api configs of the service
+     */
+    public Map<String/*gateway group*/, Map<Object/*method*/, Map<String/*path patten*/, Set<ApiConfig>>>> getApiConfigMap() {
+        Map<String, Map<Object, Map<String, Set<ApiConfig>>>> result = new HashMap<>();
+        Map<String, Map<Object, PathPatternTrie>> table = routeTable;
+        if (table == null) {
+            apiConfigMap.forEach(
+                    (gatewayGroup, method2pathPattenMap) -> {
+                        Map<Object, Map<String, Set<ApiConfig>>> m2pm = new HashMap<>();
+                        method2pathPattenMap.forEach(
+                                (method, pathPattern2apiConfigsMap) -> {
+                                    Map<String, Set<ApiConfig>> p2am = new HashMap<>();
+                                    pathPattern2apiConfigsMap.forEach(
+                                            (pathPattern, apiConfigs) -> {
+                                                p2am.put(pathPattern, new HashSet<>(apiConfigs));
+                                            }
+                                    );
+                                    m2pm.put(method, p2am);
+                                }
+                        );
+                        result.put(gatewayGroup, m2pm);
+                    }
+            );
+        } else {
+            table.forEach(
+                    (gatewayGroup, method2pathPatternTrieMap) -> {
+                        Map<Object, Map<String, Set<ApiConfig>>> m2pm = new HashMap<>();
+                        method2pathPatternTrieMap.forEach(
+                                (method, pathPatternTrie) -> {
+                                    m2pm.put(method, pathPatternTrie.getPathPattern2apiConfigsMap());
+                                }
+                        );
+                        result.put(gatewayGroup, m2pm);
+                    }
+            );
+        }
+        return result;
+    }
+
+    @JsonIgnore
+    public boolean isEmpty() {
+        Map<String, Map<Object, PathPatternTrie>> table = routeTable;
+        return table == null ? apiConfigMap.isEmpty() : table.isEmpty();
+    }
+
+    private void checkNotCompiled() {
+        if (routeTable != null) {
+            throw new IllegalStateException(id + " service config is compiled, change a copy of it");
+        }
+    }
+
     public void add(ApiConfig ac) {
+        checkNotCompiled();
         for (String gatewayGroup : ac.gatewayGroups) {
             Map<Object, Map<String, Set<ApiConfig>>> method2pathPattenMap = apiConfigMap.computeIfAbsent(gatewayGroup, k -> new HashMap<>());
             Map<String, Set<ApiConfig>> pathPattern2apiConfigsMap = method2pathPattenMap.computeIfAbsent(ac.fizzMethod, k -> new HashMap<>());
@@ -60,6 +129,7 @@ public class ServiceConfig {
     }
 
     public void remove(ApiConfig ac) {
+        checkNotCompiled();
         for (String gatewayGroup : ac.gatewayGroups) {
             Map<Object, Map<String, Set<ApiConfig>>> method2pathPattenMap = apiConfigMap.get(gatewayGroup);
             if (method2pathPattenMap != null) {
@@ -85,6 +155,7 @@ public class ServiceConfig {
     }
 
     public void update(ApiConfig ac) {
+        checkNotCompiled();
         for (String gatewayGroup : ac.gatewayGroups) {
             Map<Object, Map<String, Set<ApiConfig>>> method2pathPattenMap = apiConfigMap.computeIfAbsent(gatewayGroup, k -> new HashMap<>());
             Map<String, Set<ApiConfig>> pathPattern2apiConfigsMap = method2pathPattenMap.computeIfAbsent(ac.fizzMethod, k -> new HashMap<>());
@@ -95,36 +166,108 @@ public class ServiceConfig {
         log.info("{} service update api config: {}", id, ac);
     }
 
+    /**
+     * Compile apiConfigMap into the route table, which is read by getApiConfigs without any lock,
+     * then drop apiConfigMap. Compile the service config before publishing it to other threads,
+     * it can't be changed after compiled, change a copy of it instead.
+     */
+    public Map<String, Map<Object, PathPatternTrie>> compile() {
+        Map<String, Map<Object, PathPatternTrie>> compiled = routeTable;
+        if (compiled != null) {
+            return compiled;
+        }
+        Map<String, Map<Object, PathPatternTrie>> table = new HashMap<>(Math.max(apiConfigMap.size() * 4 / 3 + 1, 2));
+        apiConfigMap.forEach(
+                (gatewayGroup, method2pathPattenMap) -> {
+                    Map<Object, PathPatternTrie> method2pathPatternTrieMap = new HashMap<>(Math.max(method2pathPattenMap.size() * 4 / 3 + 1, 2));
+                    method2pathPattenMap.forEach(
+                            (method, pathPattern2apiConfigsMap) -> {
+                                method2pathPatternTrieMap.put(method, new PathPatternTrie(pathPattern2apiConfigsMap));
+                            }
+                    );
+                    table.put(gatewayGroup, method2pathPatternTrieMap);
+                }
+        );
+        routeTable = table;
+        apiConfigMap = null;
+        return table;
+    }
+
     @JsonIgnore
     public List<ApiConfig> getApiConfigs(boolean dedicatedLineRequest, Set<String> gatewayGroups, HttpMethod method, String path) {
+        return getApiConfigs(dedicatedLineRequest, gatewayGroups, method, path, true, true);
+    }
+
+    /**
+     * @return the api configs whose path is exactly the path or its trailing slash variant, found by hash lookups
+     */
+    @JsonIgnore
+    public List<ApiConfig> getExactApiConfigs(boolean dedicatedLineRequest, Set<String> gatewayGroups, HttpMethod method, String path) {
+        return getApiConfigs(dedicatedLineRequest, gatewayGroups, method, path, true, false);
+    }
+
+    /**
+     * @return the api configs whose path pattern matches the path or its trailing slash variant
+     */
+    @JsonIgnore
+    public List<ApiConfig> getPatternApiConfigs(boolean dedicatedLineRequest, Set<String> gatewayGroups, HttpMethod method, String path) {
+        return getApiConfigs(dedicatedLineRequest, gatewayGroups, method, path, false, true);
+    }
+
+    private List<ApiConfig> getApiConfigs(boolean dedicatedLineRequest, Set<String> gatewayGroups, HttpMethod method, String path, boolean exact, boolean pattern) {
         ArrayList<ApiConfig> result = ThreadContext.getArrayList(ThreadContext.arrayList0);
+        Map<String, Map<Object, PathPatternTrie>> table = getRouteTable();
+        String path0 = pattern ? getPath0(path) : null;
         for (String gatewayGroup : gatewayGroups) {
-            List<ApiConfig> apiConfigs = getApiConfigs(dedicatedLineRequest, gatewayGroup, method, path);
-            result.addAll(apiConfigs);
+            Map<Object, PathPatternTrie> method2pathPatternTrieMap = table.get(gatewayGroup);
+            if (method2pathPatternTrieMap != null) {
+                match(method2pathPatternTrieMap.get(method),               dedicatedLineRequest, path, path0, exact, pattern, result);
+                match(method2pathPatternTrieMap.get(ApiConfig.ALL_METHOD), dedicatedLineRequest, path, path0, exact, pattern, result);
+            }
         }
         return result;
     }
 
     @JsonIgnore
     public List<ApiConfig> getApiConfigs(boolean dedicatedLineRequest, String gatewayGroup, HttpMethod method, String path) {
-        Map<Object, Map<String, Set<ApiConfig>>> method2pathPattenMap = apiConfigMap.get(gatewayGroup);
-        if (method2pathPattenMap == null) {
+        Map<Object, PathPatternTrie> method2pathPatternTrieMap = getRouteTable().get(gatewayGroup);
+        if (method2pathPatternTrieMap == null) {
             return Collections.emptyList();
         } else {
             ArrayList<ApiConfig> result = ThreadContext.getArrayList();
-            Map<String, Set<ApiConfig>> pathPattern2apiConfigsMap = method2pathPattenMap.get(method);
-            if (pathPattern2apiConfigsMap != null) {
-                checkPathPattern(pathPattern2apiConfigsMap, dedicatedLineRequest, path, result);
+            String path0 = getPath0(path);
+            match(method2pathPatternTrieMap.get(method),               dedicatedLineRequest, path, path0, true, true, result);
+            match(method2pathPatternTrieMap.get(ApiConfig.ALL_METHOD), dedicatedLineRequest, path, path0, true, true, result);
+            return result;
+        }
+    }
+
+    private static void match(PathPatternTrie trie, boolean dedicatedLineRequest, String path, String path0, boolean exact, boolean pattern, List<ApiConfig> result) {
+        if (trie != null) {
+            if (exact) {
+                trie.matchExact(path, dedicatedLineRequest, result);
             }
-            pathPattern2apiConfigsMap = method2pathPattenMap.get(ApiConfig.ALL_METHOD);
-            if (pathPattern2apiConfigsMap != null) {
-                checkPathPattern(pathPattern2apiConfigsMap, dedicatedLineRequest, path, result);
+            if (pattern) {
+                trie.match(path, path0, dedicatedLineRequest, result);
             }
-            return result;
         }
     }
 
-    private void checkPathPattern(Map<String, Set<ApiConfig>> pathPattern2apiConfigMap, boolean dedicatedLineRequest, String path, ArrayList<ApiConfig> result) {
+    /**
+     * @return the route table, empty if the service config is not compiled, which is not published yet
+     */
+    private Map<String, Map<Object, PathPatternTrie>> getRouteTable() {
+        Map<String, Map<Object, PathPatternTrie>> table = routeTable;
+        if (table == null) {
+            return Collections.emptyMap();
+        }
+        return table;
+    }
+
+    /**
+     * @return the path with the trailing slash removed if it has, or appended if it hasn't
+     */
+    static String getPath0(String path) {
         String path0 = path;
         if (!path.equals(Consts.S.FORWARD_SLASH_STR)) {
             int lastCharPos = path.length() - 1;
@@ -135,35 +278,6 @@ public class ServiceConfig {
                 path0 = path + Consts.S.FORWARD_SLASH;
             }
         }
-        Set<Map.Entry<String, Set<ApiConfig>>> entries = pathPattern2apiConfigMap.entrySet();
-        for (Map.Entry<String, Set<ApiConfig>> entry : entries) {
-            String pathPattern = entry.getKey();
-            Set<ApiConfig> apiConfigs = entry.getValue();
-            if (pathPattern.equals(path) || pathPattern.equals(path0)) {
-                for (ApiConfig ac : apiConfigs) {
-                        if (dedicatedLineRequest) {
-                            if (ac.dedicatedLine) {
-                                result.add(ac);
-                            }
-                        } else {
-                            if (!ac.dedicatedLine) {
-                                result.add(ac);
-                            }
-                        }
-                }
-            } else if (UrlTransformUtils.ANT_PATH_MATCHER.match(pathPattern, path) || UrlTransformUtils.ANT_PATH_MATCHER.match(pathPattern, path0)) {
-                for (ApiConfig ac : apiConfigs) {
-                        if (dedicatedLineRequest) {
-                            if (ac.dedicatedLine) {
-                                result.add(ac);
-                            }
-                        } else {
-                            if (!ac.dedicatedLine) {
-                                result.add(ac);
-                            }
-                        }
-                }
-            }
-        }
+        return path0;
     }
 }
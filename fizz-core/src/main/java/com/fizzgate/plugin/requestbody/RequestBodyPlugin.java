@@ -20,6 +20,7 @@ package com.fizzgate.plugin.requestbody;
 import org.apache.logging.log4j.ThreadContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.stereotype.Component;
@@ -50,6 +51,13 @@ public class RequestBodyPlugin implements FizzPluginFilter {
 
     public static final String REQUEST_BODY_PLUGIN = "requestBodyPlugin";
 
+    /**
+     * keep the request body as the pooled buffer received instead of copying it to heap,
+     * then the data buffer from {@link FizzServerHttpRequestDecorator#getBody()} should be released after read
+     */
+    @Value("${fizz.request-body.zero-copy:false}")
+    private boolean zeroCopyBody;
+
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, Map<String, Object> config) {
 
@@ -70,7 +78,11 @@ public class RequestBodyPlugin implements FizzPluginFilter {
                                     FizzServerHttpRequestDecorator requestDecorator = new FizzServerHttpRequestDecorator(req);
                                     if (body != NettyDataBufferUtils.EMPTY_DATA_BUFFER) {
                                         try {
-                                            requestDecorator.setBody(body);
+                                            if (zeroCopyBody) {
+                                                requestDecorator.retainBody(body);
+                                            } else {
+                                                requestDecorator.setBody(body);
+                                            }
                                         } finally {
                                             NettyDataBufferUtils.release(body);
                                         }
@@ -86,6 +98,9 @@ public class RequestBodyPlugin implements FizzPluginFilter {
                                     //     ThreadContext.put(Consts.TRACE_ID, traceId);
                                     //     LOGGER.debug("{} request is decorated", traceId);
                                     // }
+                                    if (zeroCopyBody) {
+                                        return doFilter(newExchange, config).doFinally(s -> requestDecorator.releaseBody());
+                                    }
                                     return doFilter(newExchange, config);
                                 }
                         );
@@ -26,12 +26,14 @@ import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.BodyInserter;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import com.fizzgate.config.ConnectionPoolStat;
 import com.fizzgate.config.ProxyWebClientConfig;
 import com.fizzgate.config.SystemConfig;
 import com.fizzgate.exception.ExternalService4xxException;
@@ -43,13 +45,21 @@ import com.fizzgate.util.WebUtils;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.netty.resources.ConnectionProvider;
 import reactor.util.retry.Retry;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.net.URI;
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.net.HttpHeaders.X_FORWARDED_FOR;
 
@@ -78,6 +88,49 @@ public class FizzWebClient {
     @Resource(name = ProxyWebClientConfig.proxyWebClient)
     private WebClient webClient;
 
+    @Resource
+    private ProxyWebClientConfig proxyWebClientConfig;
+
+    private final Map<String, UpstreamWebClient>  upstreamWebClients  = new ConcurrentHashMap<>();
+
+    private final Map<String, ConnectionPoolStat> connectionPoolStats = new ConcurrentHashMap<>();
+
+    /**
+     * The web client of an upstream and the connection pool of it
+     */
+    private static final class UpstreamWebClient {
+
+        final WebClient          webClient;
+
+        final ConnectionProvider provider;
+
+        final ConnectionPoolStat stat;
+
+        /**
+         * millis, updated at most once a second
+         */
+        volatile long            lastUsed;
+
+        /**
+         * the requests which got the web client and have not completed, they may not have acquired a connection yet
+         */
+        final AtomicInteger      inFlight = new AtomicInteger(0);
+
+        /**
+         * removed from the upstream web clients, the pool is disposed once no request is in flight
+         */
+        volatile boolean         removed;
+
+        final AtomicBoolean      disposed = new AtomicBoolean(false);
+
+        UpstreamWebClient(WebClient webClient, ConnectionProvider provider, ConnectionPoolStat stat) {
+            this.webClient = webClient;
+            this.provider  = provider;
+            this.stat      = stat;
+            this.lastUsed  = System.currentTimeMillis();
+        }
+    }
+
     public Mono<ClientResponse> send(String traceId,
                                      HttpMethod method, String uriOrSvc, @Nullable HttpHeaders headers, @Nullable Object body) {
 
@@ -112,33 +165,28 @@ public class FizzWebClient {
                     String svc = s.substring(commaPos + 1);
                     String instance = registryCenterService.getInstance(rc, svc);
                     uri = ThreadContext.getStringBuilder().append(Consts.S.HTTP_PROTOCOL_PREFIX).append(instance).append(path).toString();
+                    return send2uri(traceId, method, svc, uri, null, headers, body, timeout, uriQryParamVals);
                 } else {
                     uri = discoveryClientUriSelector.getNextUri(s, path);
+                    return send2uri(traceId, method, s, uri, null, headers, body, timeout, uriQryParamVals);
                 }
-                return send2uri(traceId, method, uri, headers, body, timeout, uriQryParamVals);
             } else {
                 return send2uri(traceId, method, uriOrSvc, headers, body, timeout, uriQryParamVals);
             }
         });
        
-        if (numRetries > 0) {
-			cr = cr.flatMap(resp->{
-				// Do not retry on 4xx client error
-				if (resp.statusCode().is4xxClientError()) {
-					return Mono.error(new ExternalService4xxException());
-				}
-				return Mono.just(resp);
-			}).retryWhen(
-                Retry.fixedDelay(numRetries, Duration.ofMillis(retryInterval > 0 ? retryInterval : 0))
-                     .filter(throwable -> !(throwable instanceof ExternalService4xxException))
-                     .onRetryExhaustedThrow(
-                         (retryBackoffSpec, retrySignal) -> {
-                             throw new FizzRuntimeException("External service failed to process after max retries");
-                         }
-                     )
-            );
-        }
-        return cr;
+        return retry(cr, numRetries, retryInterval);
+    }
+
+    /**
+     * Send to the encoded uri as is, see {@link #send2uri(String, HttpMethod, URI, HttpHeaders, Object, long)}.
+     */
+    public Mono<ClientResponse> send(String traceId,
+                                     HttpMethod method, URI encodedUri, @Nullable HttpHeaders headers, @Nullable Object body,
+                                     long timeout, long numRetries, long retryInterval) {
+
+        Mono<ClientResponse> cr = Mono.just(Consts.S.EMPTY).flatMap(dummy -> send2uri(traceId, method, encodedUri, headers, body, timeout));
+        return retry(cr, numRetries, retryInterval);
     }
 
     public Mono<ClientResponse> send2service(@Nullable String traceId,
@@ -165,19 +213,44 @@ public class FizzWebClient {
                                                    HttpMethod method,  String service,  String relativeUri,  @Nullable HttpHeaders headers,  @Nullable Object body,
                                                          long timeout, long numRetries, long retryInterval,  String... relativeUriQryParamVals) {
 
+        return send2service(traceId, method, service, relativeUri, false, headers, body, timeout, numRetries, retryInterval, relativeUriQryParamVals);
+    }
+
+    /**
+     * @param encodedRelativeUri the relative uri is encoded already, and is sent as is without parsing and encoding again
+     */
+    public Mono<ClientResponse> send2service(@Nullable String traceId,
+                                             HttpMethod method,  String service,  String relativeUri,  boolean encodedRelativeUri,  @Nullable HttpHeaders headers,  @Nullable Object body,
+                                             long timeout, long numRetries, long retryInterval) {
+
+        return send2service(traceId, method, service, relativeUri, encodedRelativeUri, headers, body, timeout, numRetries, retryInterval, ArrayUtils.EMPTY_STRING_ARRAY);
+    }
+
+    private Mono<ClientResponse> send2service(@Nullable String traceId,
+                                              HttpMethod method,  String service,  String relativeUri,  boolean encodedRelativeUri,  @Nullable HttpHeaders headers,  @Nullable Object body,
+                                              long timeout, long numRetries, long retryInterval,  String... relativeUriQryParamVals) {
+
     	Mono<ClientResponse> cr = Mono.just(Consts.S.EMPTY).flatMap(dummy -> {
-            String uri = null;
+            String uri = null, upstream = service;
             int commaPos = service.indexOf(Consts.S.COMMA);
             if (commaPos > -1) {
                 String rc = service.substring(0, commaPos);
                 String s  = service.substring(commaPos + 1);
                 String instance = registryCenterService.getInstance(rc, s);
                 uri = ThreadContext.getStringBuilder().append(Consts.S.HTTP_PROTOCOL_PREFIX).append(instance).append(relativeUri).toString();
+                upstream = s;
             } else {
                 uri = discoveryClientUriSelector.getNextUri(service, relativeUri);
             }
-            return send2uri(traceId, method, uri, headers, body, timeout, relativeUriQryParamVals);
+            if (encodedRelativeUri) {
+                return send2uri(traceId, method, upstream, uri, URI.create(uri), headers, body, timeout);
+            }
+            return send2uri(traceId, method, upstream, uri, null, headers, body, timeout, relativeUriQryParamVals);
     	});
+        return retry(cr, numRetries, retryInterval);
+    }
+
+    private static Mono<ClientResponse> retry(Mono<ClientResponse> cr, long numRetries, long retryInterval) {
         if (numRetries > 0) {
             cr = cr.flatMap(resp -> {
                 // Do not retry on 4xx client error
@@ -216,6 +289,26 @@ public class FizzWebClient {
                                                 HttpMethod method, String uri, @Nullable HttpHeaders headers, @Nullable Object body,
                                                      long timeout, String... uriQryParamVals) {
 
+        return send2uri(traceId, method, null, uri, null, headers, body, timeout, uriQryParamVals);
+    }
+
+    /**
+     * Send to the encoded uri as is, without the uri template parsing and encoding of the web client.
+     */
+    public Mono<ClientResponse> send2uri(@Nullable String traceId,
+                                         HttpMethod method, URI encodedUri, @Nullable HttpHeaders headers, @Nullable Object body,
+                                         long timeout) {
+
+        return send2uri(traceId, method, null, encodedUri.toString(), encodedUri, headers, body, timeout);
+    }
+
+    /**
+     * @param upstream the service the uri is resolved from, or null if the uri is not from a service
+     */
+    private Mono<ClientResponse> send2uri(@Nullable String traceId,
+                                          HttpMethod method, @Nullable String upstream, String uri, @Nullable URI encodedUri, @Nullable HttpHeaders headers, @Nullable Object body,
+                                          long timeout, String... uriQryParamVals) {
+
         if (log.isDebugEnabled()) {
             StringBuilder b = ThreadContext.getStringBuilder();
             WebUtils.request2stringBuilder(traceId, method, uri, headers, null, b);
@@ -223,9 +316,37 @@ public class FizzWebClient {
             log.debug(b.toString());
         }
 
-        WebClient.RequestBodyUriSpec requestBodyUriSpec = webClient.method(method);
+        if (proxyWebClientConfig == null || !proxyWebClientConfig.isPerUpstreamConnPool()) {
+            return exchange(webClient, method, uri, encodedUri, headers, body, timeout, uriQryParamVals);
+        }
+        String u = upstream == null ? extractServiceOrAddress(uri) : upstream;
+        return Mono.defer(
+                () -> {
+                    UpstreamWebClient uwc = acquireUpstreamWebClient(u);
+                    if (uwc == null) {
+                        return exchange(webClient, method, uri, encodedUri, headers, body, timeout, uriQryParamVals);
+                    }
+                    Mono<ClientResponse> cr;
+                    try {
+                        cr = exchange(uwc.webClient, method, uri, encodedUri, headers, body, timeout, uriQryParamVals);
+                    } catch (RuntimeException | Error e) {
+                        releaseUpstreamWebClient(u, uwc);
+                        throw e;
+                    }
+                    return cr.doFinally(s -> releaseUpstreamWebClient(u, uwc));
+                }
+        );
+    }
+
+    private Mono<ClientResponse> exchange(WebClient client,
+                                          HttpMethod method, String uri, @Nullable URI encodedUri, @Nullable HttpHeaders headers, @Nullable Object body,
+                                          long timeout, String... uriQryParamVals) {
+
+        WebClient.RequestBodyUriSpec requestBodyUriSpec = client.method(method);
         WebClient.RequestBodySpec requestBodySpec = null;
-        if (uriQryParamVals.length == 0) {
+        if (encodedUri != null) {
+            requestBodySpec = requestBodyUriSpec.uri(encodedUri);
+        } else if (uriQryParamVals.length == 0) {
             requestBodySpec = requestBodyUriSpec.uri(uri);
         } else {
             requestBodySpec = requestBodyUriSpec.uri(uri, Arrays.stream(uriQryParamVals).toArray());
@@ -275,6 +396,125 @@ public class FizzWebClient {
         return cr;
     }
 
+    /**
+     * The web client is taken at subscription and held until the request completes, so the pool of it is not disposed
+     * before the request acquires a connection.
+     *
+     * @param upstream the service or else the host:port of the uri
+     * @return the web client with the connection pool of the upstream, or null if the shared web client should be used
+     */
+    private UpstreamWebClient acquireUpstreamWebClient(String upstream) {
+        while (true) {
+            UpstreamWebClient uwc = upstreamWebClients.get(upstream);
+            if (uwc == null) {
+                if (upstreamWebClients.size() >= proxyWebClientConfig.getMaxUpstreamConnPools()) {
+                    return null;
+                }
+                uwc = upstreamWebClients.computeIfAbsent(
+                        upstream,
+                        k -> {
+                            ConnectionPoolStat stat = new ConnectionPoolStat(k);
+                            ConnectionProvider provider = proxyWebClientConfig.connectionProvider(k);
+                            UpstreamWebClient client = new UpstreamWebClient(proxyWebClientConfig.webClient(provider, stat), provider, stat);
+                            connectionPoolStats.put(k, stat);
+                            log.info("create connection pool for upstream {}", k);
+                            return client;
+                        }
+                );
+            }
+            uwc.inFlight.incrementAndGet();
+            if (upstreamWebClients.get(upstream) == uwc) {
+                long now = System.currentTimeMillis();
+                if (now - uwc.lastUsed > 1000) {
+                    uwc.lastUsed = now;
+                }
+                return uwc;
+            }
+            // removed by disposeIdleUpstreamConnPools meanwhile, take the new one
+            releaseUpstreamWebClient(upstream, uwc);
+        }
+    }
+
+    private void releaseUpstreamWebClient(String upstream, UpstreamWebClient uwc) {
+        uwc.inFlight.decrementAndGet();
+        disposeIfUnused(upstream, uwc);
+    }
+
+    /**
+     * Either the remover or the last in flight request sees the other, then disposes the pool once.
+     */
+    private void disposeIfUnused(String upstream, UpstreamWebClient uwc) {
+        if (uwc.removed && uwc.inFlight.get() == 0 && uwc.disposed.compareAndSet(false, true)) {
+            dispose(upstream, uwc).subscribe();
+        }
+    }
+
+    @Scheduled(initialDelay = 60_000, fixedDelay = 60_000)
+    public void disposeIdleUpstreamConnPools() {
+        disposeIdleUpstreamConnPools(System.currentTimeMillis());
+    }
+
+    /**
+     * Dispose the pools of the upstreams which have no request for the idle timeout, no request in flight and no connection in use or being acquired,
+     * so the pools of the backends removed or renamed don't pile up, a later request to such an upstream creates a new pool.
+     */
+    void disposeIdleUpstreamConnPools(long now) {
+        long idleTimeout = proxyWebClientConfig == null ? 0 : proxyWebClientConfig.getUpstreamConnPoolIdleTimeout();
+        if (idleTimeout <= 0) {
+            return;
+        }
+        upstreamWebClients.forEach(
+                (u, uwc) -> {
+                    if (now - uwc.lastUsed >= idleTimeout && uwc.inFlight.get() == 0 && uwc.stat.getActive() == 0 && uwc.stat.getPending() == 0
+                            && upstreamWebClients.remove(u, uwc)) {
+                        log.info("dispose connection pool of idle upstream {}", u);
+                        uwc.removed = true;
+                        disposeIfUnused(u, uwc);
+                    }
+                }
+        );
+    }
+
+    @PreDestroy
+    public void disposeUpstreamConnPools() {
+        List<Mono<Void>> disposes = new ArrayList<>(upstreamWebClients.size());
+        upstreamWebClients.forEach(
+                (u, uwc) -> {
+                    if (upstreamWebClients.remove(u, uwc)) {
+                        uwc.removed = true;
+                        if (uwc.disposed.compareAndSet(false, true)) {
+                            disposes.add(dispose(u, uwc));
+                        }
+                    }
+                }
+        );
+        if (!disposes.isEmpty()) {
+            try {
+                Mono.when(disposes).block(Duration.ofSeconds(10));
+            } catch (Throwable t) {
+                log.warn("dispose upstream connection pools exception", t);
+            }
+        }
+    }
+
+    private Mono<Void> dispose(String upstream, UpstreamWebClient uwc) {
+        connectionPoolStats.remove(upstream, uwc.stat);
+        return uwc.provider.disposeLater()
+                           .onErrorResume(
+                                   t -> {
+                                       log.warn("dispose connection pool of upstream {} exception", upstream, t);
+                                       return Mono.empty();
+                                   }
+                           );
+    }
+
+    /**
+     * @return upstream to the stat of the connection pool of it
+     */
+    public Map<String, ConnectionPoolStat> getConnectionPoolStats() {
+        return connectionPoolStats;
+    }
+
     private void setHostHeader(String uri, HttpHeaders headers) {
         boolean domain = false;
         int begin = uri.indexOf(Consts.S.FORWARD_SLASH) + 2;
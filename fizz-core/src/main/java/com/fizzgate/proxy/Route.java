@@ -30,7 +30,7 @@ import java.util.List;
  * @author hongqiaowei
  */
 
-public class Route {
+public class Route implements Cloneable {
 
     public boolean            dedicatedLine       = false;
 
@@ -173,6 +173,17 @@ public class Route {
         return this;
     }
 
+    /**
+     * Shallow copy, the plugin config list is shared, so replace it by pluginConfigs(List<PluginConfig> pcs) rather than change it.
+     */
+    public Route copy() {
+        try {
+            return (Route) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Deprecated
     public String getBackendPathQuery() {
         if (query != null) {
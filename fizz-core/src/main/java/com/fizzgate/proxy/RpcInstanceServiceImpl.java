@@ -55,7 +55,7 @@ public class RpcInstanceServiceImpl implements RpcInstanceService {
     /**
      * redis rpc service info hash key
      */
-    private static final String RPC_SERVICE_HASH_KEY = "fizz_rpc_service";
+    public static final String RPC_SERVICE_HASH_KEY = "fizz_rpc_service";
 
     /**
      * key pattern of {@link #serviceToInstancesMap}, {@link #serviceToLoadBalanceTypeMap} and {@link #serviceToCountMap}
@@ -46,6 +46,8 @@ public class RegistryCenterService implements ApplicationListener<ContextRefresh
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RegistryCenterService.class);
 
+    public static final String FIZZ_REGISTRY = "fizz_registry";
+
     private Map<String, RegistryCenter> registryCenterMap = new HashMap<>();
 
     @Resource
@@ -71,7 +73,7 @@ public class RegistryCenterService implements ApplicationListener<ContextRefresh
 
     public Result<?> initRegistryCenter() {
         Result<?> result = Result.succ();
-        Flux<Map.Entry<Object, Object>> registryCenterEntries = rt.opsForHash().entries("fizz_registry");
+        Flux<Map.Entry<Object, Object>> registryCenterEntries = rt.opsForHash().entries(FIZZ_REGISTRY);
         registryCenterEntries.collectList()
                              .defaultIfEmpty(Collections.emptyList())
                              .flatMap(
@@ -19,8 +19,11 @@ package com.fizzgate.stats;
 
 import com.fizzgate.stats.circuitbreaker.CircuitBreakManager;
 import com.fizzgate.stats.circuitbreaker.CircuitBreaker;
+import com.fizzgate.stats.ratelimit.ClusterRateLimiter;
+import com.fizzgate.stats.ratelimit.ResourceRateLimitConfig;
 import com.fizzgate.util.Consts;
 import com.fizzgate.util.ResourceIdUtils;
+import com.fizzgate.util.ResourceKey;
 import com.fizzgate.util.WebUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,11 +36,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiFunction;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
 /**
@@ -60,22 +60,36 @@ public class FlowStat {
 	public boolean createTimeSlotOnlyTraffic = true;
 
 	/**
-	 * A string Resource ID as key
+	 * A structured Resource ID as key
 	 */
-	public ConcurrentMap<String, ResourceStat> resourceStats = new ConcurrentHashMap<>(256);
+	public ConcurrentMap<ResourceKey, ResourceStat> resourceStats = new ConcurrentHashMap<>(256);
 
 	/**
 	 * Retention time of statistic data
 	 */
 	public static long RETENTION_TIME_IN_MINUTES = 5;
 
-	private ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
-	private Lock w = rwl.writeLock();
+	/**
+	 * Runs the jobs of this FlowStat at time slot boundaries
+	 */
+	private final TimeSlotScheduler scheduler = new TimeSlotScheduler("fizz-flow-stat", INTERVAL);
 
-	private ExecutorService pool = Executors.newFixedThreadPool(2);
+	/**
+	 * Runs the housekeeping job, which scans all resources, on its own thread so
+	 * that it does not delay the job at time slot boundaries
+	 */
+	private final TimeSlotScheduler housekeepScheduler = new TimeSlotScheduler("fizz-flow-stat-housekeep", INTERVAL);
+
+	/**
+	 * Resources with recent traffic, in-flight requests or a circuit breaker not
+	 * closed, only they are visited when a new time slot starts
+	 */
+	private final Set<ResourceStat> activeResourceStats = ConcurrentHashMap.newKeySet();
 
 	private CircuitBreakManager circuitBreakManager;
 
+	private ClusterRateLimiter clusterRateLimiter;
+
 	public FlowStat() {
 		runScheduleJob();
 	}
@@ -95,13 +109,40 @@ public class FlowStat {
 		this.circuitBreakManager = circuitBreakManager;
 	}
 
+	public void setClusterRateLimiter(ClusterRateLimiter clusterRateLimiter) {
+		this.clusterRateLimiter = clusterRateLimiter;
+	}
+
 	private void runScheduleJob() {
-		pool.submit(new HousekeepJob(this));
-		pool.submit(new PeakConcurrentJob(this));
+		scheduler.schedule("PeakConcurrentJob", new PeakConcurrentJob(this), 1);
+		scheduler.start();
+		housekeepScheduler.schedule("HousekeepJob", new HousekeepJob(this), 10);
+		housekeepScheduler.start();
 	}
 
 	/**
-	 * Update retention time
+	 * Stop the scheduled jobs
+	 */
+	public void shutdown() {
+		scheduler.shutdown();
+		housekeepScheduler.shutdown();
+	}
+
+	/**
+	 * Add the resource to the active resources which are visited when a new time
+	 * slot starts
+	 * 
+	 * @param resourceStat
+	 */
+	public void markActive(ResourceStat resourceStat) {
+		if (resourceStat.markActive()) {
+			activeResourceStats.add(resourceStat);
+		}
+	}
+
+	/**
+	 * Update retention time, it takes effect on the resources created afterwards
+	 * since the time slot capacity of a resource is fixed when it is created
 	 * 
 	 * @param retentionTimeInMinutes
 	 */
@@ -155,66 +196,12 @@ public class FlowStat {
 		if (resourceConfigs == null || resourceConfigs.size() == 0) {
 			return null;
 		}
-		w.lock();
-		try {
-			// check if exceed limit
-			for (ResourceConfig resourceConfig : resourceConfigs) {
-				long maxCon = resourceConfig.getMaxCon();
-				long maxQPS = resourceConfig.getMaxQPS();
-				if (maxCon >= 0 || maxQPS >= 0) {
-					ResourceStat resourceStat = getResourceStat(resourceConfig.getResourceId());
-					// check concurrent request
-					if (maxCon >= 0) {
-						long n = resourceStat.getConcurrentRequests().get();
-						if (n >= maxCon) {
-							resourceStat.incrBlockRequestToTimeSlot(curTimeSlotId);
-							if (totalBlockFunc != null) {
-								List<ResourceConfig> parentResCfgs = totalBlockFunc.apply(resourceConfig,
-										resourceConfigs);
-								if (parentResCfgs != null && parentResCfgs.size() > 0) {
-									for (ResourceConfig pResCfg : parentResCfgs) {
-										getResourceStat(pResCfg.getResourceId())
-												.incrTotalBlockRequestToTimeSlot(curTimeSlotId);
-									}
-								}
-							}
-							return IncrRequestResult.block(resourceConfig.getResourceId(),
-									BlockType.CONCURRENT_REQUEST);
-						}
-					}
-
-					// check QPS
-					if (maxQPS >= 0) {
-						long total = resourceStat.getTimeSlot(curTimeSlotId).getCounter();
-						if (total >= maxQPS) {
-							resourceStat.incrBlockRequestToTimeSlot(curTimeSlotId);
-							if (totalBlockFunc != null) {
-								List<ResourceConfig> parentResCfgs = totalBlockFunc.apply(resourceConfig,
-										resourceConfigs);
-								if (parentResCfgs != null && parentResCfgs.size() > 0) {
-									for (ResourceConfig pResCfg : parentResCfgs) {
-										getResourceStat(pResCfg.getResourceId())
-												.incrTotalBlockRequestToTimeSlot(curTimeSlotId);
-									}
-								}
-							}
-							return IncrRequestResult.block(resourceConfig.getResourceId(), BlockType.QPS);
-						}
-					}
-				}
-			}
-
-			// increase request and concurrent request
-			for (ResourceConfig resourceConfig : resourceConfigs) {
-				ResourceStat resourceStat = getResourceStat(resourceConfig.getResourceId());
-				int cons = resourceStat.getConcurrentRequests().incrementAndGet();
-				resourceStat.getTimeSlot(curTimeSlotId).updatePeakConcurrentReqeusts(cons);
-				resourceStat.getTimeSlot(curTimeSlotId).incr();
-			}
-			return IncrRequestResult.success();
-		} finally {
-			w.unlock();
+		boolean[] clusterPermits = new boolean[resourceConfigs.size()];
+		IncrRequestResult result = acquire(resourceConfigs, clusterPermits, curTimeSlotId, totalBlockFunc);
+		if (result.isSuccess()) {
+			admit(resourceConfigs, curTimeSlotId);
 		}
+		return result;
 	}
 
 	public IncrRequestResult incrRequest(ServerWebExchange exchange, List<ResourceConfig> resourceConfigs, long curTimeSlotId,
@@ -222,77 +209,149 @@ public class FlowStat {
 		if (resourceConfigs == null || resourceConfigs.size() == 0) {
 			return null;
 		}
-		w.lock();
-		try {
-			// check if exceed limit
-			for (ResourceConfig resourceConfig : resourceConfigs) {
-				long maxCon = resourceConfig.getMaxCon();
-				long maxQPS = resourceConfig.getMaxQPS();
-				if (maxCon >= 0 || maxQPS >= 0) {
-					ResourceStat resourceStat = getResourceStat(resourceConfig.getResourceId());
-					// check concurrent request
-					if (maxCon >= 0) {
-						long n = resourceStat.getConcurrentRequests().get();
-						if (n >= maxCon) {
-							resourceStat.incrBlockRequestToTimeSlot(curTimeSlotId);
-							if (totalBlockFunc != null) {
-								List<ResourceConfig> parentResCfgs = totalBlockFunc.apply(resourceConfig,
-										resourceConfigs);
-								if (parentResCfgs != null && parentResCfgs.size() > 0) {
-									for (ResourceConfig pResCfg : parentResCfgs) {
-										getResourceStat(pResCfg.getResourceId())
-												.incrTotalBlockRequestToTimeSlot(curTimeSlotId);
-									}
-								}
-							}
-							return IncrRequestResult.block(resourceConfig.getResourceId(),
-									BlockType.CONCURRENT_REQUEST);
+		boolean[] clusterPermits = new boolean[resourceConfigs.size()];
+		IncrRequestResult result = acquire(resourceConfigs, clusterPermits, curTimeSlotId, totalBlockFunc);
+		if (!result.isSuccess()) {
+			return result;
+		}
+
+		String service = WebUtils.getClientService(exchange);
+		String path    = WebUtils.getClientReqPath(exchange);
+		boolean permit = circuitBreakManager.permit(exchange, curTimeSlotId, this, service, path);
+		if (!permit) {
+			release(resourceConfigs, clusterPermits, resourceConfigs.size(), curTimeSlotId);
+			String resource = ResourceIdUtils.buildResourceId(null, null, null, service, path);
+			return IncrRequestResult.block(resource, BlockType.CIRCUIT_BREAK);
+		}
+
+		admit(resourceConfigs, curTimeSlotId);
+		return result;
+	}
+
+	/**
+	 * Increase concurrent request and request counter of each resource in the
+	 * chain with CAS, no lock is held. If a resource exceeds its limit, the
+	 * counters of the resources in front of it are rolled back.
+	 * 
+	 * @param resourceConfigs Resource configurations
+	 * @param clusterPermits  receives whether the QPS permit of each resource is
+	 *                        taken from ClusterRateLimiter
+	 * @param curTimeSlotId   current time slot ID
+	 * @param totalBlockFunc  [optional] callback function for statistic of total
+	 *                        block requests
+	 * @return IncrRequestResult
+	 */
+	private IncrRequestResult acquire(List<ResourceConfig> resourceConfigs, boolean[] clusterPermits, long curTimeSlotId,
+			BiFunction<ResourceConfig, List<ResourceConfig>, List<ResourceConfig>> totalBlockFunc) {
+		for (int i = 0; i < resourceConfigs.size(); i++) {
+			ResourceConfig resourceConfig = resourceConfigs.get(i);
+			long maxCon = resourceConfig.getMaxCon();
+			long maxQPS = resourceConfig.getMaxQPS();
+			ResourceStat resourceStat = getResourceStat(resourceConfig.getResourceKey());
+			TimeSlot timeSlot = resourceStat.getTimeSlot(curTimeSlotId);
+			BlockType blockType = null;
+
+			// check concurrent request
+			int cons;
+			if (maxCon >= 0) {
+				cons = resourceStat.incrConcurrentRequestIfLessThan(maxCon);
+				if (cons < 0) {
+					blockType = BlockType.CONCURRENT_REQUEST;
+				}
+			} else {
+				cons = resourceStat.getConcurrentRequests().incrementAndGet();
+			}
+			if (cons > 0) {
+				markActive(resourceStat);
+			}
+
+			// check QPS
+			if (blockType == null) {
+				if (maxQPS >= 0) {
+					boolean permit;
+					if (resourceConfig.getQpsScope() == ResourceRateLimitConfig.Scope.CLUSTER
+							&& clusterRateLimiter != null && clusterRateLimiter.isAvailable()) {
+						permit = clusterRateLimiter.tryAcquire(resourceConfig.getResourceId(), maxQPS, curTimeSlotId);
+						if (permit) {
+							timeSlot.incr();
+							clusterPermits[i] = true;
+						}
+					} else if (resourceConfig.getQpsMode() == ResourceRateLimitConfig.Mode.TOKEN_BUCKET) {
+						permit = resourceStat.getTokenBucket().tryAcquire(localQps(resourceConfig), resourceConfig.getBurst(), System.nanoTime());
+						if (permit) {
+							timeSlot.incr();
 						}
+					} else {
+						permit = timeSlot.incrIfLessThan(localQps(resourceConfig));
 					}
+					if (!permit) {
+						resourceStat.getConcurrentRequests().decrementAndGet();
+						blockType = BlockType.QPS;
+					}
+				} else {
+					timeSlot.incr();
+				}
+			}
 
-					// check QPS
-					if (maxQPS >= 0) {
-						long total = resourceStat.getTimeSlot(curTimeSlotId).getCounter();
-						if (total >= maxQPS) {
-							resourceStat.incrBlockRequestToTimeSlot(curTimeSlotId);
-							if (totalBlockFunc != null) {
-								List<ResourceConfig> parentResCfgs = totalBlockFunc.apply(resourceConfig,
-										resourceConfigs);
-								if (parentResCfgs != null && parentResCfgs.size() > 0) {
-									for (ResourceConfig pResCfg : parentResCfgs) {
-										getResourceStat(pResCfg.getResourceId())
-												.incrTotalBlockRequestToTimeSlot(curTimeSlotId);
-									}
-								}
-							}
-							return IncrRequestResult.block(resourceConfig.getResourceId(), BlockType.QPS);
+			if (blockType != null) {
+				release(resourceConfigs, clusterPermits, i, curTimeSlotId);
+				resourceStat.incrBlockRequestToTimeSlot(curTimeSlotId);
+				if (totalBlockFunc != null) {
+					List<ResourceConfig> parentResCfgs = totalBlockFunc.apply(resourceConfig, resourceConfigs);
+					if (parentResCfgs != null && parentResCfgs.size() > 0) {
+						for (ResourceConfig pResCfg : parentResCfgs) {
+							getResourceStat(pResCfg.getResourceKey()).incrTotalBlockRequestToTimeSlot(curTimeSlotId);
 						}
 					}
 				}
+				return IncrRequestResult.block(resourceConfig.getResourceId(), blockType);
 			}
+		}
+		return IncrRequestResult.success();
+	}
 
-			for (ResourceConfig resourceConfig : resourceConfigs) {
-				getResourceStat(resourceConfig.getResourceId());
-			}
+	/**
+	 * QPS limit of the resource on this node, the cluster wide limit is shared by
+	 * the nodes when ClusterRateLimiter is unavailable
+	 */
+	private long localQps(ResourceConfig resourceConfig) {
+		long maxQPS = resourceConfig.getMaxQPS();
+		if (resourceConfig.getQpsScope() == ResourceRateLimitConfig.Scope.CLUSTER && clusterRateLimiter != null) {
+			return clusterRateLimiter.localQps(maxQPS);
+		}
+		return maxQPS;
+	}
 
-			String service = WebUtils.getClientService(exchange);
-			String path    = WebUtils.getClientReqPath(exchange);
-			String resource = ResourceIdUtils.buildResourceId(null, null, null, service, path);
-			boolean permit = circuitBreakManager.permit(exchange, curTimeSlotId, this, service, path);
-			if (!permit) {
-				return IncrRequestResult.block(resource, BlockType.CIRCUIT_BREAK);
+	/**
+	 * Roll back the counters increased by acquire for the first n resources, the
+	 * QPS permit is given back to where it is taken
+	 */
+	private void release(List<ResourceConfig> resourceConfigs, boolean[] clusterPermits, int n, long curTimeSlotId) {
+		for (int i = n - 1; i >= 0; i--) {
+			ResourceConfig resourceConfig = resourceConfigs.get(i);
+			ResourceStat resourceStat = getResourceStat(resourceConfig.getResourceKey());
+			resourceStat.getConcurrentRequests().decrementAndGet();
+			resourceStat.getTimeSlot(curTimeSlotId).decr();
+			if (resourceConfig.getMaxQPS() >= 0) {
+				if (clusterPermits[i]) {
+					clusterRateLimiter.release(resourceConfig.getResourceId(), curTimeSlotId);
+				} else if (resourceConfig.getQpsMode() == ResourceRateLimitConfig.Mode.TOKEN_BUCKET) {
+					resourceStat.getTokenBucket().release(localQps(resourceConfig));
+				}
 			}
+		}
+	}
 
-			// increase request and concurrent request
-			for (ResourceConfig resourceConfig : resourceConfigs) {
-				ResourceStat resourceStat = getResourceStat(resourceConfig.getResourceId());
-				int cons = resourceStat.getConcurrentRequests().incrementAndGet();
-				resourceStat.getTimeSlot(curTimeSlotId).updatePeakConcurrentReqeusts(cons);
-				resourceStat.getTimeSlot(curTimeSlotId).incr();
-			}
-			return IncrRequestResult.success();
-		} finally {
-			w.unlock();
+	/**
+	 * Counts the request admitted by the whole chain and updates the peak
+	 * concurrent requests with the admitted requests, the concurrent request
+	 * counters also hold the requests of other chains being checked, which may
+	 * be rolled back and should not raise the peak
+	 */
+	private void admit(List<ResourceConfig> resourceConfigs, long curTimeSlotId) {
+		for (int i = 0; i < resourceConfigs.size(); i++) {
+			ResourceStat resourceStat = getResourceStat(resourceConfigs.get(i).getResourceKey());
+			resourceStat.getTimeSlot(curTimeSlotId).updatePeakConcurrentReqeusts(resourceStat.admit());
 		}
 	}
 
@@ -309,7 +368,7 @@ public class FlowStat {
 			return;
 		}
 		for (int i = resourceConfigs.size() - 1; i >= 0; i--) {
-			ResourceStat resourceStat = getResourceStat(resourceConfigs.get(i).getResourceId());
+			ResourceStat resourceStat = getResourceStat(resourceConfigs.get(i).getResourceKey());
 			resourceStat.decrConcurrentRequest(timeSlotId);
 			resourceStat.addRequestRT(timeSlotId, rt, isSuccess);
 
@@ -360,6 +419,7 @@ public class FlowStat {
 		ResourceStat resourceStat = getResourceStat(resourceId);
 		boolean success = resourceStat.incrConcurrentRequest(curTimeSlotId, maxCon);
 		if (success) {
+			markActive(resourceStat);
 			success = resourceStat.incrRequestToTimeSlot(curTimeSlotId, maxRPS);
 		}
 		return success;
@@ -401,12 +461,14 @@ public class FlowStat {
 	}
 
 	public ResourceStat getResourceStat(String resourceId) {
-		ResourceStat resourceStat = null;
-		if (resourceStats.containsKey(resourceId)) {
-			resourceStat = resourceStats.get(resourceId);
-		} else {
-			resourceStat = new ResourceStat(resourceId);
-			ResourceStat rs = resourceStats.putIfAbsent(resourceId, resourceStat);
+		return getResourceStat(ResourceKey.of(resourceId));
+	}
+
+	public ResourceStat getResourceStat(ResourceKey resourceKey) {
+		ResourceStat resourceStat = resourceStats.get(resourceKey);
+		if (resourceStat == null) {
+			resourceStat = new ResourceStat(resourceKey);
+			ResourceStat rs = resourceStats.putIfAbsent(resourceKey, resourceStat);
 			if (rs != null) {
 				resourceStat = rs;
 			}
@@ -469,14 +531,26 @@ public class FlowStat {
 	 * @return
 	 */
 	public TimeWindowStat getTimeWindowStat(String resourceId, long startTimeMilli, long endTimeMilli) {
+		return getTimeWindowStat(ResourceKey.of(resourceId), startTimeMilli, endTimeMilli);
+	}
+
+	/**
+	 * Returns the timeWindowStat of the specific resource in the specified time
+	 * window [startTimeMilli, endTimeMilli)
+	 * 
+	 * @param startTimeMilli included
+	 * @param endTimeMilli   excluded
+	 * @return
+	 */
+	public TimeWindowStat getTimeWindowStat(ResourceKey resourceKey, long startTimeMilli, long endTimeMilli) {
 		long startSlotId = (startTimeMilli / INTERVAL) * INTERVAL;
 		long endSlotId = (endTimeMilli / INTERVAL) * INTERVAL;
 
 		if (startSlotId == endSlotId) {
 			endSlotId = endSlotId + INTERVAL;
 		}
-		if (resourceStats.containsKey(resourceId)) {
-			ResourceStat resourceStat = resourceStats.get(resourceId);
+		ResourceStat resourceStat = resourceStats.get(resourceKey);
+		if (resourceStat != null) {
 			return resourceStat.getTimeWindowStat(startSlotId, endSlotId);
 		}
 		return null;
@@ -526,9 +600,9 @@ public class FlowStat {
 		long slotInterval = slotIntervalInSec * 1000;
 
 		if (resourceId == null) {
-			Set<Entry<String, ResourceStat>> entrys = resourceStats.entrySet();
-			for (Entry<String, ResourceStat> entry : entrys) {
-				String rid = entry.getKey();
+			Set<Entry<ResourceKey, ResourceStat>> entrys = resourceStats.entrySet();
+			for (Entry<ResourceKey, ResourceStat> entry : entrys) {
+				ResourceKey rid = entry.getKey();
 				ResourceTimeWindowStat resourceWin = new ResourceTimeWindowStat(rid);
 				long end = startSlotId + slotInterval;
 				for (long start = startSlotId; end <= endSlotId;) {
@@ -544,10 +618,11 @@ public class FlowStat {
 				}
 			}
 		} else {
-			ResourceTimeWindowStat resourceWin = new ResourceTimeWindowStat(resourceId);
+			ResourceKey rid = ResourceKey.of(resourceId);
+			ResourceTimeWindowStat resourceWin = new ResourceTimeWindowStat(rid);
 			long end = startSlotId + slotInterval;
 			for (long start = startSlotId; end <= endSlotId;) {
-				TimeWindowStat tws = getTimeWindowStat(resourceId, start, end);
+				TimeWindowStat tws = getTimeWindowStat(rid, start, end);
 				if (tws != null) {
 					resourceWin.getWindows().add(tws);
 				}
@@ -561,7 +636,12 @@ public class FlowStat {
 		return list;
 	}
 
-	class HousekeepJob implements Runnable {
+	private static boolean hasTraffic(ResourceStat resourceStat, long timeSlotId) {
+		TimeSlot ts = resourceStat.peekTimeSlot(timeSlotId);
+		return ts != null && ts.getCounter() > 0;
+	}
+
+	class HousekeepJob implements LongConsumer {
 
 		private FlowStat stat;
 
@@ -570,73 +650,45 @@ public class FlowStat {
 		}
 
 		@Override
-		public void run() {
+		public void accept(long currentTimeSlot) {
+			// expired time slots are overwritten in place by ResourceStat, only resources without traffic need to be removed
+			if (!cleanResource) {
+				return;
+			}
 			long n = FlowStat.RETENTION_TIME_IN_MINUTES * 60 * 1000 / FlowStat.INTERVAL * FlowStat.INTERVAL;
-			long lastSlotId = stat.currentTimeSlotId() - n;
-			while (true) {
-				long slotId = stat.currentTimeSlotId() - n;
-				/*if (log.isDebugEnabled()) {
-					log.debug("{} - {} resource stats size {}", lastSlotId, slotId, stat.resourceStats.size());
+			long startTimeSlot = currentTimeSlot - n;
+			for (Entry<ResourceKey, ResourceStat> entry : stat.resourceStats.entrySet()) {
+				ResourceKey resource = entry.getKey();
+				if (ResourceIdUtils.NODE_RESOURCE_KEY.equals(resource)) {
+					continue;
 				}
-				Set<Map.Entry<String, ResourceStat>> es = stat.resourceStats.entrySet();
-				for (Entry<String, ResourceStat> e : es) {
-					String resourceId = e.getKey();
-					ConcurrentMap<Long, TimeSlot> timeSlots = e.getValue().getTimeSlots();
-					if (log.isDebugEnabled()) {
-						log.debug("{} - {} {} has {} timeslot", lastSlotId, slotId, resourceId, timeSlots.size());
-					}
-				}*/
-				for (long i = lastSlotId; i < slotId;) {
-					Set<Entry<String, ResourceStat>> entrys = stat.resourceStats.entrySet();
-					for (Entry<String, ResourceStat> entry : entrys) {
-						String resourceId = entry.getKey();
-						ConcurrentMap<Long, TimeSlot> timeSlots = entry.getValue().getTimeSlots();
-						/*if (log.isDebugEnabled()) {
-							log.debug("{} - {} {} remove {} timeslot", lastSlotId, slotId, resourceId, i);
-						}*/
-						timeSlots.remove(i);
-					}
-					i = i + FlowStat.INTERVAL;
+				ResourceStat resourceStat = entry.getValue();
+				if (resourceStat.isActive() || resourceStat.getConcurrentRequests().get() > 0) {
+					continue;
 				}
-				lastSlotId = slotId;
-				// log.debug("housekeeping done");
-
-				if (cleanResource) {
-					long currentTimeSlot = stat.currentTimeSlotId();
-					long startTimeSlot = currentTimeSlot - n;
-					for (Entry<String, ResourceStat> entry : stat.resourceStats.entrySet()) {
-						String resource = entry.getKey();
-						if (ResourceIdUtils.NODE_RESOURCE.equals(resource)) {
-							continue;
-						}
-						ResourceStat resourceStat = entry.getValue();
-						boolean noTraffic = true;
-						long timeSlot = startTimeSlot;
-						for (; timeSlot < currentTimeSlot; timeSlot += FlowStat.INTERVAL) {
-							int reqCnt = resourceStat.getTimeSlot(timeSlot).getCounter();
-							if (reqCnt > 0) {
-								noTraffic = false;
-								break;
-							}
-						}
-						if (noTraffic) {
-							stat.resourceStats.remove(resource);
-							log.info("HousekeepJob remove {}", resource);
-						}
+				boolean noTraffic = true;
+				long timeSlot = startTimeSlot;
+				for (; timeSlot < currentTimeSlot; timeSlot += FlowStat.INTERVAL) {
+					if (hasTraffic(resourceStat, timeSlot)) {
+						noTraffic = false;
+						break;
 					}
 				}
-
-
-				try {
-					Thread.sleep(10 * 1000);
-				} catch (Exception e) {
-					log.error("HouseKeepJob error", e);
+				if (noTraffic) {
+					stat.resourceStats.remove(resource);
+					log.info("HousekeepJob remove {}", resource);
 				}
 			}
 		}
 	}
 
-	class PeakConcurrentJob implements Runnable {
+	/**
+	 * Runs at the start of each time slot, creates the new time slot for the
+	 * resources with in-flight requests so that their peak concurrent requests
+	 * are recorded, and corrects the circuit breaker states. Only active resources
+	 * are visited, a resource leaves the active resources once it is idle.
+	 */
+	class PeakConcurrentJob implements LongConsumer {
 
 		private FlowStat stat;
 
@@ -645,38 +697,34 @@ public class FlowStat {
 		}
 
 		@Override
-		public void run() {
-			Long lastTimeSlotId = null;
-			while (true) {
-				long curTimeSlotId = stat.currentTimeSlotId();
-				if (lastTimeSlotId == null || lastTimeSlotId.longValue() != curTimeSlotId) {
-					// log.debug("PeakConcurrentJob start");
-					Set<Entry<String, ResourceStat>> entrys = stat.resourceStats.entrySet();
-					for (Entry<String, ResourceStat> entry : entrys) {
-						String resource = entry.getKey();
-						// log.debug("PeakConcurrentJob: resourceId={} slotId=={}", resourceId,
-						// curTimeSlotId);
-
-						ResourceStat resourceStat = entry.getValue();
-						if (createTimeSlotOnlyTraffic && resourceStat.getConcurrentRequests().get() > 0) {
-							resourceStat.getTimeSlot(curTimeSlotId);
-						} else {
-							resourceStat.getTimeSlot(curTimeSlotId);
-						}
+		public void accept(long curTimeSlotId) {
+			long prevTimeSlotId = curTimeSlotId - FlowStat.INTERVAL;
+			for (ResourceStat resourceStat : stat.activeResourceStats) {
+				resourceStat.clearActive();
+
+				boolean inFlight = resourceStat.getConcurrentRequests().get() > 0;
+				if (inFlight || !createTimeSlotOnlyTraffic) {
+					resourceStat.getTimeSlot(curTimeSlotId);
+				}
 
-						// String resource = resourceStat.getResourceId();
-						CircuitBreaker cb = circuitBreakManager.getCircuitBreaker(resource);
-						if (cb != null) {
-							cb.correctState(curTimeSlotId, stat);
-						}
+				boolean circuitBreakerClosed = true;
+				if (circuitBreakManager != null) {
+					CircuitBreaker cb = circuitBreakManager.getCircuitBreaker(resourceStat.getResourceId());
+					if (cb != null) {
+						cb.correctState(curTimeSlotId, stat);
+						circuitBreakerClosed = cb.stateRef.get() == CircuitBreaker.State.CLOSED;
 					}
-					lastTimeSlotId = curTimeSlotId;
-					// log.debug("PeakConcurrentJob done");
 				}
-				try {
-					Thread.sleep(1);
-				} catch (Exception e) {
-					log.error("PeakConcurrentJob error", e);
+
+				if (inFlight || !circuitBreakerClosed || hasTraffic(resourceStat, prevTimeSlotId)
+						|| hasTraffic(resourceStat, curTimeSlotId)) {
+					resourceStat.markActive();
+				} else {
+					stat.activeResourceStats.remove(resourceStat);
+					// marked by a request meanwhile, before the removal
+					if (resourceStat.isActive()) {
+						stat.activeResourceStats.add(resourceStat);
+					}
 				}
 			}
 		}
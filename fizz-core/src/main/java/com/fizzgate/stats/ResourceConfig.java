@@ -17,6 +17,9 @@
 
 package com.fizzgate.stats;
 
+import com.fizzgate.stats.ratelimit.ResourceRateLimitConfig;
+import com.fizzgate.util.ResourceKey;
+
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -33,6 +36,14 @@ public class ResourceConfig {
 
 	public ResourceConfig(String resourceId, long maxCon, long maxQPS) {
 		this.resourceId = resourceId;
+		this.resourceKey = ResourceKey.of(resourceId);
+		this.maxCon = maxCon;
+		this.maxQPS = maxQPS;
+	}
+
+	public ResourceConfig(ResourceKey resourceKey, long maxCon, long maxQPS) {
+		this.resourceId = resourceKey.toString();
+		this.resourceKey = resourceKey;
 		this.maxCon = maxCon;
 		this.maxQPS = maxQPS;
 	}
@@ -42,6 +53,25 @@ public class ResourceConfig {
 	 */
 	private String resourceId;
 
+	/**
+	 * Structured form of resource ID
+	 */
+	private ResourceKey resourceKey;
+
+	public void setResourceId(String resourceId) {
+		this.resourceId = resourceId;
+		this.resourceKey = resourceId == null ? null : ResourceKey.of(resourceId);
+	}
+
+	public ResourceKey getResourceKey() {
+		ResourceKey k = resourceKey;
+		if (k == null) {
+			k = ResourceKey.of(resourceId);
+			resourceKey = k;
+		}
+		return k;
+	}
+
 	//---------------------------------------------------------------------
 	// Flow control rule
 	//---------------------------------------------------------------------
@@ -55,6 +85,21 @@ public class ResourceConfig {
 	 */
 	private long maxQPS = -1L;
 
+	/**
+	 * QPS limiting mode, see ResourceRateLimitConfig.Mode
+	 */
+	private byte qpsMode = ResourceRateLimitConfig.Mode.FIXED_WINDOW;
+
+	/**
+	 * Bucket capacity of token bucket mode, maxQPS is used if not positive
+	 */
+	private long burst = -1L;
+
+	/**
+	 * QPS limiting scope, see ResourceRateLimitConfig.Scope
+	 */
+	private byte qpsScope = ResourceRateLimitConfig.Scope.NODE;
+
 
 	//---------------------------------------------------------------------
 	// Degrade rule
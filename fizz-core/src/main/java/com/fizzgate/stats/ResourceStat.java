@@ -18,17 +18,17 @@
 package com.fizzgate.stats;
 
 import java.math.BigDecimal;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fizzgate.stats.circuitbreaker.CircuitBreaker;
+import com.fizzgate.util.ResourceKey;
 
 /**
  * 
@@ -39,15 +39,29 @@ public class ResourceStat {
 
 	private static final Logger log = LoggerFactory.getLogger(ResourceStat.class);
 
+	private static final AtomicLongFieldUpdater<ResourceStat> LATE_COMP_REQS_UPDATER = AtomicLongFieldUpdater.newUpdater(ResourceStat.class, "lateCompReqs");
+
+	private static final AtomicLongFieldUpdater<ResourceStat> LATE_ERRORS_UPDATER = AtomicLongFieldUpdater.newUpdater(ResourceStat.class, "lateErrors");
+
+	/**
+	 * Resource
+	 */
+	private ResourceKey resourceKey;
+
 	/**
-	 * Resource ID
+	 * Slots of a chunk of the ring
 	 */
-	private String resourceId;
+	private static final int CHUNK_SIZE = 16;
 
 	/**
-	 * Request count of time slot, the beginning timestamp(timeId) as key
+	 * Circular time slot array covering the retention time, a time slot is
+	 * located by (timeSlotId / INTERVAL) % capacity and reset in place when it
+	 * is reused by a newer time slot ID. The ring is split into chunks which
+	 * are allocated on first use, so a short-lived resource holds a few slots only
 	 */
-	private ConcurrentMap<Long, TimeSlot> timeSlots = new ConcurrentHashMap<>(256);
+	private final AtomicReferenceArray<AtomicReferenceArray<TimeSlot>> timeSlots;
+
+	private final int capacity;
 
 	/**
 	 * Concurrent requests
@@ -55,36 +69,124 @@ public class ResourceStat {
 //	private AtomicLong concurrentRequests = new AtomicLong(0);
 	private AtomicInteger concurrentRequests = new AtomicInteger(0);
 
-	private ReentrantReadWriteLock rwl1 = new ReentrantReadWriteLock();
-	private ReentrantReadWriteLock rwl2 = new ReentrantReadWriteLock();
-	private Lock w1 = rwl1.writeLock();
-	private Lock w2 = rwl2.writeLock();
+	/**
+	 * Concurrent requests admitted, unlike concurrentRequests without the
+	 * requests still being checked by a resource chain, the peak concurrent
+	 * requests are taken from it
+	 */
+	private final AtomicInteger admittedRequests = new AtomicInteger(0);
+
+	/**
+	 * Token bucket for the token bucket QPS limiting mode
+	 */
+	private final TokenBucket tokenBucket = new TokenBucket();
+
+	/**
+	 * Whether the resource is in the active resources of FlowStat
+	 */
+	private final AtomicBoolean active = new AtomicBoolean(false);
+
+	/**
+	 * Time slots in [foldedFromTimeSlotId, foldedTimeSlotId) have been added to
+	 * the running totals of the circuit breaker of the resource
+	 */
+	private volatile long foldedFromTimeSlotId = Long.MAX_VALUE;
+
+	private volatile long foldedTimeSlotId = Long.MIN_VALUE;
+
+	/**
+	 * Completed and error requests which are added to a folded time slot, they
+	 * are counted since the resource is created
+	 */
+	private volatile long lateCompReqs = 0;
+
+	private volatile long lateErrors = 0;
 
 	public ResourceStat(String resourceId) {
-		this.resourceId = resourceId;
+		this(ResourceKey.of(resourceId));
+	}
+
+	public ResourceStat(ResourceKey resourceKey) {
+		this.resourceKey = resourceKey;
+		this.capacity = (int) (FlowStat.RETENTION_TIME_IN_MINUTES * 60 * 1000 / FlowStat.INTERVAL);
+		this.timeSlots = new AtomicReferenceArray<>((capacity + CHUNK_SIZE - 1) / CHUNK_SIZE);
+	}
+
+	private int index(long timeSlotId) {
+		return (int) ((timeSlotId / FlowStat.INTERVAL) % capacity);
+	}
+
+	private AtomicReferenceArray<TimeSlot> chunk(int idx) {
+		int c = idx / CHUNK_SIZE;
+		AtomicReferenceArray<TimeSlot> chunk = timeSlots.get(c);
+		if (chunk == null) {
+			chunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+			if (!timeSlots.compareAndSet(c, null, chunk)) {
+				chunk = timeSlots.get(c);
+			}
+		}
+		return chunk;
 	}
 
 	/**
-	 * Returns Time slot of the specified time slot ID
+	 * Returns Time slot of the specified time slot ID, create it if absent
 	 * 
 	 * @param timeSlotId
 	 * @return
 	 */
 	public TimeSlot getTimeSlot(long timeSlotId) {
-		if (timeSlots.containsKey(timeSlotId)) {
-			return timeSlots.get(timeSlotId);
-		} else {
-			TimeSlot timeSlot = new TimeSlot(timeSlotId);
-			timeSlot.setPeakConcurrentRequests(this.concurrentRequests.get());
-			TimeSlot old = timeSlots.putIfAbsent(timeSlotId, timeSlot);
-			if (old != null) {
-				return old;
-			} else {
+		int idx = index(timeSlotId);
+		AtomicReferenceArray<TimeSlot> chunk = chunk(idx);
+		int i = idx % CHUNK_SIZE;
+		for (;;) {
+			TimeSlot cur = chunk.get(i);
+			if (cur == null) {
+				TimeSlot timeSlot = new TimeSlot(timeSlotId);
+				timeSlot.setPeakConcurrentRequests(this.admittedRequests.get());
+				if (chunk.compareAndSet(i, null, timeSlot)) {
+					return timeSlot;
+				}
+				continue;
+			}
+			long id = cur.getId();
+			if (id == timeSlotId) {
+				return cur;
+			}
+			if (id == TimeSlot.RESETTING) {
+				Thread.yield();
+				continue;
+			}
+			if (id > timeSlotId) {
+				// expired time slot which has been overwritten, not retained
+				TimeSlot timeSlot = new TimeSlot(timeSlotId);
+				timeSlot.setPeakConcurrentRequests(this.admittedRequests.get());
 				return timeSlot;
 			}
+			if (cur.reset(id, timeSlotId, this.admittedRequests.get())) {
+				return cur;
+			}
 		}
 	}
 
+	/**
+	 * Returns Time slot of the specified time slot ID without creating it
+	 * 
+	 * @param timeSlotId
+	 * @return null if the time slot is absent or expired
+	 */
+	public TimeSlot peekTimeSlot(long timeSlotId) {
+		int idx = index(timeSlotId);
+		AtomicReferenceArray<TimeSlot> chunk = timeSlots.get(idx / CHUNK_SIZE);
+		if (chunk == null) {
+			return null;
+		}
+		TimeSlot timeSlot = chunk.get(idx % CHUNK_SIZE);
+		if (timeSlot != null && timeSlot.getId() == timeSlotId) {
+			return timeSlot;
+		}
+		return null;
+	}
+
 	/**
 	 * Increase concurrent request counter of the resource
 	 * 
@@ -94,25 +196,45 @@ public class ResourceStat {
 	 *         resource
 	 */
 	public boolean incrConcurrentRequest(long timeSlotId, Long maxCon) {
-		w1.lock();
-		try {
-			boolean isExceeded = false;
-			if (maxCon != null && maxCon.intValue() > 0) {
-				int n = this.concurrentRequests.get();
-				if (n >= maxCon.longValue()) {
-					isExceeded = true;
-					this.incrBlockRequestToTimeSlot(timeSlotId);
-				} else {
-					int conns = this.concurrentRequests.incrementAndGet();
-					this.getTimeSlot(timeSlotId).updatePeakConcurrentReqeusts(conns);
-				}
-			} else {
-				int conns = this.concurrentRequests.incrementAndGet();
-				this.getTimeSlot(timeSlotId).updatePeakConcurrentReqeusts(conns);
+		int conns;
+		if (maxCon != null && maxCon.intValue() > 0) {
+			conns = this.incrConcurrentRequestIfLessThan(maxCon);
+			if (conns < 0) {
+				this.incrBlockRequestToTimeSlot(timeSlotId);
+				return false;
+			}
+		} else {
+			this.concurrentRequests.incrementAndGet();
+		}
+		this.getTimeSlot(timeSlotId).updatePeakConcurrentReqeusts(admit());
+		return true;
+	}
+
+	/**
+	 * Counts a request admitted after its concurrent request counter is increased
+	 * 
+	 * @return concurrent requests admitted
+	 */
+	public int admit() {
+		return this.admittedRequests.incrementAndGet();
+	}
+
+	/**
+	 * Increase concurrent request counter of the resource if it is less than maxCon
+	 * 
+	 * @param maxCon
+	 * @return concurrent requests after increasing, or -1 if the counter reaches
+	 *         maxCon
+	 */
+	public int incrConcurrentRequestIfLessThan(long maxCon) {
+		for (;;) {
+			int n = this.concurrentRequests.get();
+			if (n >= maxCon) {
+				return -1;
+			}
+			if (this.concurrentRequests.compareAndSet(n, n + 1)) {
+				return n + 1;
 			}
-			return !isExceeded;
-		} finally {
-			w1.unlock();
 		}
 	}
 
@@ -121,8 +243,8 @@ public class ResourceStat {
 	 * 
 	 */
 	public void decrConcurrentRequest(long timeSlotId) {
-		int conns = this.concurrentRequests.decrementAndGet();
-		this.getTimeSlot(timeSlotId).updatePeakConcurrentReqeusts(conns);
+		this.concurrentRequests.decrementAndGet();
+		this.getTimeSlot(timeSlotId).updatePeakConcurrentReqeusts(this.admittedRequests.decrementAndGet());
 	}
 
 	/**
@@ -150,33 +272,17 @@ public class ResourceStat {
 	 * @return false if exceed the maximum RPS of the specified resource
 	 */
 	public boolean incrRequestToTimeSlot(long timeSlotId, Long maxRPS) {
-		w2.lock();
-		try {
-			boolean isExceeded = false;
-			if (maxRPS != null && maxRPS.intValue() > 0) {
-//				TimeWindowStat timeWindowStat = this.getCurrentTimeWindowStat(resourceId, curTimeSlotId);
-//				if (new BigDecimal(maxRPS).compareTo(timeWindowStat.getRps()) <= 0) {
-//					isExceeded = true;
-//					resourceStat.incrBlockRequestToTimeSlot(curTimeSlotId);
-//				}
-
-				// time slot unit is one second
-				long total = this.getTimeSlot(timeSlotId).getCounter();
-				long max = Long.valueOf(maxRPS);
-				if (total >= max) {
-					isExceeded = true;
-					this.incrBlockRequestToTimeSlot(timeSlotId);
-					this.decrConcurrentRequest(timeSlotId);
-				} else {
-					this.getTimeSlot(timeSlotId).incr();
-				}
-			} else {
-				this.getTimeSlot(timeSlotId).incr();
+		if (maxRPS != null && maxRPS.intValue() > 0) {
+			// time slot unit is one second
+			if (!this.getTimeSlot(timeSlotId).incrIfLessThan(maxRPS)) {
+				this.incrBlockRequestToTimeSlot(timeSlotId);
+				this.decrConcurrentRequest(timeSlotId);
+				return false;
 			}
-			return !isExceeded;
-		} finally {
-			w2.unlock();
+		} else {
+			this.getTimeSlot(timeSlotId).incr();
 		}
+		return true;
 	}
 
 	public void updateCircuitBreakState(long timeSlot, CircuitBreaker.State current, CircuitBreaker.State target) {
@@ -233,6 +339,29 @@ public class ResourceStat {
 	 */
 	public void addRequestRT(long timeSlotId, long rt, boolean isSuccess) {
 		this.getTimeSlot(timeSlotId).addRequestRT(rt, isSuccess);
+		if (timeSlotId < foldedTimeSlotId && timeSlotId >= foldedFromTimeSlotId) {
+			LATE_COMP_REQS_UPDATER.incrementAndGet(this);
+			if (!isSuccess) {
+				LATE_ERRORS_UPDATER.incrementAndGet(this);
+			}
+		}
+	}
+
+	/**
+	 * Mark the time slots in [from, to) as added to the running totals, the
+	 * requests completed later in them are counted as late ones
+	 */
+	public void setFoldedTimeSlots(long from, long to) {
+		this.foldedFromTimeSlotId = from;
+		this.foldedTimeSlotId = to;
+	}
+
+	public long getLateCompReqs() {
+		return lateCompReqs;
+	}
+
+	public long getLateErrors() {
+		return lateErrors;
 	}
 
 	/**
@@ -265,8 +394,8 @@ public class ResourceStat {
 		int _504Status = 0;
 
 		for (long i = startSlotId; i < endSlotId;) {
-			if (timeSlots.containsKey(i)) {
-				TimeSlot timeSlot = timeSlots.get(i);
+			TimeSlot timeSlot = peekTimeSlot(i);
+			if (timeSlot != null) {
 				min = timeSlot.getMin() < min ? timeSlot.getMin() : min;
 				max = timeSlot.getMax() > max ? timeSlot.getMax() : max;
 				peakConcurrences = timeSlot.getPeakConcurrentRequests() > peakConcurrences
@@ -323,19 +452,34 @@ public class ResourceStat {
 	}
 
 	public String getResourceId() {
-		return resourceId;
+		return resourceKey.toString();
 	}
 
 	public void setResourceId(String resourceId) {
-		this.resourceId = resourceId;
+		this.resourceKey = ResourceKey.of(resourceId);
+	}
+
+	public ResourceKey getResourceKey() {
+		return resourceKey;
+	}
+
+	/**
+	 * @return true if the resource turns active from inactive
+	 */
+	public boolean markActive() {
+		return !active.get() && active.compareAndSet(false, true);
+	}
+
+	public void clearActive() {
+		active.set(false);
 	}
 
-	public ConcurrentMap<Long, TimeSlot> getTimeSlots() {
-		return timeSlots;
+	public boolean isActive() {
+		return active.get();
 	}
 
-	public void setTimeSlots(ConcurrentMap<Long, TimeSlot> timeSlots) {
-		this.timeSlots = timeSlots;
+	public TokenBucket getTokenBucket() {
+		return tokenBucket;
 	}
 
 	public AtomicInteger getConcurrentRequests() {
@@ -19,6 +19,8 @@ package com.fizzgate.stats;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.fizzgate.util.ResourceKey;
+
 /**
  * 
  * @author Francis Dong
@@ -27,22 +29,30 @@ import java.util.List;
 public class ResourceTimeWindowStat {
 
 	/**
-	 * Resource ID
+	 * Resource
 	 */
-	private String resourceId;
+	private ResourceKey resourceKey;
 
 	private List<TimeWindowStat> windows = new ArrayList<>();
 
 	public ResourceTimeWindowStat(String resourceId) {
-		this.resourceId = resourceId;
+		this.resourceKey = ResourceKey.of(resourceId);
+	}
+
+	public ResourceTimeWindowStat(ResourceKey resourceKey) {
+		this.resourceKey = resourceKey;
 	}
 
 	public String getResourceId() {
-		return resourceId;
+		return resourceKey.toString();
 	}
 
 	public void setResourceId(String resourceId) {
-		this.resourceId = resourceId;
+		this.resourceKey = ResourceKey.of(resourceId);
+	}
+
+	public ResourceKey getResourceKey() {
+		return resourceKey;
 	}
 
 	public List<TimeWindowStat> getWindows() {
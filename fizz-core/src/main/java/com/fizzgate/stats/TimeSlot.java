@@ -17,86 +17,113 @@
 package com.fizzgate.stats;
 
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.fizzgate.stats.circuitbreaker.CircuitBreaker;
 
 /**
+ * Counters of a time slot, they are updated by many event loop threads at the
+ * same time. Only the total response time and completed requests, which are
+ * added by every response, are kept in striped LongAdder cells, the other
+ * counters are CAS based fields, min, max and peak concurrent requests are
+ * written only when they change. A time slot is reset and reused by
+ * {@link ResourceStat}, so the objects of a slot are allocated once.
  * 
  * @author Francis Dong
  *
  */
 public class TimeSlot {
 
+	/**
+	 * ID of a time slot being reset for a newer time slot ID
+	 */
+	public static final long RESETTING = -1;
+
+	private static final AtomicLongFieldUpdater<TimeSlot> ID_UPDATER = AtomicLongFieldUpdater.newUpdater(TimeSlot.class, "id");
+
+	private static final AtomicIntegerFieldUpdater<TimeSlot> COUNTER_UPDATER = AtomicIntegerFieldUpdater.newUpdater(TimeSlot.class, "counter");
+
+	private static final AtomicIntegerFieldUpdater<TimeSlot> GRADUAL_RESUME_NUM_UPDATER = AtomicIntegerFieldUpdater.newUpdater(TimeSlot.class, "gradualResumeNum");
+
+	private static final AtomicIntegerFieldUpdater<TimeSlot> RESUME_TRAFFIC_FACTOR_UPDATER = AtomicIntegerFieldUpdater.newUpdater(TimeSlot.class, "resumeTrafficFactor");
+
+	private static final AtomicIntegerFieldUpdater<TimeSlot> GRADUAL_REJECT_NUM_UPDATER = AtomicIntegerFieldUpdater.newUpdater(TimeSlot.class, "gradualRejectNum");
+
+	private static final AtomicIntegerFieldUpdater<TimeSlot> ERRORS_UPDATER = AtomicIntegerFieldUpdater.newUpdater(TimeSlot.class, "errors");
+
+	private static final AtomicIntegerFieldUpdater<TimeSlot> BLOCK_REQUESTS_UPDATER = AtomicIntegerFieldUpdater.newUpdater(TimeSlot.class, "blockRequests");
+
+	private static final AtomicIntegerFieldUpdater<TimeSlot> TOTAL_BLOCK_REQUESTS_UPDATER = AtomicIntegerFieldUpdater.newUpdater(TimeSlot.class, "totalBlockRequests");
+
+	private static final AtomicIntegerFieldUpdater<TimeSlot> CIRCUIT_BREAK_NUM_UPDATER = AtomicIntegerFieldUpdater.newUpdater(TimeSlot.class, "circuitBreakNum");
+
+	private static final AtomicLongFieldUpdater<TimeSlot> MIN_UPDATER = AtomicLongFieldUpdater.newUpdater(TimeSlot.class, "min");
+
+	private static final AtomicLongFieldUpdater<TimeSlot> MAX_UPDATER = AtomicLongFieldUpdater.newUpdater(TimeSlot.class, "max");
+
+	private static final AtomicLongFieldUpdater<TimeSlot> PEAK_CONCURRENT_REQUESTS_UPDATER = AtomicLongFieldUpdater.newUpdater(TimeSlot.class, "peakConcurrentRequests");
+
 	/**
 	 * Time slot start timestamp as ID
 	 */
-	private long id;
+	private volatile long id;
 
 	/**
 	 * Request counter
 	 */
-//	private AtomicLong counter = new AtomicLong();
 	private volatile int counter = 0;
 
 	/**
 	 * Error request counter
 	 */
-//	private AtomicLong errors = new AtomicLong();
 	private volatile int errors = 0;
 
 	/**
 	 * Minimum response time
 	 */
-	private long min = Long.MAX_VALUE;
+	private volatile long min = Long.MAX_VALUE;
 
 	/**
 	 * Maximum response time
 	 */
-	private long max = Long.MIN_VALUE;
+	private volatile long max = Long.MIN_VALUE;
 
 	/**
 	 * Total response time
 	 */
-//	private AtomicLong totalRt = new AtomicLong(0);
-	private volatile int totalRt = 0;
+	private final LongAdder totalRt = new LongAdder();
 	
 	/**
 	 * Completed Request counter
 	 */
-//	private AtomicLong compReqs = new AtomicLong();
-	private volatile int compReqs = 0;
+	private final LongAdder compReqs = new LongAdder();
 
 	/**
 	 * Peak concurrent requests
 	 */
-	private volatile int peakConcurrentRequests;
+	private volatile long peakConcurrentRequests = 0;
 
 	/**
 	 * Block requests <br/>
 	 */
-//	private AtomicLong blockRequests = new AtomicLong(0);
 	private volatile int blockRequests = 0;
 	
 	/**
 	 * Total block requests of the resource and its underlying resources <br/>
 	 */
-//	private AtomicLong totalBlockRequests = new AtomicLong(0);
 	private volatile int totalBlockRequests = 0;
 
 	private AtomicReference<CircuitBreaker.State> circuitBreakState   = new AtomicReference<>(CircuitBreaker.State.CLOSED);
 
-//	private AtomicLong                            circuitBreakNum     = new AtomicLong(0);
 	private volatile int                          circuitBreakNum     = 0;
 
-//	private AtomicLong                            gradualResumeNum    = new AtomicLong(0);
 	private volatile int                          gradualResumeNum    = 0;
 
-//	private AtomicInteger                         resumeTrafficFactor = new AtomicInteger(1);
 	private volatile int                          resumeTrafficFactor = 1;
 
-//	private AtomicLong                            gradualRejectNum    = new AtomicLong(0);
 	private volatile int                          gradualRejectNum    = 0;
 
 	private AtomicInteger                         _2xxStatusCount     = new AtomicInteger(0);
@@ -136,7 +163,7 @@ public class TimeSlot {
 	}
 
 	public void incrCircuitBreakNum() {
-		++circuitBreakNum;
+		CIRCUIT_BREAK_NUM_UPDATER.incrementAndGet(this);
 	}
 
 	public int getGradualResumeNum() {
@@ -144,11 +171,11 @@ public class TimeSlot {
 	}
 
 	public int incrGradualResumeNum() {
-		return ++gradualResumeNum;
+		return GRADUAL_RESUME_NUM_UPDATER.incrementAndGet(this);
 	}
 
 	public int decrGradualResumeNum() {
-		return --gradualResumeNum;
+		return GRADUAL_RESUME_NUM_UPDATER.decrementAndGet(this);
 	}
 
 	public int getResumeTrafficFactor() {
@@ -156,7 +183,7 @@ public class TimeSlot {
 	}
 
 	public void incrResumeTrafficFactor() {
-		++resumeTrafficFactor;
+		RESUME_TRAFFIC_FACTOR_UPDATER.incrementAndGet(this);
 	}
 
 	public int getGradualRejectNum() {
@@ -164,11 +191,11 @@ public class TimeSlot {
 	}
 
 	public int incrGradualRejectNum() {
-		return ++gradualRejectNum;
+		return GRADUAL_REJECT_NUM_UPDATER.incrementAndGet(this);
 	}
 
 	public int decrGradualRejectNum() {
-		return --gradualRejectNum;
+		return GRADUAL_REJECT_NUM_UPDATER.decrementAndGet(this);
 	}
 
 
@@ -180,13 +207,75 @@ public class TimeSlot {
 		return id;
 	}
 
+	/**
+	 * Reset the time slot in place for a newer time slot ID, the slot is marked
+	 * {@link #RESETTING} while the counters are cleared, and the new ID is
+	 * published last
+	 * 
+	 * @param expectedId current ID of the time slot
+	 * @param newId
+	 * @param peakConcurrentRequests current concurrent requests of the resource
+	 * @return false if the time slot has been reset by another thread
+	 */
+	public boolean reset(long expectedId, long newId, int peakConcurrentRequests) {
+		if (!ID_UPDATER.compareAndSet(this, expectedId, RESETTING)) {
+			return false;
+		}
+		counter = 0;
+		errors = 0;
+		min = Long.MAX_VALUE;
+		max = Long.MIN_VALUE;
+		totalRt.reset();
+		compReqs.reset();
+		this.peakConcurrentRequests = peakConcurrentRequests;
+		blockRequests = 0;
+		totalBlockRequests = 0;
+		circuitBreakState.set(CircuitBreaker.State.CLOSED);
+		circuitBreakNum = 0;
+		gradualResumeNum = 0;
+		resumeTrafficFactor = 1;
+		gradualRejectNum = 0;
+		_2xxStatusCount.set(0);
+		_4xxStatusCount.set(0);
+		_5xxStatusCount.set(0);
+		_504StatusCount.set(0);
+		id = newId;
+		return true;
+	}
+
 	/**
 	 * Add request to time slot
 	 * 
 	 */
 	public void incr() {
-		// counter.incrementAndGet();
-		++counter;
+		COUNTER_UPDATER.incrementAndGet(this);
+	}
+
+	/**
+	 * Add request to time slot if the counter is less than max
+	 * 
+	 * @param max maximum requests of the time slot
+	 * @return false if the counter reaches max
+	 */
+	public boolean incrIfLessThan(long max) {
+		for (;;) {
+			int n = counter;
+			if (n >= max) {
+				return false;
+			}
+			if (COUNTER_UPDATER.compareAndSet(this, n, n + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Remove request from time slot, used to roll back a request which is blocked by
+	 * a subsequent resource
+	 * 
+	 */
+	public void decr() {
+		COUNTER_UPDATER.decrementAndGet(this);
 	}
 
 	/**
@@ -195,14 +284,16 @@ public class TimeSlot {
 	 * @param rt
 	 * @param isSuccess Whether the request is success or not
 	 */
-	public synchronized void addRequestRT(long rt, boolean isSuccess) {
-		totalRt += rt;
-		++compReqs;
+	public void addRequestRT(long rt, boolean isSuccess) {
+		totalRt.add(rt);
+		compReqs.increment();
 		if (!isSuccess) {
-			++errors;
+			ERRORS_UPDATER.incrementAndGet(this);
+		}
+		for (long m = min; rt < m && !MIN_UPDATER.compareAndSet(this, m, rt); m = min) {
+		}
+		for (long m = max; rt > m && !MAX_UPDATER.compareAndSet(this, m, rt); m = max) {
 		}
-		min = rt < min ? rt : min;
-		max = rt > max ? rt : max;
 	}
 
 	/**
@@ -210,9 +301,10 @@ public class TimeSlot {
 	 * 
 	 * @param concurrentRequests Current concurrent requests
 	 */
-	public synchronized void updatePeakConcurrentReqeusts(int concurrentRequests) {
-		peakConcurrentRequests = concurrentRequests > peakConcurrentRequests ? concurrentRequests
-				: peakConcurrentRequests;
+	public void updatePeakConcurrentReqeusts(int concurrentRequests) {
+		for (long p = peakConcurrentRequests; concurrentRequests > p
+				&& !PEAK_CONCURRENT_REQUESTS_UPDATER.compareAndSet(this, p, concurrentRequests); p = peakConcurrentRequests) {
+		}
 	}
 
 	public void setId(long id) {
@@ -244,11 +336,12 @@ public class TimeSlot {
 	}
 
 	public int getTotalRt() {
-		return totalRt;
+		return totalRt.intValue();
 	}
 
 	public void setTotalRt(int totalRt) {
-		this.totalRt = totalRt;
+		this.totalRt.reset();
+		this.totalRt.add(totalRt);
 	}
 
 	public long getPeakConcurrentRequests() {
@@ -276,15 +369,16 @@ public class TimeSlot {
 	}
 
 	public void incrBlockRequests() {
-		++blockRequests;
+		BLOCK_REQUESTS_UPDATER.incrementAndGet(this);
 	}
 
 	public int getCompReqs() {
-		return compReqs;
+		return compReqs.intValue();
 	}
 
 	public void setCompReqs(int compReqs) {
-		this.compReqs = compReqs;
+		this.compReqs.reset();
+		this.compReqs.add(compReqs);
 	}
 
 	public int getTotalBlockRequests() {
@@ -292,7 +386,7 @@ public class TimeSlot {
 	}
 
 	public void incrTotalBlockRequests() {
-		++totalBlockRequests;
+		TOTAL_BLOCK_REQUESTS_UPDATER.incrementAndGet(this);
 	}
 
 	public void setTotalBlockRequests(int totalBlockRequests) {
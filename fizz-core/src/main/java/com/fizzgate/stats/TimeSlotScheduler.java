@@ -0,0 +1,214 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.fizzgate.stats;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timer wheel driven by time slot boundaries: a single daemon thread
+ * sleeps until the next time slot starts, then runs the tasks due in that slot
+ * with the new time slot ID. A task with a period of n slots is placed n
+ * buckets ahead, with the remaining rounds if n exceeds the wheel size.
+ * <p>
+ * The wheel advances by the time slots elapsed since the last wakeup, so a late
+ * wakeup catches up, a task due in the skipped time slots runs once with the
+ * current time slot ID. The wheel is only accessed by the scheduler thread.
+ */
+public class TimeSlotScheduler {
+
+	private static final Logger log = LoggerFactory.getLogger(TimeSlotScheduler.class);
+
+	private static final int WHEEL_SIZE = 64;
+
+	private static final AtomicInteger threadNum = new AtomicInteger(0);
+
+	private final long interval;
+
+	private final List<Task>[] wheel;
+
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * Current time in millisecond
+	 */
+	private final LongSupplier clock;
+
+	private long tick = 0;
+
+	private long lastTimeSlotId;
+
+	private volatile boolean started = false;
+
+	private volatile boolean shutdown = false;
+
+	private static class Task {
+
+		private final String name;
+
+		private final LongConsumer job;
+
+		private final int periodInSlots;
+
+		private long rounds;
+
+		Task(String name, LongConsumer job, int periodInSlots) {
+			this.name = name;
+			this.job = job;
+			this.periodInSlots = periodInSlots;
+		}
+	}
+
+	public TimeSlotScheduler(String name, long interval) {
+		this(name, interval, System::currentTimeMillis);
+	}
+
+	@SuppressWarnings("unchecked")
+	TimeSlotScheduler(String name, long interval, LongSupplier clock) {
+		this.interval = interval;
+		this.clock = clock;
+		this.lastTimeSlotId = clock.getAsLong() / interval * interval;
+		this.wheel = new List[WHEEL_SIZE];
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel[i] = new ArrayList<>(2);
+		}
+		String threadName = name + '-' + threadNum.incrementAndGet();
+		ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, threadName);
+			t.setDaemon(true);
+			return t;
+		});
+		stpe.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.executor = stpe;
+	}
+
+	/**
+	 * Run the job at the start of every periodInSlots time slots, the first run is
+	 * at the start of the next time slot
+	 * 
+	 * @param name          task name for logging
+	 * @param job           accepts the ID of the time slot just started
+	 * @param periodInSlots
+	 */
+	public void schedule(String name, LongConsumer job, int periodInSlots) {
+		if (periodInSlots < 1) {
+			throw new IllegalArgumentException("period of " + name + " should be positive: " + periodInSlots);
+		}
+		Task task = new Task(name, job, periodInSlots);
+		executor.execute(() -> add(task, 1));
+	}
+
+	public void start() {
+		started = true;
+		executor.execute(() -> {
+			lastTimeSlotId = clock.getAsLong() / interval * interval;
+			arm();
+		});
+	}
+
+	public void shutdown() {
+		shutdown = true;
+		executor.shutdownNow();
+	}
+
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	private void add(Task task, int slots) {
+		task.rounds = (slots - 1) / WHEEL_SIZE;
+		wheel[(int) ((tick + slots) % WHEEL_SIZE)].add(task);
+	}
+
+	private void arm() {
+		if (shutdown || !started) {
+			return;
+		}
+		long now = clock.getAsLong();
+		scheduleTick((now / interval + 1) * interval - now);
+	}
+
+	private void scheduleTick(long delay) {
+		try {
+			executor.schedule(this::onTimeSlot, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			if (!shutdown) {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Run the time slots elapsed on the scheduler thread and wait for them, for
+	 * test with a given clock
+	 */
+	void runTimeSlots() throws InterruptedException, ExecutionException {
+		executor.submit(this::onTimeSlot).get();
+	}
+
+	private void onTimeSlot() {
+		long timeSlotId = clock.getAsLong() / interval * interval;
+		if (timeSlotId == lastTimeSlotId) {
+			// woken up a little early, the delay is measured by nano time
+			arm();
+			return;
+		}
+		// one time slot if the clock is set back
+		long ticks = timeSlotId > lastTimeSlotId ? (timeSlotId - lastTimeSlotId) / interval : 1;
+		lastTimeSlotId = timeSlotId;
+		List<Task> due = null;
+		for (long i = 0; i < ticks; i++) {
+			tick++;
+			List<Task> bucket = wheel[(int) (tick % WHEEL_SIZE)];
+			for (Iterator<Task> it = bucket.iterator(); it.hasNext();) {
+				Task task = it.next();
+				if (task.rounds > 0) {
+					task.rounds--;
+				} else {
+					it.remove();
+					if (due == null) {
+						due = new ArrayList<>(4);
+					}
+					due.add(task);
+				}
+			}
+		}
+		if (due != null) {
+			for (Task task : due) {
+				try {
+					task.job.accept(timeSlotId);
+				} catch (Throwable t) {
+					log.error("{} error", task.name, t);
+				}
+				add(task, task.periodInSlots);
+			}
+		}
+		arm();
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket of a resource, implemented as GCRA(generic cell rate algorithm):
+ * only the theoretical arrival time of the next request is kept and updated
+ * with CAS, tokens are refilled continuously at qps per second and at most
+ * burst requests can pass at once.
+ */
+public class TokenBucket {
+
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	/**
+	 * Theoretical arrival time in nanosecond
+	 */
+	private final AtomicLong tat = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Take a token from the bucket
+	 * 
+	 * @param qps   refill rate, zero for blocking all requests
+	 * @param burst bucket capacity, qps is used if it is not positive
+	 * @param now   current time in nanosecond, System.nanoTime()
+	 * @return false if no token is available
+	 */
+	public boolean tryAcquire(long qps, long burst, long now) {
+		if (qps <= 0) {
+			return false;
+		}
+		long interval = interval(qps);
+		long capacity = burst > 0 ? burst : qps;
+		long tolerance = capacity - 1 >= Long.MAX_VALUE / interval ? Long.MAX_VALUE : interval * (capacity - 1);
+		for (;;) {
+			long t = tat.get();
+			long base = Math.max(t, now);
+			if (base - now > tolerance) {
+				return false;
+			}
+			if (tat.compareAndSet(t, base + interval)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Give back a token taken by tryAcquire, used to roll back a request which is
+	 * blocked by a subsequent resource
+	 * 
+	 * @param qps the same qps passed to tryAcquire
+	 */
+	public void release(long qps) {
+		if (qps > 0) {
+			tat.addAndGet(-interval(qps));
+		}
+	}
+
+	/**
+	 * @return nanoseconds between two tokens, at least 1 as a qps above 1e9 can not
+	 *         be measured in nanosecond
+	 */
+	private static long interval(long qps) {
+		return Math.max(NANOS_PER_SECOND / qps, 1);
+	}
+}
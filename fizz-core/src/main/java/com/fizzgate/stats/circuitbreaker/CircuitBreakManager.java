@@ -52,6 +52,16 @@ public class CircuitBreakManager {
 
     private final Set<String>                 circuitBreakersFromServiceDefault = new HashSet<>(64);
 
+    /**
+     * Increased whenever the circuit breaker configs are published, by the single init or channel thread
+     */
+    private volatile long                     version                           = 0;
+
+    /**
+     * Paths of the path circuit breakers of each service
+     */
+    private volatile Map<String, Set<String>> service2paths                     = Collections.emptyMap();
+
     @Resource(name = AggregateRedisConfig.AGGREGATE_REACTIVE_REDIS_TEMPLATE)
     private ReactiveStringRedisTemplate rt;
 
@@ -87,6 +97,7 @@ public class CircuitBreakManager {
                                                      // updateParentResourceMap(cb);
                                                      LOGGER.info("init circuit breaker {}", cb);
                                                  }
+                                                 updateVersion();
                                              } catch (Throwable t) {
                                                  result.code = Result.FAIL;
                                                  result.msg  = "init circuit breaker error, json: " + json;
@@ -157,6 +168,7 @@ public class CircuitBreakManager {
                                   circuitBreakersFromServiceDefault.clear();
                               // }
                           }
+                          updateVersion();
                       } catch (Throwable t) {
                           LOGGER.error("update circuit breaker error, {}", message, t);
                       }
@@ -246,6 +258,7 @@ public class CircuitBreakManager {
         cb.responseContent     = serviceDefaultCircuitBreaker.responseContent;
         cb.stateStartTime      = serviceDefaultCircuitBreaker.stateStartTime;
 
+        // the service resource is in the resource chain whether it has a circuit breaker or not, so version is not changed
         resource2circuitBreakerMap.put(resource, cb);
         circuitBreakersFromServiceDefault.add(resource);
 
@@ -319,6 +332,29 @@ public class CircuitBreakManager {
         return resource2circuitBreakerMap;
     }
 
+    private void updateVersion() {
+        Map<String, Set<String>> map = new HashMap<>();
+        for (CircuitBreaker cb : circuitBreakerMap.values()) {
+            if (cb.type == CircuitBreaker.Type.PATH && cb.service != null && cb.path != null) {
+                map.computeIfAbsent(cb.service, s -> new HashSet<>()).add(cb.path);
+            }
+        }
+        service2paths = map;
+        version++;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return true if there is a circuit breaker of the service path
+     */
+    public boolean hasCircuitBreaker(String service, String path) {
+        Set<String> paths = service2paths.get(service);
+        return paths != null && paths.contains(path);
+    }
+
     /*public Map<String, String> getParentResourceMap() {
         return parentResourceMap;
     }*/
@@ -22,7 +22,6 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fizzgate.stats.FlowStat;
 import com.fizzgate.stats.ResourceStat;
 import com.fizzgate.stats.TimeSlot;
-import com.fizzgate.stats.TimeWindowStat;
 import com.fizzgate.util.JacksonUtils;
 import com.fizzgate.util.ResourceIdUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -110,6 +109,30 @@ public class CircuitBreaker {
         }
     }
 
+    /**
+     * Running totals of the completed and error requests of the CLOSED state which starts at start:
+     * each closed second in [start, folded) is added to reqs and errors once, when it rolls out of the current second,
+     * and the requests started in a folded second but completed later are counted by the late counters of the resource stat,
+     * which are taken relative to the bases of the window. The totals restart with the window.
+     */
+    private static class ClosedStateTotals {
+        private final long start;
+        private final long folded;
+        private final long reqs;
+        private final long errors;
+        private final long lateReqsBase;
+        private final long lateErrorsBase;
+
+        ClosedStateTotals(long start, long folded, long reqs, long errors, long lateReqsBase, long lateErrorsBase) {
+            this.start          = start;
+            this.folded         = folded;
+            this.reqs           = reqs;
+            this.errors         = errors;
+            this.lateReqsBase   = lateReqsBase;
+            this.lateErrorsBase = lateErrorsBase;
+        }
+    }
+
     public static final String DETECT_REQUEST = "detectReq@";
 
 
@@ -161,6 +184,8 @@ public class CircuitBreaker {
 
     public       long                   stateStartTime;
 
+    private volatile ClosedStateTotals  closedStateTotals;
+
     public CircuitBreaker() {
     }
 
@@ -309,6 +334,7 @@ public class CircuitBreaker {
             ResourceStat resourceStat = flowStat.getResourceStat(resource);
             resourceStat.getTimeSlot(currentTimeWindow).setCircuitBreakNum(0);
             resourceStat.updateCircuitBreakState(currentTimeWindow, current, target);
+            flowStat.markActive(resourceStat);
             LOGGER.debug("transit {} current time window {} from {} which start at {} to {}", resource, currentTimeWindow, current, stateStartTime, target);
             stateStartTime = currentTimeWindow;
             return true;
@@ -340,34 +366,73 @@ public class CircuitBreaker {
         return true;
     }
 
+    private ClosedStateTotals getClosedStateTotals(long currentTimeWindow, ResourceStat resourceStat) {
+        long start = stateStartTime;
+        ClosedStateTotals totals = closedStateTotals;
+        if (totals == null || totals.start != start) {
+            totals = new ClosedStateTotals(start, start, 0, 0, resourceStat.getLateCompReqs(), resourceStat.getLateErrors());
+        } else if (totals.folded >= currentTimeWindow) {
+            return totals;
+        }
+        long reqs = totals.reqs, errors = totals.errors, w = totals.folded;
+        // usually only the last second is added
+        for (; w < currentTimeWindow; w += FlowStat.INTERVAL) {
+            TimeSlot timeSlot = resourceStat.peekTimeSlot(w);
+            if (timeSlot != null) {
+                reqs   += timeSlot.getCompReqs();
+                errors += timeSlot.getErrors();
+            }
+        }
+        resourceStat.setFoldedTimeSlots(start, w);
+        totals = new ClosedStateTotals(start, w, reqs, errors, totals.lateReqsBase, totals.lateErrorsBase);
+        closedStateTotals = totals;
+        return totals;
+    }
+
+    /**
+     * @return error ratio rounded half up to 2 decimal places
+     */
+    static float errorRatio(long errors, long reqs) {
+        return Math.round(errors * 100.0 / reqs) / 100f;
+    }
+
     private boolean permitCallInClosedState(long currentTimeWindow, FlowStat flowStat) {
 
-        long endTimeWindow = currentTimeWindow + 1000;
-        TimeWindowStat timeWindowStat = flowStat.getTimeWindowStat(resource, stateStartTime, endTimeWindow);
-        long reqCount = timeWindowStat.getCompReqs();
-        long errCount = timeWindowStat.getErrors();
+        // an idle resource leaves the correction of the flow stat, so the monitor window may be outdated
+        if (getStateDuration(currentTimeWindow) > monitorDuration) {
+            correctState(currentTimeWindow, flowStat);
+        }
+        ResourceStat resourceStat = flowStat.getResourceStat(resource);
+        ClosedStateTotals totals = getClosedStateTotals(currentTimeWindow, resourceStat);
+        long reqCount = totals.reqs   + resourceStat.getLateCompReqs() - totals.lateReqsBase;
+        long errCount = totals.errors + resourceStat.getLateErrors()   - totals.lateErrorsBase;
+        TimeSlot currentTimeSlot = resourceStat.peekTimeSlot(currentTimeWindow);
+        if (currentTimeSlot != null) {
+            reqCount += currentTimeSlot.getCompReqs();
+            errCount += currentTimeSlot.getErrors();
+        }
 
         if (breakStrategy == BreakStrategy.TOTAL_ERRORS && reqCount >= minRequests && errCount >= totalErrorThreshold) {
             LOGGER.debug("{} current time window {} request count {} >= min requests {} error count {} >= total error threshold {}, reject request",
                          resource, currentTimeWindow, reqCount, minRequests, errCount, totalErrorThreshold);
             transit(State.CLOSED, State.OPEN, currentTimeWindow, flowStat);
-            flowStat.getResourceStat(resource).incrCircuitBreakNum(currentTimeWindow);
+            resourceStat.incrCircuitBreakNum(currentTimeWindow);
             return false;
         }
-        if (breakStrategy == BreakStrategy.ERRORS_RATIO && reqCount >= minRequests) {
-            BigDecimal errors   = new BigDecimal(errCount);
-            BigDecimal requests = new BigDecimal(reqCount);
-            float p = errors.divide(requests, 2, RoundingMode.HALF_UP).floatValue();
+        if (breakStrategy == BreakStrategy.ERRORS_RATIO && reqCount >= minRequests && reqCount > 0) {
+            float p = errorRatio(errCount, reqCount);
             if (p - errorRatioThreshold >= 0) {
                 LOGGER.debug("{} current time window {} request count {} >= min requests {} error ratio {} >= error ratio threshold {}, reject request",
                              resource, currentTimeWindow, reqCount, minRequests, p, errorRatioThreshold);
                 transit(State.CLOSED, State.OPEN, currentTimeWindow, flowStat);
-                flowStat.getResourceStat(resource).incrCircuitBreakNum(currentTimeWindow);
+                resourceStat.incrCircuitBreakNum(currentTimeWindow);
                 return false;
             }
         }
 
-        LOGGER.debug("{} current time window {} in {} which start at {}, permit request", resource, currentTimeWindow, stateRef.get(), stateStartTime);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("{} current time window {} in {} which start at {}, permit request", resource, currentTimeWindow, stateRef.get(), stateStartTime);
+        }
 
         return true;
     }
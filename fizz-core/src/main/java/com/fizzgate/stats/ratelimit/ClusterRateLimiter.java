@@ -0,0 +1,276 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.stats.ratelimit;
+
+import com.fizzgate.config.AggregateRedisConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cluster wide QPS limiting. Every node reserves a batch of permits of the current second from redis,
+ * and spends them locally, so no redis round trip is made per request.
+ * <p>
+ * A new batch is reserved in background when the local permits drop below half of the lease,
+ * a node may overdraw at most {@code maxOverdraft} permits while the reservation is in flight,
+ * so the cluster wide error is bounded by nodes * maxOverdraft per second.
+ * When redis is slow or unavailable, {@link #isAvailable()} returns false for a while and
+ * the caller falls back to the local limit of {@link #localQps(long)}.
+ * <p>
+ * If the reply of a reservation times out after the script has run in redis, the permits granted are lost
+ * for the second, so the cluster may pass fewer requests than the limit while redis is slow.
+ */
+
+@Component
+public class ClusterRateLimiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterRateLimiter.class);
+
+    private static final String fizzRateLimitLease = "fizz_rate_limit_lease:";
+
+    private static final RedisScript<Long> RESERVE_SCRIPT = new DefaultRedisScript<>(
+            "local used = tonumber(redis.call('GET', KEYS[1]) or '0') " +
+            "local grant = tonumber(ARGV[1]) - used " +
+            "if grant <= 0 then return 0 end " +
+            "local want = tonumber(ARGV[2]) " +
+            "if grant > want then grant = want end " +
+            "redis.call('INCRBY', KEYS[1], grant) " +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[3]) " +
+            "return grant",
+            Long.class
+    );
+
+    private static final String KEY_TTL_MILLIS = "2000";
+
+    /**
+     * Leases of the resources without requests in the last minute are evicted
+     */
+    private static final long   EVICT_INTERVAL_MILLIS = 60 * 1000;
+
+    /**
+     * Permits of a resource in a second
+     */
+    private static class WindowLease {
+
+        final long          window;
+
+        final long          leaseSize;
+
+        final AtomicLong    available = new AtomicLong(0);
+
+        final AtomicLong    granted   = new AtomicLong(0);
+
+        final AtomicBoolean reserving = new AtomicBoolean(false);
+
+        volatile boolean    exhausted = false;
+
+        WindowLease(long window, long leaseSize) {
+            this.window    = window;
+            this.leaseSize = leaseSize;
+        }
+
+        long consumed() {
+            long a = available.get();
+            return granted.get() - (a > 0 ? a : 0);
+        }
+    }
+
+    @Resource(name = AggregateRedisConfig.AGGREGATE_REACTIVE_REDIS_TEMPLATE)
+    private ReactiveStringRedisTemplate rt;
+
+    @Value("${fizz.rate-limit.cluster.min-lease:10}")
+    private long   minLease;
+
+    @Value("${fizz.rate-limit.cluster.max-lease-ratio:0.1}")
+    private double maxLeaseRatio;
+
+    @Value("${fizz.rate-limit.cluster.max-overdraft:5}")
+    private long   maxOverdraft;
+
+    @Value("${fizz.rate-limit.cluster.redis-timeout-millis:50}")
+    private long   redisTimeoutMillis;
+
+    @Value("${fizz.rate-limit.cluster.fallback-millis:5000}")
+    private long   fallbackMillis;
+
+    @Value("${fizz.rate-limit.cluster.nodes:1}")
+    private int    nodes;
+
+    private volatile long fallbackUntil = 0;
+
+    private final AtomicLong lastEvictTime = new AtomicLong(0);
+
+    private final ConcurrentMap<String, AtomicReference<WindowLease>> leases = new ConcurrentHashMap<>();
+
+    /**
+     * @return false if redis is slow or unavailable recently, the local limit should be used instead
+     */
+    public boolean isAvailable() {
+        return fallbackUntil == 0 || System.currentTimeMillis() >= fallbackUntil;
+    }
+
+    /**
+     * @param qps cluster wide QPS limit
+     * @return QPS limit of this node when falling back to the local limit, the share of the configured nodes
+     */
+    public long localQps(long qps) {
+        if (qps <= 0 || nodes <= 1) {
+            return qps;
+        }
+        return Math.max((qps + nodes - 1) / nodes, 1);
+    }
+
+    /**
+     * Take a permit of the resource in the current second
+     *
+     * @param resource      resource ID
+     * @param qps           cluster wide QPS limit
+     * @param curTimeSlotId current time slot ID
+     * @return false if the cluster wide limit is reached
+     */
+    public boolean tryAcquire(String resource, long qps, long curTimeSlotId) {
+        if (qps <= 0) {
+            return false;
+        }
+        WindowLease wl = getWindowLease(resource, qps, curTimeSlotId);
+        for (;;) {
+            long n = wl.available.get();
+            if (n <= (wl.exhausted ? 0 : -maxOverdraft)) {
+                reserve(resource, qps, wl);
+                return false;
+            }
+            if (wl.available.compareAndSet(n, n - 1)) {
+                if (n - 1 < wl.leaseSize / 2) {
+                    reserve(resource, qps, wl);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back a permit taken by tryAcquire, used to roll back a request which is blocked by a subsequent resource,
+     * it should only be called if the permit is taken by tryAcquire rather than the local limit
+     */
+    public void release(String resource, long curTimeSlotId) {
+        AtomicReference<WindowLease> ref = leases.get(resource);
+        if (ref != null) {
+            WindowLease wl = ref.get();
+            if (wl != null && wl.window == curTimeSlotId) {
+                wl.available.incrementAndGet();
+            }
+        }
+    }
+
+    private WindowLease getWindowLease(String resource, long qps, long curTimeSlotId) {
+        AtomicReference<WindowLease> ref = leases.get(resource);
+        if (ref == null) {
+            ref = leases.computeIfAbsent(resource, r -> new AtomicReference<>());
+        }
+        for (;;) {
+            WindowLease wl = ref.get();
+            if (wl != null && wl.window >= curTimeSlotId) {
+                return wl;
+            }
+            WindowLease nwl = new WindowLease(curTimeSlotId, leaseSize(qps, wl == null ? 0 : wl.consumed()));
+            if (ref.compareAndSet(wl, nwl)) {
+                evictExpiredLeases(curTimeSlotId);
+                return nwl;
+            }
+        }
+    }
+
+    private void evictExpiredLeases(long curTimeSlotId) {
+        long last = lastEvictTime.get();
+        if (curTimeSlotId - last < EVICT_INTERVAL_MILLIS || !lastEvictTime.compareAndSet(last, curTimeSlotId)) {
+            return;
+        }
+        leases.forEach(
+                (resource, ref) -> {
+                    WindowLease wl = ref.get();
+                    if (wl == null || curTimeSlotId - wl.window >= EVICT_INTERVAL_MILLIS) {
+                        leases.remove(resource, ref);
+                    }
+                }
+        );
+    }
+
+    int getLeaseCount() {
+        return leases.size();
+    }
+
+    /**
+     * The lease adapts to the traffic of this node in the previous second, between minLease and qps * maxLeaseRatio
+     */
+    private long leaseSize(long qps, long prevConsumed) {
+        long max = Math.max(minLease, (long) (qps * maxLeaseRatio));
+        long size = prevConsumed / 4;
+        if (size < minLease) {
+            size = minLease;
+        } else if (size > max) {
+            size = max;
+        }
+        return size;
+    }
+
+    private void reserve(String resource, long qps, WindowLease wl) {
+        if (wl.exhausted || !wl.reserving.compareAndSet(false, true)) {
+            return;
+        }
+        String key = fizzRateLimitLease + resource + ':' + wl.window;
+        execute(key, qps, wl.leaseSize)
+          .timeout(Duration.ofMillis(redisTimeoutMillis))
+          .doFinally(s -> wl.reserving.set(false))
+          .subscribe(
+                  granted -> {
+                      wl.granted.addAndGet(granted);
+                      wl.available.addAndGet(granted);
+                      if (granted < wl.leaseSize) {
+                          wl.exhausted = true;
+                      }
+                  },
+                  t -> {
+                      fallbackUntil = System.currentTimeMillis() + fallbackMillis;
+                      LOGGER.warn("reserve {} permits of {} from redis error, fall back to local limit", wl.leaseSize, resource, t);
+                  }
+          );
+    }
+
+    /**
+     * @return permits granted by redis
+     */
+    Mono<Long> execute(String key, long qps, long leaseSize) {
+        return rt.execute(RESERVE_SCRIPT, Collections.singletonList(key), Arrays.asList(String.valueOf(qps), String.valueOf(leaseSize), KEY_TTL_MILLIS))
+                 .next();
+    }
+}
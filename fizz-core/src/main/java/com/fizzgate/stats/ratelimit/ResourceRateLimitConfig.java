@@ -19,6 +19,7 @@ package com.fizzgate.stats.ratelimit;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fizzgate.util.JacksonUtils;
+import com.fizzgate.util.ResourceKey;
 
 import static com.fizzgate.util.ResourceIdUtils.APP_DEFAULT;
 import static com.fizzgate.util.ResourceIdUtils.NODE;
@@ -43,6 +44,34 @@ public class ResourceRateLimitConfig {
         static final byte HOST            = 8;
     }
 
+    /**
+     * QPS limiting mode
+     */
+    public static interface Mode {
+        /**
+         * requests are counted in fixed 1-second time slots
+         */
+        static final byte FIXED_WINDOW    = 1;
+        /**
+         * tokens are refilled continuously and at most burst requests pass at once
+         */
+        static final byte TOKEN_BUCKET    = 2;
+    }
+
+    /**
+     * QPS limiting scope
+     */
+    public static interface Scope {
+        /**
+         * qps is the limit of each gateway node
+         */
+        static final byte NODE            = 1;
+        /**
+         * qps is the limit of the whole gateway cluster, see ClusterRateLimiter
+         */
+        static final byte CLUSTER         = 2;
+    }
+
     public  boolean isDeleted = false;
 
     public  int     id;
@@ -67,6 +96,15 @@ public class ResourceRateLimitConfig {
 
     public  long    concurrents = -1L;
 
+    public  byte    mode = Mode.FIXED_WINDOW;
+
+    /**
+     * Bucket capacity of TOKEN_BUCKET mode, qps is used if not positive
+     */
+    public  long    burst = -1L;
+
+    public  byte    scope = Scope.NODE;
+
     public  String  responseType;
 
     public  String  responseContent;
@@ -137,6 +175,16 @@ public class ResourceRateLimitConfig {
         return resourceId;
     }
 
+    private ResourceKey resourceKey = null;
+
+    @JsonIgnore
+    public ResourceKey getResourceKey() {
+        if (resourceKey == null) {
+            resourceKey = ResourceKey.of(app, ip, node, service, path);
+        }
+        return resourceKey;
+    }
+
     @Override
     public String toString() {
         return JacksonUtils.writeValueAsString(this);
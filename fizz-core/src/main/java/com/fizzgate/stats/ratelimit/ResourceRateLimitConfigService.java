@@ -27,6 +27,7 @@ import com.fizzgate.config.AggregateRedisConfig;
 import com.fizzgate.util.Consts;
 import com.fizzgate.util.JacksonUtils;
 import com.fizzgate.util.ReactorUtils;
+import com.fizzgate.util.ResourceKey;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -46,13 +47,55 @@ public class ResourceRateLimitConfigService {
 
     private static final Logger log                  = LoggerFactory.getLogger(ResourceRateLimitConfigService.class);
 
-    private static final String fizzRateLimit        = "fizz_rate_limit";
+    public  static final String fizzRateLimit        = "fizz_rate_limit";
 
     private static final String fizzRateLimitChannel = "fizz_rate_limit_channel";
 
-    private Map<String,  ResourceRateLimitConfig> resourceRateLimitConfigMap    = new HashMap<>(32);
+    private Map<ResourceKey, ResourceRateLimitConfig> resourceRateLimitConfigMap    = new HashMap<>(32);
 
-    private Map<Integer, ResourceRateLimitConfig> oldResourceRateLimitConfigMap = new HashMap<>(32);
+    private Map<Integer,     ResourceRateLimitConfig> oldResourceRateLimitConfigMap = new HashMap<>(32);
+
+    /**
+     * Increased whenever the rate limit configs change
+     */
+    private volatile long       version    = 0;
+
+    private volatile Dimensions dimensions = new Dimensions(false, Collections.emptySet(), Collections.emptySet(), Collections.emptyMap());
+
+    /**
+     * The apps, ips and paths of the rate limit configs, a request whose app, ip or path is not in them
+     * is limited by the same configs as the request without the app, ip or path
+     */
+    public static final class Dimensions {
+
+        private final boolean                  hasAppDefault;
+
+        private final Set<String>              apps;
+
+        private final Set<String>              ips;
+
+        private final Map<String, Set<String>> service2paths;
+
+        Dimensions(boolean hasAppDefault, Set<String> apps, Set<String> ips, Map<String, Set<String>> service2paths) {
+            this.hasAppDefault = hasAppDefault;
+            this.apps          = apps;
+            this.ips           = ips;
+            this.service2paths = service2paths;
+        }
+
+        public boolean hasApp(String app) {
+            return app != null && (hasAppDefault || apps.contains(app));
+        }
+
+        public boolean hasIp(String ip) {
+            return ip != null && ips.contains(ip);
+        }
+
+        public boolean hasPath(String service, String path) {
+            Set<String> paths = service2paths.get(service);
+            return paths != null && paths.contains(path);
+        }
+    }
 
     @Resource(name = AggregateRedisConfig.AGGREGATE_REACTIVE_REDIS_TEMPLATE)
     private ReactiveStringRedisTemplate rt;
@@ -67,7 +110,7 @@ public class ResourceRateLimitConfigService {
     }
 
     private void init(Supplier<Mono<Throwable>> doAfterLoadCache) throws Throwable {
-        Map<String, ResourceRateLimitConfig> resourceRateLimitConfigMapTmp = new HashMap<>(32);
+        Map<ResourceKey, ResourceRateLimitConfig> resourceRateLimitConfigMapTmp = new HashMap<>(32);
         Map<Integer, ResourceRateLimitConfig> oldResourceRateLimitConfigMapTmp = new HashMap<>(32);
         final Throwable[] throwable = new Throwable[1];
         Throwable error = Mono.just(Objects.requireNonNull(rt.opsForHash().entries(fizzRateLimit)
@@ -110,6 +153,28 @@ public class ResourceRateLimitConfigService {
         }
         resourceRateLimitConfigMap = resourceRateLimitConfigMapTmp;
         oldResourceRateLimitConfigMap = oldResourceRateLimitConfigMapTmp;
+        updateVersion(resourceRateLimitConfigMapTmp);
+    }
+
+    private void updateVersion(Map<ResourceKey, ResourceRateLimitConfig> resourceRateLimitConfigMap) {
+        boolean appDefault = false;
+        Set<String> apps = new HashSet<>(), ips = new HashSet<>();
+        Map<String, Set<String>> service2paths = new HashMap<>();
+        for (ResourceRateLimitConfig c : resourceRateLimitConfigMap.values()) {
+            if (c.type == ResourceRateLimitConfig.Type.APP_DEFAULT) {
+                appDefault = true;
+            } else if (c.app != null) {
+                apps.add(c.app);
+            }
+            if (c.ip != null) {
+                ips.add(c.ip);
+            }
+            if (c.service != null && c.path != null) {
+                service2paths.computeIfAbsent(c.service, s -> new HashSet<>()).add(c.path);
+            }
+        }
+        dimensions = new Dimensions(appDefault, apps, ips, service2paths);
+        version++;
     }
 
     private Mono<Throwable> lsnResourceRateLimitConfigChange() {
@@ -133,12 +198,13 @@ public class ResourceRateLimitConfigService {
                 ResourceRateLimitConfig rrlc = JacksonUtils.readValue(json, ResourceRateLimitConfig.class);
                 ResourceRateLimitConfig r = oldResourceRateLimitConfigMap.remove(rrlc.id);
                 if (!rrlc.isDeleted && r != null) {
-                    resourceRateLimitConfigMap.remove(r.getResourceId());
+                    resourceRateLimitConfigMap.remove(r.getResourceKey());
                 }
                 updateResourceRateLimitConfigMap(rrlc, resourceRateLimitConfigMap);
                 if (!rrlc.isDeleted) {
                     oldResourceRateLimitConfigMap.put(rrlc.id, rrlc);
                 }
+                updateVersion(resourceRateLimitConfigMap);
             } catch (Throwable t) {
                 log.info(json, t);
             }
@@ -159,13 +225,13 @@ public class ResourceRateLimitConfigService {
     }
 
     private void updateResourceRateLimitConfigMap(ResourceRateLimitConfig rrlc,
-                                                  Map<String, ResourceRateLimitConfig> resourceRateLimitConfigMap) {
+                                                  Map<ResourceKey, ResourceRateLimitConfig> resourceRateLimitConfigMap) {
         if (rrlc.isDeleted) {
-            ResourceRateLimitConfig removedRrlc = resourceRateLimitConfigMap.remove(rrlc.getResourceId());
+            ResourceRateLimitConfig removedRrlc = resourceRateLimitConfigMap.remove(rrlc.getResourceKey());
             log.info("remove " + removedRrlc);
         } else {
-            ResourceRateLimitConfig existRrlc = resourceRateLimitConfigMap.get(rrlc.getResourceId());
-            resourceRateLimitConfigMap.put(rrlc.getResourceId(), rrlc);
+            ResourceRateLimitConfig existRrlc = resourceRateLimitConfigMap.get(rrlc.getResourceKey());
+            resourceRateLimitConfigMap.put(rrlc.getResourceKey(), rrlc);
             if (existRrlc == null) {
                 log.info("add " + rrlc);
             } else {
@@ -179,13 +245,25 @@ public class ResourceRateLimitConfigService {
     }
 
     public ResourceRateLimitConfig getResourceRateLimitConfig(String resource) {
+        return resourceRateLimitConfigMap.get(ResourceKey.of(resource));
+    }
+
+    public ResourceRateLimitConfig getResourceRateLimitConfig(ResourceKey resource) {
         return resourceRateLimitConfigMap.get(resource);
     }
 
-    public Map<String, ResourceRateLimitConfig> getResourceRateLimitConfigMap() {
+    public Map<ResourceKey, ResourceRateLimitConfig> getResourceRateLimitConfigMap() {
         return resourceRateLimitConfigMap;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public Dimensions getDimensions() {
+        return dimensions;
+    }
+
     // _global, service, app, app+service, ip, ip+service
     // public void getParentsTo(String resource, List<String> parentList) {
     //     String app = null, ip = null, node = null, service = null, path = null;
@@ -274,7 +352,7 @@ public class ResourceRateLimitConfigService {
 
     private void checkRateLimitConfigAndAddTo(StringBuilder resourceStringBuilder, List<String> resourceList) {
         String r = resourceStringBuilder.toString();
-        ResourceRateLimitConfig c = resourceRateLimitConfigMap.get(r);
+        ResourceRateLimitConfig c = resourceRateLimitConfigMap.get(ResourceKey.of(r));
         if (c != null) {
             resourceList.add(r);
         }
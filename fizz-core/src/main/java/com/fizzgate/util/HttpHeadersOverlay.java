@@ -0,0 +1,219 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.util;
+
+import org.springframework.lang.Nullable;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+import org.springframework.util.MultiValueMap;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Headers made of base headers and the changes to them, the base headers are read but never copied or modified,
+ * a change of a header copies the values of the header only.
+ * <p>
+ * It is used to forward the request headers with the append headers,
+ * the base headers can be a view of the netty request headers, like the ones of the server request.
+ * The overlay is not thread safe.
+ */
+
+public class HttpHeadersOverlay extends AbstractMap<String, List<String>> implements MultiValueMap<String, String> {
+
+    private static final List<String>                 REMOVED   = Collections.emptyList();
+
+    private final MultiValueMap<String, String>       base;
+
+    /**
+     * header to values which replace the ones in base, or to {@link #REMOVED}
+     */
+    private final Map<String, List<String>>           overrides = new LinkedCaseInsensitiveMap<>(8, Locale.ENGLISH);
+
+    /**
+     * number of headers, counted on first use and then kept up to date by the changes, -1 if not counted yet
+     */
+    private int                                       size      = -1;
+
+    public HttpHeadersOverlay(MultiValueMap<String, String> base) {
+        this.base = base;
+    }
+
+    @Override
+    @Nullable
+    public List<String> get(Object key) {
+        List<String> vs = overrides.get(key);
+        if (vs == null) {
+            return base.get(key);
+        }
+        return vs == REMOVED ? null : vs;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    @Nullable
+    public String getFirst(String key) {
+        List<String> vs = get(key);
+        return vs == null || vs.isEmpty() ? null : vs.get(0);
+    }
+
+    private List<String> getForUpdate(String key) {
+        List<String> vs = overrides.get(key);
+        if (vs == null || vs == REMOVED) {
+            List<String> bvs = vs == null ? base.get(key) : null;
+            vs = bvs == null ? new ArrayList<>(1) : new ArrayList<>(bvs);
+            override(key, vs);
+        }
+        return vs;
+    }
+
+    private void override(String key, List<String> vs) {
+        if (size > -1) {
+            boolean present = get(key) != null;
+            if (present != (vs != REMOVED)) {
+                size += present ? -1 : 1;
+            }
+        }
+        overrides.put(key, vs);
+    }
+
+    @Override
+    public void add(String key, @Nullable String value) {
+        getForUpdate(key).add(value);
+    }
+
+    @Override
+    public void addAll(String key, List<? extends String> values) {
+        getForUpdate(key).addAll(values);
+    }
+
+    @Override
+    public void addAll(MultiValueMap<String, String> values) {
+        values.forEach(this::addAll);
+    }
+
+    @Override
+    public void set(String key, @Nullable String value) {
+        List<String> vs = new ArrayList<>(1);
+        vs.add(value);
+        override(key, vs);
+    }
+
+    @Override
+    public void setAll(Map<String, String> values) {
+        values.forEach(this::set);
+    }
+
+    @Override
+    public List<String> put(String key, List<String> value) {
+        List<String> prev = get(key);
+        override(key, value);
+        return prev;
+    }
+
+    @Override
+    public List<String> remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        List<String> prev = get(key);
+        if (prev != null) {
+            override((String) key, REMOVED);
+        }
+        return prev;
+    }
+
+    @Override
+    public void clear() {
+        base.keySet().forEach(k -> overrides.put(k, REMOVED));
+        overrides.replaceAll((k, vs) -> REMOVED);
+        size = 0;
+    }
+
+    /**
+     * The headers are counted once, the base headers are not changed after the overlay is created.
+     */
+    @Override
+    public int size() {
+        if (size < 0) {
+            int[] n = {0};
+            forEach((k, vs) -> n[0]++);
+            size = n[0];
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Map<String, String> toSingleValueMap() {
+        Map<String, String> result = new LinkedHashMap<>();
+        forEach(
+                (k, vs) -> {
+                    result.put(k, vs.isEmpty() ? null : vs.get(0));
+                }
+        );
+        return result;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super List<String>> action) {
+        base.forEach(
+                (k, vs) -> {
+                    if (!overrides.containsKey(k)) {
+                        action.accept(k, vs);
+                    }
+                }
+        );
+        overrides.forEach(
+                (k, vs) -> {
+                    if (vs != REMOVED) {
+                        action.accept(k, vs);
+                    }
+                }
+        );
+    }
+
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+        return new AbstractSet<Entry<String, List<String>>>() {
+
+            @Override
+            public Iterator<Entry<String, List<String>>> iterator() {
+                List<Entry<String, List<String>>> es = new ArrayList<>(base.size() + overrides.size());
+                HttpHeadersOverlay.this.forEach(
+                        (k, vs) -> {
+                            es.add(new SimpleImmutableEntry<>(k, vs));
+                        }
+                );
+                return es.iterator();
+            }
+
+            @Override
+            public int size() {
+                return HttpHeadersOverlay.this.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.util;
+
+import java.util.Arrays;
+
+/**
+ * Immutable compressed set of non negative ints, in the way of roaring bitmap:
+ * values are grouped by the high 16 bits, the low 16 bits of a group are kept in a sorted char array,
+ * or in a 8KB bitset if the group has more than {@link #ARRAY_CONTAINER_MAX_SIZE} values.
+ * <p>
+ * Changes return new bitmaps, so a bitmap can be read by any thread without synchronization.
+ */
+
+public final class IntBitmap {
+
+    public  static final IntBitmap EMPTY                    = new IntBitmap(new char[0], new Object[0], 0);
+
+    private static final int       ARRAY_CONTAINER_MAX_SIZE = 4096;
+
+    private static final int       BITSET_WORDS             = 1 << 10;
+
+    /** sorted high 16 bits of the groups */
+    private final char[]   keys;
+
+    /** char[] or long[] */
+    private final Object[] containers;
+
+    private final int      cardinality;
+
+    private IntBitmap(char[] keys, Object[] containers, int cardinality) {
+        this.keys        = keys;
+        this.containers  = containers;
+        this.cardinality = cardinality;
+    }
+
+    public static IntBitmap of(int... values) {
+        if (values.length == 0) {
+            return EMPTY;
+        }
+        int[] vs = values.clone();
+        Arrays.sort(vs);
+        int n = 0;
+        for (int i = 0; i < vs.length; i++) {
+            if (vs[i] < 0) {
+                throw new IllegalArgumentException("negative value " + vs[i]);
+            }
+            if (i == 0 || vs[i] != vs[i - 1]) {
+                vs[n++] = vs[i];
+            }
+        }
+        return ofSortedDistinct(vs, n);
+    }
+
+    private static IntBitmap ofSortedDistinct(int[] vs, int n) {
+        if (n == 0) {
+            return EMPTY;
+        }
+        int groups = 1;
+        for (int i = 1; i < n; i++) {
+            if ((vs[i] >>> 16) != (vs[i - 1] >>> 16)) {
+                groups++;
+            }
+        }
+        char[]   keys       = new char[groups];
+        Object[] containers = new Object[groups];
+        int g = 0, start = 0;
+        for (int i = 1; i <= n; i++) {
+            if (i == n || (vs[i] >>> 16) != (vs[start] >>> 16)) {
+                keys[g] = (char) (vs[start] >>> 16);
+                int size = i - start;
+                if (size > ARRAY_CONTAINER_MAX_SIZE) {
+                    long[] bitset = new long[BITSET_WORDS];
+                    for (int j = start; j < i; j++) {
+                        int low = vs[j] & 0xFFFF;
+                        bitset[low >>> 6] |= 1L << low;
+                    }
+                    containers[g] = bitset;
+                } else {
+                    char[] array = new char[size];
+                    for (int j = start; j < i; j++) {
+                        array[j - start] = (char) vs[j];
+                    }
+                    containers[g] = array;
+                }
+                g++;
+                start = i;
+            }
+        }
+        return new IntBitmap(keys, containers, n);
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int g = Arrays.binarySearch(keys, (char) (value >>> 16));
+        if (g < 0) {
+            return false;
+        }
+        Object c = containers[g];
+        char low = (char) value;
+        if (c instanceof long[]) {
+            return (((long[]) c)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) c, low) >= 0;
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * @return the values in ascending order
+     */
+    public int[] toArray() {
+        int[] result = new int[cardinality];
+        int n = 0;
+        for (int g = 0; g < keys.length; g++) {
+            int high = keys[g] << 16;
+            Object c = containers[g];
+            if (c instanceof long[]) {
+                long[] bitset = (long[]) c;
+                for (int w = 0; w < bitset.length; w++) {
+                    long word = bitset[w];
+                    while (word != 0) {
+                        result[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                for (char low : (char[]) c) {
+                    result[n++] = high | low;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds the bitmap from all its values and the added ones, so an add costs O(n log n) for a bitmap of n values,
+     * add values in batches instead of one by one, and build a bitmap with {@link #of(int...)} when the values are known at once.
+     */
+    public IntBitmap add(int... values) {
+        if (values.length == 0) {
+            return this;
+        }
+        int[] current = toArray();
+        int[] all = Arrays.copyOf(current, current.length + values.length);
+        System.arraycopy(values, 0, all, current.length, values.length);
+        return of(all);
+    }
+
+    public IntBitmap remove(int... values) {
+        if (values.length == 0 || cardinality == 0) {
+            return this;
+        }
+        IntBitmap removed = of(values);
+        int[] current = toArray();
+        int n = 0;
+        for (int v : current) {
+            if (!removed.contains(v)) {
+                current[n++] = v;
+            }
+        }
+        return n == current.length ? this : ofSortedDistinct(current, n);
+    }
+}
@@ -17,7 +17,6 @@
 package com.fizzgate.util;
 
 import com.fizzgate.util.Consts;
-import com.fizzgate.util.Utils;
 
 /**
  * Resource ID utility
@@ -39,6 +38,12 @@ public class ResourceIdUtils {
 
     public  static final String APP_DEFAULT_RESOURCE       = buildResourceId(APP_DEFAULT, null, null, null, null);
 
+    public  static final ResourceKey NODE_RESOURCE_KEY            = ResourceKey.of(NODE_RESOURCE);
+
+    public  static final ResourceKey SERVICE_DEFAULT_RESOURCE_KEY = ResourceKey.of(SERVICE_DEFAULT_RESOURCE);
+
+    public  static final ResourceKey APP_DEFAULT_RESOURCE_KEY     = ResourceKey.of(APP_DEFAULT_RESOURCE);
+
     public static String buildResourceId(String app, String ip, String node, String service, String path) {
         StringBuilder b = new StringBuilder(32);
         buildResourceIdTo(b, app, ip, node, service, path);
@@ -54,44 +59,22 @@ public class ResourceIdUtils {
     }
 
     public static String getApp(String resource) {
-        int i = resource.indexOf(Consts.S.SQUARE);
-        if (i == 0) {
-            return null;
-        } else {
-            return resource.substring(0, i);
-        }
+        return ResourceKey.of(resource).app;
     }
 
     public static String getIp(String resource) {
-        String extract = Utils.extract(resource, Consts.S.SQUARE, 1);
-        if (extract.equals(Consts.S.EMPTY)) {
-            return null;
-        }
-        return extract;
+        return ResourceKey.of(resource).ip;
     }
 
     public static String getNode(String resource) {
-        String extract = Utils.extract(resource, Consts.S.SQUARE, 2);
-        if (extract.equals(Consts.S.EMPTY)) {
-            return null;
-        }
-        return extract;
+        return ResourceKey.of(resource).node;
     }
 
     public static String getService(String resource) {
-        String extract = Utils.extract(resource, Consts.S.SQUARE, 3);
-        if (extract.equals(Consts.S.EMPTY)) {
-            return null;
-        }
-        return extract;
+        return ResourceKey.of(resource).service;
     }
 
     public static String getPath(String resource) {
-        int i = resource.lastIndexOf(Consts.S.SQUARE);
-        if (i == resource.length() - 1) {
-            return null;
-        } else {
-            return resource.substring(i);
-        }
+        return ResourceKey.of(resource).path;
     }
 }
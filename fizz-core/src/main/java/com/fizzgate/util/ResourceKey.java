@@ -0,0 +1,171 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.fizzgate.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.Objects;
+
+/**
+ * Immutable resource identity with typed fields, replaces the app^ip^node^service^path
+ * string on the hot path. Keys are interned, so the fields of a string resource id
+ * are parsed only once, and the hash is computed in advance. The string form is built
+ * lazily, only for reporting.
+ * <p>
+ * The intern tables are bounded, the least used keys are evicted beyond the bound, so a
+ * high cardinality dimension such as the client ip does not evict the hot keys.
+ * <p>
+ * A resource id which is not in the app^ip^node^service^path form is kept as an opaque key
+ * whose fields are all null.
+ */
+
+public final class ResourceKey {
+
+    private static final int                                  MAX_INTERNED_KEYS = 65536;
+
+    private static final Cache<ResourceKey, ResourceKey> keys = Caffeine.newBuilder().initialCapacity(256).maximumSize(MAX_INTERNED_KEYS).build();
+
+    private static final Cache<String, ResourceKey>      ids  = Caffeine.newBuilder().initialCapacity(256).maximumSize(MAX_INTERNED_KEYS).build();
+
+    public  final String app;
+
+    public  final String ip;
+
+    public  final String node;
+
+    public  final String service;
+
+    public  final String path;
+
+    /**
+     * Not null only if the key is opaque
+     */
+    private final String opaque;
+
+    private final int    hash;
+
+    private       String string;
+
+    private ResourceKey(String app, String ip, String node, String service, String path, String opaque) {
+        this.app     = app;
+        this.ip      = ip;
+        this.node    = node;
+        this.service = service;
+        this.path    = path;
+        this.opaque  = opaque;
+        int h = Objects.hashCode(app);
+        h = 31 * h + Objects.hashCode(ip);
+        h = 31 * h + Objects.hashCode(node);
+        h = 31 * h + Objects.hashCode(service);
+        h = 31 * h + Objects.hashCode(path);
+        h = 31 * h + Objects.hashCode(opaque);
+        hash = h;
+        string = opaque;
+    }
+
+    public static ResourceKey of(String app, String ip, String node, String service, String path) {
+        return intern(new ResourceKey(emptyToNull(app), emptyToNull(ip), emptyToNull(node), emptyToNull(service), emptyToNull(path), null));
+    }
+
+    /**
+     * @param resourceId string form of resource, such as the one built by {@link ResourceIdUtils#buildResourceId}
+     */
+    public static ResourceKey of(String resourceId) {
+        return ids.get(resourceId, ResourceKey::parse);
+    }
+
+    private static ResourceKey parse(String resourceId) {
+        int i1 = resourceId.indexOf(Consts.S.SQUARE);
+        int i2 = i1 < 0 ? -1 : resourceId.indexOf(Consts.S.SQUARE, i1 + 1);
+        int i3 = i2 < 0 ? -1 : resourceId.indexOf(Consts.S.SQUARE, i2 + 1);
+        int i4 = i3 < 0 ? -1 : resourceId.indexOf(Consts.S.SQUARE, i3 + 1);
+        if (i4 < 0) {
+            return intern(new ResourceKey(null, null, null, null, null, resourceId));
+        }
+        ResourceKey key = intern(new ResourceKey(
+                                         substring(resourceId, 0,      i1),
+                                         substring(resourceId, i1 + 1, i2),
+                                         substring(resourceId, i2 + 1, i3),
+                                         substring(resourceId, i3 + 1, i4),
+                                         substring(resourceId, i4 + 1, resourceId.length()),
+                                         null
+                                 ));
+        if (key.string == null) {
+            key.string = resourceId;
+        }
+        return key;
+    }
+
+    private static ResourceKey intern(ResourceKey key) {
+        return keys.get(key, k -> k);
+    }
+
+    private static String substring(String s, int beginIndex, int endIndex) {
+        if (beginIndex == endIndex) {
+            return null;
+        }
+        return s.substring(beginIndex, endIndex);
+    }
+
+    private static String emptyToNull(String s) {
+        if (s == null || s.isEmpty()) {
+            return null;
+        }
+        return s;
+    }
+
+    public boolean isOpaque() {
+        return opaque != null;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ResourceKey)) {
+            return false;
+        }
+        ResourceKey that = (ResourceKey) obj;
+        return hash == that.hash
+                && Objects.equals(app,     that.app)
+                && Objects.equals(ip,      that.ip)
+                && Objects.equals(node,    that.node)
+                && Objects.equals(service, that.service)
+                && Objects.equals(path,    that.path)
+                && Objects.equals(opaque,  that.opaque);
+    }
+
+    /**
+     * @return the app^ip^node^service^path string form
+     */
+    @Override
+    public String toString() {
+        String s = string;
+        if (s == null) {
+            s = ResourceIdUtils.buildResourceId(app, ip, node, service, path);
+            string = s;
+        }
+        return s;
+    }
+}
@@ -533,29 +533,15 @@ public abstract class WebUtils {
         return (Map<String, String>) exchange.getAttribute(APPEND_HEADERS);
     }
 
+    /**
+     * @return the request headers overlaid with the append headers, the request headers are not copied,
+     * and changes to the result don't go to the request headers
+     */
     public static HttpHeaders mergeAppendHeaders(ServerWebExchange exchange) {
         ServerHttpRequest req = exchange.getRequest();
         Map<String, String> appendHeaders = getAppendHeaders(exchange);
-        /* if (appendHeaders.isEmpty()) {
-            return req.getHeaders();
-        } */
-        HttpHeaders hdrs = new HttpHeaders();
-        req.getHeaders().forEach(
-                (h, vs) -> {
-                    hdrs.addAll(h, vs);
-                }
-        );
-        appendHeaders.forEach(
-                (h, v) -> {
-                    List<String> vs = hdrs.get(h);
-                    if (vs != null && !vs.isEmpty()) {
-                        vs.clear();
-                        vs.add(v);
-                    } else {
-                        hdrs.add(h, v);
-                    }
-                }
-        );
+        HttpHeaders hdrs = new HttpHeaders(new HttpHeadersOverlay(req.getHeaders()));
+        appendHeaders.forEach(hdrs::set);
         return hdrs;
     }
 
@@ -0,0 +1,114 @@
+/*
+ *  Copyright (C) 2021 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.config;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fizzgate.stats.ResourceTimeWindowStat;
+import com.fizzgate.stats.TimeWindowStat;
+import com.fizzgate.stats.ratelimit.ResourceRateLimitConfigService;
+import com.fizzgate.util.JacksonUtils;
+import com.fizzgate.util.ReflectionUtils;
+import com.fizzgate.util.ResourceKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlowStatSchedConfigTests {
+
+    private FlowStatSchedConfig flowStatSchedConfig;
+
+    @BeforeEach
+    void beforeEach() {
+        flowStatSchedConfig = new FlowStatSchedConfig();
+        ReflectionUtils.set(flowStatSchedConfig, "resourceRateLimitConfigService", new ResourceRateLimitConfigService());
+    }
+
+    private static TimeWindowStat window(long start, long reqs) {
+        TimeWindowStat w = new TimeWindowStat();
+        w.setStartTime(start);
+        w.setTotal(reqs);
+        w.setCompReqs(reqs);
+        w.setPeakConcurrentReqeusts(reqs);
+        w.setTotalBlockRequests(0L);
+        return w;
+    }
+
+    /**
+     * 5 services with 2 windows each, the first window of the odd services is idle
+     */
+    private static List<ResourceTimeWindowStat> stats() {
+        List<ResourceTimeWindowStat> stats = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ResourceTimeWindowStat rtws = new ResourceTimeWindowStat(ResourceKey.of(null, null, null, "service" + i, null));
+            rtws.getWindows().add(window(1000, i % 2 == 0 ? 10 : 0));
+            rtws.getWindows().add(window(2000, 20));
+            stats.add(rtws);
+        }
+        return stats;
+    }
+
+    @Test
+    void jsonTest() {
+        List<String> msgs = flowStatSchedConfig.toMsgs(stats(), false, 1, false);
+        assertEquals(10, msgs.size());
+        Map<String, Object> stat = JacksonUtils.readValue(msgs.get(0), new TypeReference<Map<String, Object>>() {});
+        assertEquals("service0", stat.get("service"));
+        assertEquals(1000,       ((Number) stat.get("start")).intValue());
+        assertEquals(10,         ((Number) stat.get("reqs")).intValue());
+
+        msgs = flowStatSchedConfig.toMsgs(stats(), false, 4, false);
+        assertEquals(3, msgs.size());
+        List<Map<String, Object>> batch = JacksonUtils.readValue(msgs.get(2), new TypeReference<List<Map<String, Object>>>() {});
+        assertEquals(2, batch.size());
+        assertEquals("service4", batch.get(1).get("service"));
+        assertEquals(2000,       ((Number) batch.get(1).get("start")).intValue());
+    }
+
+    @Test
+    void compactTest() {
+        List<String> msgs = flowStatSchedConfig.toMsgs(stats(), true, 100, false);
+        assertEquals(1, msgs.size());
+        Map<String, Object> msg = JacksonUtils.readValue(msgs.get(0), new TypeReference<Map<String, Object>>() {});
+        List<String>       fields = (List<String>)       msg.get("fields");
+        List<List<Object>> rows   = (List<List<Object>>) msg.get("rows");
+        assertEquals(10, rows.size());
+        for (List<Object> row : rows) {
+            assertEquals(fields.size(), row.size());
+        }
+        List<Object> row = rows.get(3);
+        assertEquals("service1", row.get(fields.indexOf("service")));
+        assertEquals(20,         ((Number) row.get(fields.indexOf("reqs"))).intValue());
+        assertNull(row.get(fields.indexOf("app")));
+    }
+
+    @Test
+    void skipIdleTest() {
+        List<String> msgs = flowStatSchedConfig.toMsgs(stats(), false, 1, true);
+        assertEquals(8, msgs.size());
+        assertEquals(2, (int) ReflectionUtils.get(flowStatSchedConfig, "skips"));
+
+        msgs = flowStatSchedConfig.toMsgs(stats(), false, 1, false);
+        assertEquals(10, msgs.size());
+        assertEquals(0, (int) ReflectionUtils.get(flowStatSchedConfig, "skips"));
+    }
+}
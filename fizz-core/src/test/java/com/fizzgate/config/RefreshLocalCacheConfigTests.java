@@ -0,0 +1,132 @@
+/*
+ *  Copyright (C) 2021 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.config;
+
+import com.fizzgate.util.ReflectionUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RefreshLocalCacheConfigTests {
+
+    /**
+     * Returns the fingerprint set by the test instead of reading redis
+     */
+    private static class TestRefreshLocalCacheConfig extends RefreshLocalCacheConfig {
+
+        String  fingerprint;
+
+        boolean checksum;
+
+        @Override
+        String fingerprint(String domain, boolean checksum, String... hashKeys) {
+            this.checksum = checksum;
+            return fingerprint;
+        }
+    }
+
+    private TestRefreshLocalCacheConfig config;
+
+    private RefreshLocalCacheConfigProperties properties;
+
+    private int refreshes;
+
+    @BeforeEach
+    void beforeEach() {
+        properties = new RefreshLocalCacheConfigProperties();
+        properties.setSkipUnchangedEnabled(true);
+        config = new TestRefreshLocalCacheConfig();
+        ReflectionUtils.set(config, "refreshLocalCacheConfigProperties", properties);
+        refreshes = 0;
+    }
+
+    private void refresh() {
+        config.refresh("app auth", () -> refreshes++, true, "fizz_app");
+    }
+
+    private void refreshWithoutChecksum() {
+        config.refresh("api config to apps", () -> refreshes++, false, "fizz_api_config_app_set_size");
+    }
+
+    private void failingRefresh() {
+        config.refresh("app auth", () -> { refreshes++; throw new IllegalStateException("redis down"); }, true, "fizz_app");
+    }
+
+    @Test
+    void skipUnchangedTest() {
+        config.fingerprint = "v1,";
+        refresh();
+        refresh();
+        assertEquals(1, refreshes);
+
+        config.fingerprint = "v2,";
+        refresh();
+        refresh();
+        assertEquals(2, refreshes);
+    }
+
+    @Test
+    void unknownFingerprintTest() {
+        config.fingerprint = null;
+        refresh();
+        refresh();
+        assertEquals(2, refreshes);
+
+        // the fingerprint of a refresh without fingerprint is not kept
+        config.fingerprint = "v1,";
+        refresh();
+        config.fingerprint = null;
+        refresh();
+        config.fingerprint = "v1,";
+        refresh();
+        assertEquals(5, refreshes);
+    }
+
+    @Test
+    void failedRefreshTest() {
+        config.fingerprint = "v1,";
+        failingRefresh();
+        // the hashes are unchanged, but the failed refresh is retried, and the one after the retry is skipped
+        refresh();
+        refresh();
+        assertEquals(2, refreshes);
+    }
+
+    @Test
+    void skipUnchangedDisabledTest() {
+        properties.setSkipUnchangedEnabled(false);
+        config.fingerprint = "v1,";
+        refresh();
+        refresh();
+        assertEquals(2, refreshes);
+    }
+
+    @Test
+    void checksumTest() {
+        // the hashes are not checksummed in redis by default
+        refresh();
+        assertFalse(config.checksum);
+
+        properties.setChecksumEnabled(true);
+        refresh();
+        assertTrue(config.checksum);
+        refreshWithoutChecksum();
+        assertFalse(config.checksum);
+    }
+}
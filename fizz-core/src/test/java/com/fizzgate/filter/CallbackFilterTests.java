@@ -0,0 +1,177 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.filter;
+
+import com.fizzgate.plugin.auth.ApiConfig;
+import com.fizzgate.plugin.auth.AuthPluginFilter;
+import com.fizzgate.proxy.Route;
+import com.fizzgate.spring.http.server.reactive.ext.FizzServerHttpRequestDecorator;
+import com.fizzgate.util.NettyDataBufferUtils;
+import com.fizzgate.util.ReflectionUtils;
+import com.fizzgate.util.Result;
+import com.fizzgate.util.WebUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CallbackFilterTests {
+
+    /**
+     * Reads the request body in doFilter instead of routing the request
+     */
+    private static class TestCallbackFilter extends CallbackFilter {
+
+        Function<FizzServerHttpRequestDecorator, Mono<Void>> next;
+
+        TestCallbackFilter(Function<FizzServerHttpRequestDecorator, Mono<Void>> next) {
+            this.next = next;
+            ReflectionUtils.set(this, "zeroCopyBody", true);
+        }
+
+        @Override
+        public Mono<Void> doFilter(ServerWebExchange exchange, WebFilterChain chain) {
+            return next.apply((FizzServerHttpRequestDecorator) exchange.getRequest());
+        }
+    }
+
+    private static ByteBuf pooledBody(String body) {
+        ByteBuf b = PooledByteBufAllocator.DEFAULT.buffer();
+        b.writeCharSequence(body, StandardCharsets.UTF_8);
+        return b;
+    }
+
+    /**
+     * An exchange passed the auth filter without api config, so the callback filter joins its body
+     */
+    private static ServerWebExchange exchange(ByteBuf body) {
+        return exchange(body, null, null);
+    }
+
+    private static ServerWebExchange exchange(ByteBuf body, ApiConfig ac, Route route) {
+        DataBuffer b = NettyDataBufferUtils.from(body);
+        ServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/x").body(Flux.just(b)));
+        Map<String, Object> authData = new HashMap<>();
+        if (ac != null) {
+            authData.put(AuthPluginFilter.RESULT, Result.succ(ac));
+        }
+        Map<String, FilterResult> fc = new HashMap<>();
+        fc.put(AuthPluginFilter.AUTH_PLUGIN_FILTER, FilterResult.SUCCESS_WITH(AuthPluginFilter.AUTH_PLUGIN_FILTER, authData));
+        exchange.getAttributes().put(WebUtils.FILTER_CONTEXT, fc);
+        if (route != null) {
+            exchange.getAttributes().put(WebUtils.ROUTE, route);
+        }
+        return exchange;
+    }
+
+    private static ApiConfig apiConfig(byte type) {
+        ApiConfig ac = new ApiConfig();
+        ac.type = type;
+        return ac;
+    }
+
+    /**
+     * Joins the body, which is read by doFilter then
+     */
+    private static void assertBodyJoined(ApiConfig ac, Route route) {
+        ByteBuf body = pooledBody("abc");
+        TestCallbackFilter filter = new TestCallbackFilter(CallbackFilterTests::read);
+        filter.filter(exchange(body, ac, route), e -> Mono.error(new IllegalStateException("body not joined"))).block();
+        assertEquals(0, body.refCnt());
+    }
+
+    private static Mono<Void> read(FizzServerHttpRequestDecorator request) {
+        return request.getBody().single()
+                      .doOnNext(
+                              b -> {
+                                  assertEquals("abc", b.toString(StandardCharsets.UTF_8));
+                                  NettyDataBufferUtils.releaseBody(b);
+                              }
+                      )
+                      .then();
+    }
+
+    @Test
+    void releaseTest() {
+        ByteBuf body = pooledBody("abc");
+        // the body is read by the first try and by a retry
+        TestCallbackFilter filter = new TestCallbackFilter(
+                request -> read(request).then(read(request)).doOnSuccess(v -> assertEquals(1, body.refCnt()))
+        );
+        filter.filter(exchange(body), e -> Mono.empty()).block();
+        assertEquals(0, body.refCnt());
+    }
+
+    @Test
+    void releaseOnErrorTest() {
+        ByteBuf body = pooledBody("abc");
+        TestCallbackFilter filter = new TestCallbackFilter(
+                request -> read(request).then(Mono.error(new IllegalStateException("backend down")))
+        );
+        assertThrows(IllegalStateException.class, () -> filter.filter(exchange(body), e -> Mono.empty()).block());
+        assertEquals(0, body.refCnt());
+    }
+
+    @Test
+    void streamBodyTest() {
+        ByteBuf body = pooledBody("abc");
+        ServerWebExchange exchange = exchange(body, apiConfig(ApiConfig.Type.SERVICE_DISCOVERY), new Route().retryCount(0));
+        ServerHttpRequest original = exchange.getRequest();
+        TestCallbackFilter filter = new TestCallbackFilter(request -> Mono.error(new IllegalStateException("body joined")));
+        filter.filter(
+                exchange,
+                e -> {
+                    assertSame(original, e.getRequest());
+                    return DataBufferUtils.join(e.getRequest().getBody())
+                                          .doOnNext(
+                                                  b -> {
+                                                      assertEquals("abc", b.toString(StandardCharsets.UTF_8));
+                                                      DataBufferUtils.release(b);
+                                                  }
+                                          )
+                                          .then();
+                }
+        ).block();
+        assertEquals(0, body.refCnt());
+    }
+
+    @Test
+    void callbackBodyTest() {
+        assertBodyJoined(apiConfig(ApiConfig.Type.CALLBACK), null);
+    }
+
+    @Test
+    void retryBodyTest() {
+        assertBodyJoined(apiConfig(ApiConfig.Type.SERVICE_DISCOVERY), new Route().retryCount(1));
+    }
+}
@@ -13,13 +13,17 @@ import com.fizzgate.controller.FlowControlController;
 import com.fizzgate.filter.FlowControlFilter;
 import com.fizzgate.filter.FlowControlFilterProperties;
 import com.fizzgate.stats.FlowStat;
+import com.fizzgate.stats.ResourceConfig;
 import com.fizzgate.stats.ResourceTimeWindowStat;
 import com.fizzgate.stats.TimeWindowStat;
+import com.fizzgate.stats.circuitbreaker.CircuitBreakManager;
 import com.fizzgate.stats.ratelimit.ResourceRateLimitConfig;
 import com.fizzgate.stats.ratelimit.ResourceRateLimitConfigService;
 import com.fizzgate.util.JacksonUtils;
 import com.fizzgate.util.ReflectionUtils;
 import com.fizzgate.util.ResourceIdUtils;
+import com.fizzgate.util.ResourceKey;
+import com.github.benmanes.caffeine.cache.Cache;
 
 import reactor.core.publisher.Mono;
 
@@ -28,6 +32,9 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * @author hongqiaowei
@@ -54,6 +61,68 @@ public class FlowControlFilterTests {
         Thread.sleep(3000);
     }
 
+    private static Object plan(FlowControlFilter filter, String app, String ip, String service, String path) {
+        return ReflectionUtils.invokeMethod("getResourceChainPlan", filter, new Class[]{String.class, String.class, String.class, String.class, String.class},
+                                            new Object[]{app, ip, null, service, path});
+    }
+
+    private static void publish(ResourceRateLimitConfigService resourceRateLimitConfigService, String... configs) {
+        Map<ResourceKey, ResourceRateLimitConfig> map = resourceRateLimitConfigService.getResourceRateLimitConfigMap();
+        for (String json : configs) {
+            ResourceRateLimitConfig config = JacksonUtils.readValue(json, ResourceRateLimitConfig.class);
+            map.put(config.getResourceKey(), config);
+        }
+        ReflectionUtils.invokeMethod("updateVersion", resourceRateLimitConfigService, new Class[]{Map.class}, new Object[]{map});
+    }
+
+    @Test
+    void resourceChainPlanCacheTest() {
+        FlowControlFilter filter = new FlowControlFilter();
+        FlowControlFilterProperties flowControlFilterProperties = new FlowControlFilterProperties();
+        ReflectionUtils.set(flowControlFilterProperties, "resourceChainPlanCacheSize", 100);
+        ReflectionUtils.set(filter, "flowControlFilterProperties", flowControlFilterProperties);
+        ReflectionUtils.set(filter, "circuitBreakManager", new CircuitBreakManager());
+        ResourceRateLimitConfigService resourceRateLimitConfigService = new ResourceRateLimitConfigService();
+        ReflectionUtils.set(filter, "resourceRateLimitConfigService", resourceRateLimitConfigService);
+        publish(resourceRateLimitConfigService,
+                "{\"qps\":10,\"enable\":1,\"id\":1,\"isDeleted\":0,\"service\":\"xservice\",\"path\":\"/ypath\",\"type\":4}",
+                "{\"qps\":10,\"enable\":1,\"id\":2,\"isDeleted\":0,\"ip\":\"1.1.1.1\",\"type\":7}");
+
+        // the paths, apps and ips without configs share a plan
+        Object plan = plan(filter, "app1", "2.2.2.2", "xservice", "/a");
+        assertSame(plan, plan(filter, "app2", "3.3.3.3", "xservice", "/b"));
+        assertSame(plan, plan(filter, null, null, "xservice", "/c"));
+        assertNotSame(plan, plan(filter, null, null, "zservice", "/a"));
+
+        Object pathPlan = plan(filter, "app1", "2.2.2.2", "xservice", "/ypath");
+        assertNotSame(plan, pathPlan);
+        assertSame(pathPlan, plan(filter, "app2", "3.3.3.3", "xservice", "/ypath"));
+        List<ResourceConfig> resourceConfigs = (List<ResourceConfig>) ReflectionUtils.get(pathPlan, "resourceConfigs");
+        assertEquals(ResourceIdUtils.buildResourceId(null, null, null, "xservice", "/ypath"), resourceConfigs.get(resourceConfigs.size() - 1).getResourceId());
+
+        Object ipPlan = plan(filter, "app1", "1.1.1.1", "xservice", "/a");
+        assertNotSame(plan, ipPlan);
+        resourceConfigs = (List<ResourceConfig>) ReflectionUtils.get(ipPlan, "resourceConfigs");
+        assertEquals(ResourceIdUtils.buildResourceId(null, "1.1.1.1", null, null, null), resourceConfigs.get(resourceConfigs.size() - 1).getResourceId());
+
+        // apps are distinguished once there is an app default config
+        publish(resourceRateLimitConfigService, "{\"qps\":10,\"enable\":1,\"id\":3,\"isDeleted\":0,\"type\":5}");
+        Object appPlan = plan(filter, "app1", "2.2.2.2", "xservice", "/a");
+        assertNotSame(plan, appPlan);
+        assertNotSame(appPlan, plan(filter, "app2", "2.2.2.2", "xservice", "/a"));
+        assertSame(appPlan, plan(filter, "app1", "3.3.3.3", "xservice", "/b"));
+
+        // the plans beyond the cache size are evicted, the cache is not rebuilt
+        for (int i = 0; i < 1000; i++) {
+            plan(filter, "app" + i, null, "xservice", "/a");
+        }
+        Object cache = ReflectionUtils.get(filter, "resourceChainPlanCache");
+        Cache<?, ?> plans = (Cache<?, ?>) ReflectionUtils.get(cache, "plans");
+        plans.cleanUp();
+        assertTrue(plans.estimatedSize() <= 100);
+        assertSame(cache, ReflectionUtils.get(filter, "resourceChainPlanCache"));
+    }
+
     // @Test
     void flowControlFilterTest() throws NoSuchFieldException, InterruptedException {
 
@@ -66,13 +135,13 @@ public class FlowControlFilterTests {
         ReflectionUtils.set(filter, "flowStat", flowStat);
 
         ResourceRateLimitConfigService resourceRateLimitConfigService = new ResourceRateLimitConfigService();
-        Map<String, ResourceRateLimitConfig> map = resourceRateLimitConfigService.getResourceRateLimitConfigMap();
+        Map<ResourceKey, ResourceRateLimitConfig> map = resourceRateLimitConfigService.getResourceRateLimitConfigMap();
 
         ResourceRateLimitConfig config = JacksonUtils.readValue("{\"concurrents\":66,\"enable\":1,\"id\":1,\"isDeleted\":0,\"resource\":\"_global\",\"type\":1}", ResourceRateLimitConfig.class);
-        map.put(ResourceIdUtils.NODE_RESOURCE, config);
+        map.put(ResourceIdUtils.NODE_RESOURCE_KEY, config);
 
         config = JacksonUtils.readValue("{\"concurrents\":33,\"enable\":1,\"id\":2,\"isDeleted\":0, \"service\":\"xservice\", \"path\":\"/ypath\", \"type\":4}", ResourceRateLimitConfig.class);
-        map.put(config.getResourceId(), config);
+        map.put(config.getResourceKey(), config);
 
         ReflectionUtils.set(filter, "resourceRateLimitConfigService", resourceRateLimitConfigService);
 
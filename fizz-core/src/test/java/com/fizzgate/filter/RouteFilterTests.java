@@ -0,0 +1,86 @@
+package com.fizzgate.filter;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+import com.fizzgate.proxy.Route;
+import com.fizzgate.spring.http.server.reactive.ext.FizzServerHttpRequestDecorator;
+import com.fizzgate.util.ReflectionUtils;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RouteFilterTests {
+
+    private final RouteFilter routeFilter = new RouteFilter();
+
+    private static ServerHttpRequest request(String uri) {
+        return MockServerHttpRequest.method(HttpMethod.GET, URI.create(uri)).build();
+    }
+
+    private String getBackendRawPathQuery(ServerHttpRequest request, Route route) {
+        return (String) ReflectionUtils.invokeMethod("getBackendRawPathQuery", routeFilter, new Class[]{ServerHttpRequest.class, Route.class}, new Object[]{request, route});
+    }
+
+    private Map.Entry<String, List<String>> getBackendPathQueryTemplate(ServerHttpRequest request, Route route) {
+        Map<String, List<String>> pathQueryTemplate = (Map<String, List<String>>) ReflectionUtils.invokeMethod("getBackendPathQueryTemplate", routeFilter,
+                                                                                                              new Class[]{ServerHttpRequest.class, Route.class}, new Object[]{request, route});
+        return pathQueryTemplate.entrySet().iterator().next();
+    }
+
+    @Test
+    void rawQueryTest() {
+        Route route = new Route().backendPath("/ypath/x");
+
+        // the raw query is forwarded as is, '+' and the encoded chars are not decoded and encoded again
+        ServerHttpRequest request = request("http://127.0.0.1:8600/proxy/xservice/x?a=1+2&b=%E4%B8%AD&c");
+        assertEquals("/ypath/x?a=1+2&b=%E4%B8%AD&c", getBackendRawPathQuery(request, route));
+
+        assertEquals("/ypath/x", getBackendRawPathQuery(request("http://127.0.0.1:8600/proxy/xservice/x"), route));
+    }
+
+    @Test
+    void routeQueryTest() {
+        Route route = new Route().backendPath("/ypath/x").query("k=v");
+        ServerHttpRequest request = request("http://127.0.0.1:8600/proxy/xservice/x?a=1");
+        assertNull(getBackendRawPathQuery(request, route));
+
+        Map.Entry<String, List<String>> pathQueryTemplate = getBackendPathQueryTemplate(request, route);
+        assertEquals("/ypath/x?k=v", pathQueryTemplate.getKey());
+        assertTrue(pathQueryTemplate.getValue().isEmpty());
+    }
+
+    @Test
+    void parsedQueryParamsTest() {
+        Route route = new Route().backendPath("/ypath/x");
+        FizzServerHttpRequestDecorator request = new FizzServerHttpRequestDecorator(request("http://127.0.0.1:8600/proxy/xservice/x?a=1&b=2"));
+        assertEquals("/ypath/x?a=1&b=2", getBackendRawPathQuery(request, route));
+
+        // the query params may be modified by a plugin once parsed
+        request.getQueryParams().set("a", "3");
+        assertNull(getBackendRawPathQuery(request, route));
+
+        Map.Entry<String, List<String>> pathQueryTemplate = getBackendPathQueryTemplate(request, route);
+        assertTrue(pathQueryTemplate.getKey().startsWith("/ypath/x?"));
+        assertEquals(Arrays.asList("3", "2"), pathQueryTemplate.getValue());
+    }
+
+    @Test
+    void pathToBeEncodedTest() {
+        ServerHttpRequest request = request("http://127.0.0.1:8600/proxy/xservice/x?a=1");
+        assertNull(getBackendRawPathQuery(request, new Route().backendPath("/ypath/a b")));
+        assertNull(getBackendRawPathQuery(request, new Route().backendPath("/ypath/中")));
+        assertNull(getBackendRawPathQuery(request, new Route().backendPath("/ypath/a%20b")));
+        assertEquals("/ypath/a-b_c.d~e@f:g/h?a=1", getBackendRawPathQuery(request, new Route().backendPath("/ypath/a-b_c.d~e@f:g/h")));
+
+        Map.Entry<String, List<String>> pathQueryTemplate = getBackendPathQueryTemplate(request, new Route().backendPath("/ypath/a b"));
+        assertTrue(pathQueryTemplate.getKey().startsWith("/ypath/a b?"));
+        assertEquals(Arrays.asList("1"), pathQueryTemplate.getValue());
+    }
+}
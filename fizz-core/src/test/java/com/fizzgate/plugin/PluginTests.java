@@ -181,7 +181,7 @@ public class PluginTests {
         pc0.plugin       = "fizzPlugin0";
         apiConfig.pluginConfigs.add(pc0);
 
-        apiConfigService.updateServiceConfigMap(apiConfig, apiConfigService.serviceConfigMap);
+        apiConfigService.add(Collections.singletonList(apiConfig));
 
         WebTestClient client = WebTestClient
                 .bindToWebHandler(
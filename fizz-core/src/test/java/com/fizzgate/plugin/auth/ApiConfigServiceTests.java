@@ -15,11 +15,17 @@ import com.fizzgate.redis.RedisProperties;
 import com.fizzgate.redis.RedisServerConfiguration;
 import com.fizzgate.redis.RedisTemplateConfiguration;
 import com.fizzgate.util.ReflectionUtils;
+import com.fizzgate.util.Result;
+import com.github.benmanes.caffeine.cache.Cache;
+import org.springframework.http.HttpMethod;
 
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 /**
  * @author hongqiaowei
  */
@@ -63,4 +69,52 @@ public class ApiConfigServiceTests {
 
         apiConfigService.init();
     }
+
+    private static ApiConfig apiConfig(int id, String service, String path) {
+        ApiConfig ac = new ApiConfig();
+        ac.id         = id;
+        ac.service    = service;
+        ac.fizzMethod = HttpMethod.GET;
+        ac.setPath(path);
+        return ac;
+    }
+
+    @Test
+    void negativeLookupCacheTest() {
+        ApiConfigServiceProperties apiConfigServiceProperties = new ApiConfigServiceProperties();
+        ReflectionUtils.set(apiConfigServiceProperties, "negativeLookupCacheSize", 100);
+        ApiConfigService apiConfigService = new ApiConfigService();
+        ReflectionUtils.set(apiConfigService, "apiConfigServiceProperties", apiConfigServiceProperties);
+        ReflectionUtils.set(apiConfigService, "gatewayGroupService",        new GatewayGroupService());
+        ReflectionUtils.invokeMethod("initNegativeLookupCache", apiConfigService);
+        Cache<?, ?> cache = (Cache<?, ?>) ReflectionUtils.get(apiConfigService, "negativeLookupCache");
+
+        apiConfigService.add(Collections.singletonList(apiConfig(1, "xservice", "/a")));
+        assertEquals(Result.SUCC, apiConfigService.get(false, null, "xservice", HttpMethod.GET, "/a").code);
+
+        // service miss and path miss
+        Result<ApiConfig> r = apiConfigService.get(false, null, "yservice", HttpMethod.GET, "/a");
+        assertEquals(Result.FAIL, r.code);
+        assertSame(r, apiConfigService.get(false, null, "yservice", HttpMethod.GET, "/b"));
+        r = apiConfigService.get(false, null, "xservice", HttpMethod.GET, "/b");
+        assertEquals(Result.FAIL, r.code);
+        assertSame(r, apiConfigService.get(false, null, "xservice", HttpMethod.GET, "/b"));
+        assertNotSame(r, apiConfigService.get(false, null, "xservice", HttpMethod.POST, "/b"));
+        // the result for other gateway groups is not cached
+        assertNotSame(r, apiConfigService.get(false, Collections.singleton(GatewayGroup.DEFAULT), null, "xservice", HttpMethod.GET, "/b"));
+
+        // the api configs added later are found
+        apiConfigService.add(Collections.singletonList(apiConfig(2, "xservice", "/b")));
+        assertEquals(0, cache.estimatedSize());
+        assertEquals(2, apiConfigService.get(false, null, "xservice", HttpMethod.GET, "/b").data.id);
+        apiConfigService.add(Collections.singletonList(apiConfig(3, "yservice", "/a")));
+        assertEquals(3, apiConfigService.get(false, null, "yservice", HttpMethod.GET, "/a").data.id);
+
+        // the paths from clients don't grow the cache beyond its size
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(Result.FAIL, apiConfigService.get(false, null, "xservice", HttpMethod.GET, "/c/" + i).code);
+        }
+        cache.cleanUp();
+        assertTrue(cache.estimatedSize() <= 100);
+    }
 }
@@ -0,0 +1,133 @@
+package com.fizzgate.plugin.auth;
+
+import com.fizzgate.util.UrlTransformUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PathPatternTrieTests {
+
+    @Test
+    void matchTest() {
+        Map<String, Set<ApiConfig>> pathPattern2apiConfigsMap = new HashMap<>();
+        ApiConfig exact    = put(pathPattern2apiConfigsMap, 1, "/a/b");
+        ApiConfig uriVar   = put(pathPattern2apiConfigsMap, 2, "/a/{id}");
+        ApiConfig wildcard = put(pathPattern2apiConfigsMap, 3, "/a/*/c");
+        ApiConfig prefix   = put(pathPattern2apiConfigsMap, 4, "/a/**");
+        ApiConfig middle   = put(pathPattern2apiConfigsMap, 5, "/x/**/y");
+        ApiConfig suffix   = put(pathPattern2apiConfigsMap, 6, "/f/*.json");
+        ApiConfig all      = put(pathPattern2apiConfigsMap, 7, "/**");
+        PathPatternTrie trie = new PathPatternTrie(pathPattern2apiConfigsMap);
+
+        assertEquals(list(exact, uriVar, prefix, all), match(trie, "/a/b"));
+        assertEquals(list(exact, prefix, all, uriVar), match(trie, "/a/b/"));
+        assertEquals(list(uriVar, prefix, all),        match(trie, "/a/b2"));
+        assertEquals(list(wildcard, prefix, all),      match(trie, "/a/b/c"));
+        // {id} is ([^/]*) for the ant matcher, /a/{id} doesn't match /a but the trailing slash variant /a/
+        assertFalse(UrlTransformUtils.ANT_PATH_MATCHER.match("/a/{id}", "/a"));
+        assertTrue(UrlTransformUtils.ANT_PATH_MATCHER.match("/a/{id}", "/a/"));
+        assertEquals(list(all, uriVar, prefix),        match(trie, "/a"));
+        assertEquals(list(middle, all),                match(trie, "/x/1/2/y"));
+        // /x/**/y is /x/(.*)/y for the ant matcher, neither /x/y nor /x/y/ matches
+        assertFalse(UrlTransformUtils.ANT_PATH_MATCHER.match("/x/**/y", "/x/y"));
+        assertFalse(UrlTransformUtils.ANT_PATH_MATCHER.match("/x/**/y", "/x/y/"));
+        assertEquals(list(all),                        match(trie, "/x/y"));
+        assertEquals(list(middle, all),                match(trie, "/x//y"));
+        assertEquals(list(all, suffix),                match(trie, "/f/g.json"));
+        assertEquals(list(all),                        match(trie, "/"));
+
+        ArrayList<ApiConfig> result = new ArrayList<>();
+        trie.matchExact("/a/b", true, result);
+        trie.match("/a/b", "/a/b/", true, result);
+        assertTrue(result.isEmpty());
+
+        pathPattern2apiConfigsMap.remove("/a/b");
+        pathPattern2apiConfigsMap.remove("/a/{id}");
+        pathPattern2apiConfigsMap.remove("/f/*.json");
+        assertEquals(list(exact, uriVar, prefix, all), match(trie, "/a/b"));
+        trie = new PathPatternTrie(pathPattern2apiConfigsMap);
+        assertEquals(list(prefix, all), match(trie, "/a/b"));
+        assertEquals(list(all),         match(trie, "/f/g.json"));
+    }
+
+    /**
+     * Every pattern and path pair gives the same result as the ant matcher, which ServiceConfig ran for each pattern before
+     */
+    @Test
+    void antPathMatcherParityTest() {
+        String[] pathPatterns = {
+                "/a", "/a/", "/a/b", "/a/b/", "/a//b",
+                "/a/{id}", "/a/{id}/", "/a/{id}/b", "/a/*", "/a/*/c", "/a/{x}/{y}",
+                "/a/**", "/x/**/y", "/**", "/**/y", "/a/**/b/**",
+                "/f/*.json", "/a/{id:\\d+}", "/a/b?"
+        };
+        String[] paths = {
+                "/", "//", "/a", "/a/", "/a//", "/a/b", "/a/b/", "/a//b", "/a/b//", "/a/1", "/a/1/", "/a/1/b", "/a/b/c", "/a/b/c/", "/a/1/2",
+                "/x/y", "/x/y/", "/x//y", "/x/1/y", "/x/1/2/y", "/y", "/a/1/b/2",
+                "/f/g.json", "/f/.json", "/a/12", "/a/bc"
+        };
+
+        Map<String, Set<ApiConfig>> pathPattern2apiConfigsMap = new HashMap<>();
+        for (int i = 0; i < pathPatterns.length; i++) {
+            put(pathPattern2apiConfigsMap, i, pathPatterns[i]);
+        }
+        PathPatternTrie trie = new PathPatternTrie(pathPattern2apiConfigsMap);
+
+        for (String path : paths) {
+            String path0 = ServiceConfig.getPath0(path);
+            Set<String> expected = new HashSet<>();
+            for (String pathPattern : pathPatterns) {
+                if (pathPattern.equals(path) || pathPattern.equals(path0)
+                        || UrlTransformUtils.ANT_PATH_MATCHER.match(pathPattern, path) || UrlTransformUtils.ANT_PATH_MATCHER.match(pathPattern, path0)) {
+                    expected.add(pathPattern);
+                }
+
+                Map<String, Set<ApiConfig>> single = new HashMap<>();
+                put(single, 0, pathPattern);
+                assertEquals(expected.contains(pathPattern), !match(new PathPatternTrie(single), path).isEmpty(), pathPattern + " " + path);
+            }
+
+            List<ApiConfig> result = match(trie, path);
+            Set<String> matched = new HashSet<>();
+            for (ApiConfig ac : result) {
+                matched.add(ac.path);
+            }
+            assertEquals(expected, matched, path);
+            assertEquals(matched.size(), result.size(), path);
+        }
+    }
+
+    @Test
+    void compileTest() {
+        assertEquals(3, PathPatternTrie.compile("/a/{id}").length);
+        assertEquals(3, PathPatternTrie.compile("/a/**").length);
+        assertNull(PathPatternTrie.compile("/a/{id:\\d+}"));
+        assertNull(PathPatternTrie.compile("/a/b?"));
+        assertNull(PathPatternTrie.compile("/a/**/**"));
+        assertNull(PathPatternTrie.compile("/a/b**"));
+    }
+
+    private static ApiConfig put(Map<String, Set<ApiConfig>> pathPattern2apiConfigsMap, int id, String path) {
+        ApiConfig ac = new ApiConfig();
+        ac.id = id;
+        ac.setPath(path);
+        pathPattern2apiConfigsMap.computeIfAbsent(ac.path, k -> new HashSet<>()).add(ac);
+        return ac;
+    }
+
+    private static List<ApiConfig> match(PathPatternTrie trie, String path) {
+        String path0 = ServiceConfig.getPath0(path);
+        ArrayList<ApiConfig> result = new ArrayList<>();
+        trie.matchExact(path, false, result);
+        trie.match(path, path0, false, result);
+        return result;
+    }
+
+    private static List<ApiConfig> list(ApiConfig... acs) {
+        List<ApiConfig> l = new ArrayList<>();
+        Collections.addAll(l, acs);
+        return l;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.plugin.auth;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServiceConfigTests {
+
+    private static final Set<String> GATEWAY_GROUPS = Collections.singleton(GatewayGroup.DEFAULT);
+
+    private static ApiConfig apiConfig(int id, String path) {
+        ApiConfig ac = new ApiConfig();
+        ac.id         = id;
+        ac.service    = "xservice";
+        ac.fizzMethod = HttpMethod.GET;
+        ac.setPath(path);
+        return ac;
+    }
+
+    private static List<ApiConfig> get(ServiceConfig sc, String path) {
+        return new ArrayList<>(sc.getApiConfigs(false, GATEWAY_GROUPS, HttpMethod.GET, path));
+    }
+
+    @Test
+    void compileTest() {
+        ServiceConfig sc = new ServiceConfig("xservice");
+        ApiConfig exact   = apiConfig(1, "/a/b");
+        ApiConfig pattern = apiConfig(2, "/a/{id}");
+        sc.add(exact);
+        sc.add(pattern);
+        // a service config is not routed until compiled, reader threads don't compile it
+        assertTrue(get(sc, "/a/b").isEmpty());
+
+        sc.compile();
+        assertEquals(Collections.singletonList(exact),   sc.getExactApiConfigs(false, GATEWAY_GROUPS, HttpMethod.GET, "/a/b"));
+        assertEquals(Collections.singletonList(pattern), get(sc, "/a/c"));
+        assertFalse(sc.isEmpty());
+        assertThrows(IllegalStateException.class, () -> sc.add(apiConfig(3, "/c")));
+        assertThrows(IllegalStateException.class, () -> sc.remove(exact));
+        assertThrows(IllegalStateException.class, () -> sc.update(exact));
+
+        // the tables are rebuilt from the route table, changing them doesn't change the compiled service config
+        sc.getApiConfigMap().clear();
+        assertEquals(1, sc.getApiConfigMap().size());
+        assertEquals(2, sc.getApiConfigMap().get(GatewayGroup.DEFAULT).get(HttpMethod.GET).size());
+        assertEquals(Collections.singletonList(pattern), get(sc, "/a/c"));
+    }
+
+    @Test
+    void copyTest() {
+        ServiceConfig sc = new ServiceConfig("xservice");
+        ApiConfig exact   = apiConfig(1, "/a/b");
+        ApiConfig pattern = apiConfig(2, "/a/{id}");
+        sc.add(exact);
+        sc.add(pattern);
+        sc.compile();
+
+        ServiceConfig copy = new ServiceConfig(sc);
+        copy.remove(pattern);
+        ApiConfig added = apiConfig(3, "/a/*");
+        copy.add(added);
+        copy.compile();
+
+        assertEquals(Collections.singletonList(pattern), get(sc,   "/a/c"));
+        assertEquals(Collections.singletonList(added),   get(copy, "/a/c"));
+        assertEquals(Collections.singletonList(exact),   copy.getExactApiConfigs(false, GATEWAY_GROUPS, HttpMethod.GET, "/a/b"));
+
+        copy = new ServiceConfig(copy);
+        copy.remove(exact);
+        copy.remove(added);
+        assertTrue(copy.isEmpty());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.plugin.requestbody;
+
+import com.fizzgate.spring.http.server.reactive.ext.FizzServerHttpRequestDecorator;
+import com.fizzgate.util.NettyDataBufferUtils;
+import com.fizzgate.util.ReflectionUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestBodyPluginTests {
+
+    /**
+     * Reads the request body in doFilter instead of calling the next plugin
+     */
+    private static class TestRequestBodyPlugin extends RequestBodyPlugin {
+
+        Function<FizzServerHttpRequestDecorator, Mono<Void>> next;
+
+        TestRequestBodyPlugin(Function<FizzServerHttpRequestDecorator, Mono<Void>> next) {
+            this.next = next;
+            ReflectionUtils.set(this, "zeroCopyBody", true);
+        }
+
+        @Override
+        public Mono<Void> doFilter(ServerWebExchange exchange, Map<String, Object> config) {
+            return next.apply((FizzServerHttpRequestDecorator) exchange.getRequest());
+        }
+    }
+
+    private static ByteBuf pooledBody(String body) {
+        ByteBuf b = PooledByteBufAllocator.DEFAULT.buffer();
+        b.writeCharSequence(body, StandardCharsets.UTF_8);
+        return b;
+    }
+
+    private static ServerWebExchange exchange(ByteBuf body) {
+        DataBuffer b = NettyDataBufferUtils.from(body);
+        return MockServerWebExchange.from(MockServerHttpRequest.post("/x").body(Flux.just(b)));
+    }
+
+    private static Mono<Void> read(FizzServerHttpRequestDecorator request, int times) {
+        return request.getBody().single()
+                      .doOnNext(
+                              b -> {
+                                  assertEquals("abc", b.toString(StandardCharsets.UTF_8));
+                                  NettyDataBufferUtils.releaseBody(b);
+                              }
+                      )
+                      .repeat(times - 1)
+                      .then();
+    }
+
+    @Test
+    void releaseTest() {
+        ByteBuf body = pooledBody("abc");
+        // the route reads the body, then a retry reads it again
+        TestRequestBodyPlugin plugin = new TestRequestBodyPlugin(
+                request -> read(request, 2).doOnSuccess(v -> assertEquals(1, body.refCnt()))
+        );
+        plugin.filter(exchange(body), Collections.emptyMap()).block();
+        assertEquals(0, body.refCnt());
+    }
+
+    @Test
+    void releaseOnErrorTest() {
+        ByteBuf body = pooledBody("abc");
+        TestRequestBodyPlugin plugin = new TestRequestBodyPlugin(
+                request -> read(request, 1).then(Mono.error(new IllegalStateException("backend down")))
+        );
+        assertThrows(IllegalStateException.class, () -> plugin.filter(exchange(body), Collections.emptyMap()).block());
+        assertEquals(0, body.refCnt());
+    }
+
+    @Test
+    void releaseOnCancelTest() {
+        ByteBuf body = pooledBody("abc");
+        TestRequestBodyPlugin plugin = new TestRequestBodyPlugin(request -> Mono.never());
+        Disposable d = plugin.filter(exchange(body), Collections.emptyMap()).subscribe();
+        assertEquals(1, body.refCnt());
+        d.dispose();
+        assertEquals(0, body.refCnt());
+    }
+}
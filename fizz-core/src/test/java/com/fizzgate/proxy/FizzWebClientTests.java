@@ -1,10 +1,29 @@
 package com.fizzgate.proxy;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.boot.web.reactive.function.client.WebClientCustomizer;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
 
+import com.fizzgate.config.ConnectionPoolStat;
+import com.fizzgate.config.ProxyWebClientConfig;
+import com.fizzgate.config.SystemConfig;
+import com.fizzgate.config.WebClientBuilderConfig;
 import com.fizzgate.proxy.FizzWebClient;
+import com.fizzgate.util.ReflectionUtils;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * @author hongqiaowei
@@ -37,4 +56,130 @@ public class FizzWebClientTests {
         String r6 = fizzWebClient.extractServiceOrAddress("http://127.0.0.1:8600/apath");
         assertEquals(r6, "127.0.0.1:8600");
     }
+
+    @Test
+    void encodedUriTest() {
+        List<URI> sent = new ArrayList<>();
+        FizzWebClient fizzWebClient = new FizzWebClient();
+        ReflectionUtils.set(fizzWebClient, "systemConfig", new SystemConfig());
+        ReflectionUtils.set(fizzWebClient, "webClient",    WebClient.builder().exchangeFunction(
+                                                                                   req -> {
+                                                                                       sent.add(req.url());
+                                                                                       return Mono.just(ClientResponse.create(HttpStatus.OK).build());
+                                                                                   }
+                                                                               )
+                                                                               .build());
+
+        // the raw path query from RouteFilter is sent as is
+        fizzWebClient.send(null, HttpMethod.GET, URI.create("http://127.0.0.1:8600/ypath/x?a=1+2&b=%E4%B8%AD&c"), null, null, 0, 0, 0).block();
+        assertEquals("/ypath/x?a=1+2&b=%E4%B8%AD&c", sent.get(0).getRawPath() + '?' + sent.get(0).getRawQuery());
+
+        // the template path query is encoded by the web client
+        fizzWebClient.send(null, HttpMethod.GET, "http://127.0.0.1:8600/ypath/a b?a={0}", null, null, 0, 0, 0, "1+2").block();
+        assertEquals("/ypath/a%20b", sent.get(1).getRawPath());
+        assertEquals("1+2", sent.get(1).getQuery().substring(2));
+    }
+
+    private static Object acquire(FizzWebClient fizzWebClient, String upstream) {
+        return ReflectionUtils.invokeMethod("acquireUpstreamWebClient", fizzWebClient, new Class[]{String.class}, new Object[]{upstream});
+    }
+
+    private static void release(FizzWebClient fizzWebClient, String upstream, Object uwc) {
+        ReflectionUtils.invokeMethod("releaseUpstreamWebClient", fizzWebClient, new Class[]{String.class, uwc.getClass()}, new Object[]{upstream, uwc});
+    }
+
+    /**
+     * @return the web client a request to the uri is sent with
+     */
+    private static WebClient getWebClient(FizzWebClient fizzWebClient, String uri) {
+        String upstream = fizzWebClient.extractServiceOrAddress(uri);
+        Object uwc = acquire(fizzWebClient, upstream);
+        if (uwc == null) {
+            return (WebClient) ReflectionUtils.get(fizzWebClient, "webClient");
+        }
+        release(fizzWebClient, upstream, uwc);
+        return (WebClient) ReflectionUtils.get(uwc, "webClient");
+    }
+
+    private static FizzWebClient upstreamConnPoolWebClient(ProxyWebClientConfig config) {
+        ReflectionUtils.set(config, "webClientBuilderConfig", new WebClientBuilderConfig(new DefaultListableBeanFactory().getBeanProvider(WebClientCustomizer.class)));
+        FizzWebClient fizzWebClient = new FizzWebClient();
+        ReflectionUtils.set(fizzWebClient, "proxyWebClientConfig", config);
+        ReflectionUtils.set(fizzWebClient, "webClient",            WebClient.create());
+        return fizzWebClient;
+    }
+
+    @Test
+    void upstreamConnPoolTest() {
+        ProxyWebClientConfig config = new ProxyWebClientConfig();
+        config.setPerUpstreamConnPool(true);
+        config.setMaxUpstreamConnPools(1);
+        FizzWebClient fizzWebClient = upstreamConnPoolWebClient(config);
+        WebClient shared = (WebClient) ReflectionUtils.get(fizzWebClient, "webClient");
+        Map<String, ConnectionPoolStat> stats = (Map<String, ConnectionPoolStat>) ReflectionUtils.get(fizzWebClient, "connectionPoolStats");
+
+        WebClient wc = getWebClient(fizzWebClient, "http://a:80/x");
+        assertNotSame(shared, wc);
+        assertSame(wc, getWebClient(fizzWebClient, "http://a:80/y"));
+        assertTrue(stats.containsKey("a:80"));
+        // no more pool than the max upstream connection pools
+        assertSame(shared, getWebClient(fizzWebClient, "http://b:80/x"));
+
+        long now = System.currentTimeMillis();
+        fizzWebClient.disposeIdleUpstreamConnPools(now);
+        assertSame(wc, getWebClient(fizzWebClient, "http://a:80/x"));
+
+        // the pool unused for the idle timeout is disposed, and a new one is created for a later request
+        fizzWebClient.disposeIdleUpstreamConnPools(now + config.getUpstreamConnPoolIdleTimeout() + 1000);
+        assertTrue(stats.isEmpty());
+        WebClient b = getWebClient(fizzWebClient, "http://b:80/x");
+        assertNotSame(shared, b);
+        assertTrue(stats.containsKey("b:80"));
+
+        config.setUpstreamConnPoolIdleTimeout(0);
+        fizzWebClient.disposeIdleUpstreamConnPools(now + 3_600_000);
+        assertSame(b, getWebClient(fizzWebClient, "http://b:80/x"));
+
+        fizzWebClient.disposeUpstreamConnPools();
+        assertTrue(stats.isEmpty());
+        assertTrue(((Map<?, ?>) ReflectionUtils.get(fizzWebClient, "upstreamWebClients")).isEmpty());
+    }
+
+    private static boolean disposed(Object uwc) {
+        return ((AtomicBoolean) ReflectionUtils.get(uwc, "disposed")).get();
+    }
+
+    @Test
+    void inFlightUpstreamConnPoolTest() {
+        ProxyWebClientConfig config = new ProxyWebClientConfig();
+        config.setPerUpstreamConnPool(true);
+        FizzWebClient fizzWebClient = upstreamConnPoolWebClient(config);
+        Map<String, ?> upstreamWebClients = (Map<String, ?>) ReflectionUtils.get(fizzWebClient, "upstreamWebClients");
+        long idle = System.currentTimeMillis() + config.getUpstreamConnPoolIdleTimeout() + 1000;
+
+        // a request got the web client but has not acquired a connection yet
+        Object a = acquire(fizzWebClient, "a:80");
+        fizzWebClient.disposeIdleUpstreamConnPools(idle);
+        assertSame(a, upstreamWebClients.get("a:80"));
+        release(fizzWebClient, "a:80", a);
+        fizzWebClient.disposeIdleUpstreamConnPools(idle);
+        assertTrue(upstreamWebClients.isEmpty());
+        assertTrue(disposed(a));
+
+        // the pool removed while a request is in flight is disposed after the request completes
+        Object b = acquire(fizzWebClient, "b:80");
+        upstreamWebClients.remove("b:80");
+        ReflectionUtils.set(b, "removed", true);
+        ReflectionUtils.invokeMethod("disposeIfUnused", fizzWebClient, new Class[]{String.class, b.getClass()}, new Object[]{"b:80", b});
+        assertFalse(disposed(b));
+        Object nb = acquire(fizzWebClient, "b:80");
+        assertNotSame(b, nb);
+        release(fizzWebClient, "b:80", b);
+        assertTrue(disposed(b));
+        release(fizzWebClient, "b:80", nb);
+        assertFalse(disposed(nb));
+
+        fizzWebClient.disposeUpstreamConnPools();
+        assertTrue(disposed(nb));
+    }
 }
@@ -38,7 +38,10 @@ import com.fizzgate.stats.ResourceConfig;
 import com.fizzgate.stats.ResourceStat;
 import com.fizzgate.stats.ResourceTimeWindowStat;
 import com.fizzgate.stats.TimeWindowStat;
+import com.fizzgate.stats.ratelimit.ClusterRateLimiter;
+import com.fizzgate.stats.ratelimit.ResourceRateLimitConfig;
 import com.fizzgate.util.JacksonUtils;
+import com.fizzgate.util.ReflectionUtils;
 
 /**
  * 
@@ -215,6 +218,72 @@ public class FlowStatTests {
 		
 	}
 
+	@Test
+	public void testRollbackWhenBlockedByResourceChain() throws Throwable {
+		List<ResourceConfig> resourceConfigs = new ArrayList<>();
+		resourceConfigs.add(new ResourceConfig("testRollbackWhenBlockedByResourceChain_global", 100, 200));
+		resourceConfigs.add(new ResourceConfig("testRollbackWhenBlockedByResourceChain_service", 100, 0));
+
+		long startTimeSlotId = stat.currentTimeSlotId();
+		long endTimeSlotId = startTimeSlotId + 1000;
+		IncrRequestResult result = stat.incrRequest(resourceConfigs, startTimeSlotId);
+		assertTrue(!result.isSuccess());
+		assertEquals("testRollbackWhenBlockedByResourceChain_service", result.getBlockedResourceId());
+		assertEquals(BlockType.QPS, result.getBlockType());
+
+		assertEquals(0, stat.getConcurrentRequests("testRollbackWhenBlockedByResourceChain_global"));
+		TimeWindowStat tws = stat.getTimeWindowStat("testRollbackWhenBlockedByResourceChain_global", startTimeSlotId, endTimeSlotId);
+		assertEquals(0, tws.getTotal());
+		assertEquals(0, tws.getPeakConcurrentReqeusts());
+		assertEquals(0, tws.getBlockRequests());
+	}
+
+	@Test
+	public void testTokenBucket() throws Throwable {
+		ResourceConfig rc = new ResourceConfig("testTokenBucket_service", -1L, 1);
+		rc.setQpsMode(ResourceRateLimitConfig.Mode.TOKEN_BUCKET);
+		rc.setBurst(5);
+		List<ResourceConfig> resourceConfigs = new ArrayList<>();
+		resourceConfigs.add(rc);
+
+		long curTimeSlotId = stat.currentTimeSlotId();
+		for (int i = 0; i < 5; i++) {
+			assertTrue(stat.incrRequest(resourceConfigs, curTimeSlotId).isSuccess());
+		}
+		IncrRequestResult result = stat.incrRequest(resourceConfigs, curTimeSlotId);
+		assertTrue(!result.isSuccess());
+		assertEquals(BlockType.QPS, result.getBlockType());
+	}
+
+	@Test
+	public void testClusterScopeFallback() throws Throwable {
+		ClusterRateLimiter clusterRateLimiter = new ClusterRateLimiter();
+		ReflectionUtils.set(clusterRateLimiter, "nodes", 2);
+		ReflectionUtils.set(clusterRateLimiter, "fallbackUntil", Long.MAX_VALUE);
+		FlowStat stat = new FlowStat(false, false);
+		stat.setClusterRateLimiter(clusterRateLimiter);
+
+		ResourceConfig rc = new ResourceConfig("testClusterScopeFallback_service", -1L, 4);
+		rc.setQpsMode(ResourceRateLimitConfig.Mode.TOKEN_BUCKET);
+		rc.setQpsScope(ResourceRateLimitConfig.Scope.CLUSTER);
+		List<ResourceConfig> resourceConfigs = new ArrayList<>();
+		resourceConfigs.add(rc);
+		resourceConfigs.add(new ResourceConfig("testClusterScopeFallback_path", -1L, 0));
+
+		// the token taken from the local bucket is given back to it
+		long curTimeSlotId = stat.currentTimeSlotId();
+		for (int i = 0; i < 5; i++) {
+			IncrRequestResult result = stat.incrRequest(resourceConfigs, curTimeSlotId);
+			assertEquals("testClusterScopeFallback_path", result.getBlockedResourceId());
+		}
+
+		// the local limit is the share of the 2 nodes
+		resourceConfigs.remove(1);
+		assertTrue(stat.incrRequest(resourceConfigs, curTimeSlotId).isSuccess());
+		assertTrue(stat.incrRequest(resourceConfigs, curTimeSlotId).isSuccess());
+		assertEquals(BlockType.QPS, stat.incrRequest(resourceConfigs, curTimeSlotId).getBlockType());
+	}
+
 	@Test
 	public void testIncrRequestByResourceChain() throws Throwable {
 		// create data
@@ -0,0 +1,97 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.stats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.fizzgate.stats.circuitbreaker.CircuitBreaker;
+
+public class ResourceStatTests {
+
+	private static final long RETENTION = FlowStat.RETENTION_TIME_IN_MINUTES * 60 * 1000;
+
+	@Test
+	void slotReuseTest() {
+		ResourceStat stat = new ResourceStat("slotReuseTest");
+		long id = 1_000_000;
+		TimeSlot slot = stat.getTimeSlot(id);
+		slot.incr();
+		slot.addRequestRT(30, false);
+		slot.incrBlockRequests();
+		slot.get2xxStatusCount().incrementAndGet();
+		slot.getCircuitBreakState().set(CircuitBreaker.State.OPEN);
+		assertSame(slot, stat.getTimeSlot(id));
+		assertSame(slot, stat.peekTimeSlot(id));
+
+		long newId = id + RETENTION;
+		assertNull(stat.peekTimeSlot(newId));
+		for (int i = 0; i < 3; i++) {
+			stat.incrConcurrentRequest(id, null);
+		}
+		TimeSlot reused = stat.getTimeSlot(newId);
+		assertSame(slot, reused);
+		assertEquals(newId, reused.getId());
+		assertEquals(0, reused.getCounter());
+		assertEquals(0, reused.getCompReqs());
+		assertEquals(0, reused.getErrors());
+		assertEquals(0, reused.getBlockRequests());
+		assertEquals(Long.MAX_VALUE, reused.getMin());
+		assertEquals(3, reused.getPeakConcurrentRequests());
+		assertEquals(0, reused.get2xxStatusCount().get());
+		assertEquals(CircuitBreaker.State.CLOSED, reused.getCircuitBreakState().get());
+		assertNull(stat.peekTimeSlot(id));
+
+		TimeWindowStat tws = stat.getTimeWindowStat(id, id + FlowStat.INTERVAL);
+		assertEquals(0, tws.getTotal().longValue());
+	}
+
+	@Test
+	void overwrittenSlotTest() {
+		ResourceStat stat = new ResourceStat("overwrittenSlotTest");
+		long id = 1_000_000, newId = id + RETENTION;
+		TimeSlot current = stat.getTimeSlot(newId);
+		current.incr();
+
+		TimeSlot past = stat.getTimeSlot(id);
+		assertNotSame(current, past);
+		assertEquals(id, past.getId());
+		past.incr();
+		past.incr();
+		assertSame(current, stat.peekTimeSlot(newId));
+		assertEquals(1, current.getCounter());
+		assertNull(stat.peekTimeSlot(id));
+	}
+
+	@Test
+	void resetTest() {
+		TimeSlot slot = new TimeSlot(1000);
+		slot.incr();
+		assertFalse(slot.reset(2000, 3000, 0));
+		assertEquals(1, slot.getCounter());
+		assertTrue(slot.reset(1000, 3000, 0));
+		assertEquals(3000, slot.getId());
+		assertEquals(0, slot.getCounter());
+	}
+}
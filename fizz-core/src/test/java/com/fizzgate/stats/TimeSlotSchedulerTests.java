@@ -0,0 +1,123 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.fizzgate.stats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class TimeSlotSchedulerTests {
+
+	private static final long T0 = 1_000_000L;
+
+	private final AtomicLong clock = new AtomicLong(T0);
+
+	@Test
+	public void testFireAtTimeSlotBoundary() throws Throwable {
+		TimeSlotScheduler scheduler = new TimeSlotScheduler("test-scheduler", 1000, clock::get);
+		List<Long> timeSlotIds = new CopyOnWriteArrayList<>();
+		scheduler.schedule("test", timeSlotIds::add, 1);
+
+		clock.set(T0 + 999);
+		scheduler.runTimeSlots();
+		assertTrue(timeSlotIds.isEmpty());
+
+		for (int i = 1; i <= 3; i++) {
+			clock.set(T0 + i * 1000 + 5);
+			scheduler.runTimeSlots();
+		}
+		assertEquals(Arrays.asList(T0 + 1000, T0 + 2000, T0 + 3000), timeSlotIds);
+
+		// woken up early in the same time slot
+		scheduler.runTimeSlots();
+		assertEquals(3, timeSlotIds.size());
+
+		scheduler.shutdown();
+		assertTrue(scheduler.isShutdown());
+	}
+
+	@Test
+	public void testPeriod() throws Throwable {
+		TimeSlotScheduler scheduler = new TimeSlotScheduler("test-scheduler", 1000, clock::get);
+		List<Long> every3 = new CopyOnWriteArrayList<>();
+		List<Long> every100 = new CopyOnWriteArrayList<>();
+		scheduler.schedule("every3", every3::add, 3);
+		scheduler.schedule("every100", every100::add, 100);
+		for (int i = 1; i <= 200; i++) {
+			clock.set(T0 + i * 1000);
+			scheduler.runTimeSlots();
+		}
+		assertEquals(67, every3.size());
+		assertEquals(T0 + 1000, every3.get(0).longValue());
+		assertEquals(T0 + 4000, every3.get(1).longValue());
+		// the period is longer than the wheel
+		assertEquals(Arrays.asList(T0 + 1000, T0 + 101_000), every100);
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testCatchUp() throws Throwable {
+		TimeSlotScheduler scheduler = new TimeSlotScheduler("test-scheduler", 1000, clock::get);
+		List<Long> every1 = new CopyOnWriteArrayList<>();
+		List<Long> every3 = new CopyOnWriteArrayList<>();
+		scheduler.schedule("every1", every1::add, 1);
+		scheduler.schedule("every3", every3::add, 3);
+
+		clock.set(T0 + 1000);
+		scheduler.runTimeSlots();
+
+		// woken up 5 time slots late, the missed runs are merged into one
+		clock.set(T0 + 6000);
+		scheduler.runTimeSlots();
+		assertEquals(Arrays.asList(T0 + 1000, T0 + 6000), every1);
+		assertEquals(Arrays.asList(T0 + 1000, T0 + 6000), every3);
+
+		// the next runs are counted from the current time slot
+		clock.set(T0 + 7000);
+		scheduler.runTimeSlots();
+		clock.set(T0 + 9000);
+		scheduler.runTimeSlots();
+		assertEquals(Arrays.asList(T0 + 1000, T0 + 6000, T0 + 7000, T0 + 9000), every1);
+		assertEquals(Arrays.asList(T0 + 1000, T0 + 6000, T0 + 9000), every3);
+
+		// the clock is set back
+		clock.set(T0 + 2000);
+		scheduler.runTimeSlots();
+		assertEquals(T0 + 2000, every1.get(every1.size() - 1).longValue());
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testStart() throws Throwable {
+		TimeSlotScheduler scheduler = new TimeSlotScheduler("test-scheduler", 10);
+		List<Long> timeSlotIds = new CopyOnWriteArrayList<>();
+		scheduler.schedule("test", timeSlotIds::add, 1);
+		scheduler.start();
+		for (int i = 0; i < 500 && timeSlotIds.size() < 2; i++) {
+			Thread.sleep(10);
+		}
+		scheduler.shutdown();
+		assertTrue(timeSlotIds.size() >= 2);
+		assertEquals(0, timeSlotIds.get(0) % 10);
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.stats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class TimeSlotTests {
+
+	@Test
+	void concurrentUpdateTest() throws InterruptedException {
+		TimeSlot slot = new TimeSlot(1000);
+		int threads = 4, times = 10000;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < threads; t++) {
+			int tid = t;
+			pool.execute(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 1; i <= times; i++) {
+					slot.incr();
+					slot.addRequestRT(i, i % 2 == 0);
+					slot.updatePeakConcurrentReqeusts(tid * times + i);
+					slot.incrBlockRequests();
+					slot.incrTotalBlockRequests();
+					slot.incrCircuitBreakNum();
+				}
+			});
+		}
+		start.countDown();
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+		int n = threads * times;
+		assertEquals(n, slot.getCounter());
+		assertEquals(n, slot.getCompReqs());
+		assertEquals(n / 2, slot.getErrors());
+		assertEquals(threads * (times * (times + 1L) / 2), (long) slot.getTotalRt());
+		assertEquals(1, slot.getMin());
+		assertEquals(times, slot.getMax());
+		assertEquals(n, slot.getPeakConcurrentRequests());
+		assertEquals(n, slot.getBlockRequests());
+		assertEquals(n, slot.getTotalBlockRequests());
+		assertEquals(n, slot.getCircuitBreakNum());
+	}
+
+	@Test
+	void incrIfLessThanTest() {
+		TimeSlot slot = new TimeSlot(1000);
+		assertTrue(slot.incrIfLessThan(2));
+		assertTrue(slot.incrIfLessThan(2));
+		assertFalse(slot.incrIfLessThan(2));
+		slot.decr();
+		assertTrue(slot.incrIfLessThan(2));
+		assertEquals(2, slot.getCounter());
+	}
+
+	@Test
+	void settersTest() {
+		TimeSlot slot = new TimeSlot(1000);
+		slot.addRequestRT(5, true);
+		slot.setMin(3);
+		slot.setMax(9);
+		slot.setPeakConcurrentRequests(7);
+		slot.addRequestRT(4, true);
+		slot.updatePeakConcurrentReqeusts(6);
+		assertEquals(3, slot.getMin());
+		assertEquals(9, slot.getMax());
+		assertEquals(7, slot.getPeakConcurrentRequests());
+	}
+}
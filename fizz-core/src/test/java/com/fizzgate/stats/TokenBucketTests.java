@@ -0,0 +1,52 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.stats;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketTests {
+
+	@Test
+	void burstTest() {
+		TokenBucket bucket = new TokenBucket();
+		long now = 1_000_000_000L;
+		assertTrue(bucket.tryAcquire(2, 2, now));
+		assertTrue(bucket.tryAcquire(2, 2, now));
+		assertFalse(bucket.tryAcquire(2, 2, now));
+		bucket.release(2);
+		assertTrue(bucket.tryAcquire(2, 2, now));
+		assertTrue(bucket.tryAcquire(2, 2, now + 500_000_000L));
+		assertFalse(bucket.tryAcquire(0, 2, now + 10_000_000_000L));
+	}
+
+	@Test
+	void hugeQpsTest() {
+		TokenBucket bucket = new TokenBucket();
+		long qps = 2_000_000_000L, now = 1_000_000_000L;
+		assertTrue(bucket.tryAcquire(qps, 1, now));
+		// one token per nanosecond at most
+		assertFalse(bucket.tryAcquire(qps, 1, now));
+		assertTrue(bucket.tryAcquire(qps, 1, now + 1));
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(bucket.tryAcquire(qps, 0, now + 1));
+		}
+	}
+}
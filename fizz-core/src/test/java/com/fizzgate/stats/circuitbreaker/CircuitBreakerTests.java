@@ -0,0 +1,146 @@
+/*
+ *  Copyright (C) 2020 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.stats.circuitbreaker;
+
+import com.fizzgate.stats.FlowStat;
+import com.fizzgate.stats.ResourceStat;
+import com.fizzgate.util.ResourceIdUtils;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CircuitBreakerTests {
+
+    private static final long START = 1_000_000;
+
+    private static CircuitBreaker circuitBreaker(String service, CircuitBreaker.BreakStrategy strategy) {
+        CircuitBreaker cb = new CircuitBreaker();
+        cb.service             = service;
+        cb.resource            = ResourceIdUtils.buildResourceId(null, null, null, service, null);
+        cb.breakStrategy       = strategy;
+        cb.monitorDuration     = 60 * 1000;
+        cb.minRequests         = 10;
+        cb.totalErrorThreshold = 5;
+        cb.errorRatioThreshold = 0.5f;
+        cb.breakDuration       = 5 * 1000;
+        cb.resumeStrategy      = CircuitBreaker.ResumeStrategy.IMMEDIATE;
+        cb.stateStartTime      = START;
+        return cb;
+    }
+
+    private static void complete(ResourceStat rs, long timeSlotId, int reqs, int errors) {
+        for (int i = 0; i < reqs; i++) {
+            rs.addRequestRT(timeSlotId, 10, i >= errors);
+        }
+    }
+
+    @Test
+    void errorRatioTest() {
+        for (long reqs = 1; reqs <= 1000; reqs++) {
+            for (long errors = 0; errors <= reqs; errors++) {
+                float expected = new BigDecimal(errors).divide(new BigDecimal(reqs), 2, RoundingMode.HALF_UP).floatValue();
+                assertEquals(expected, CircuitBreaker.errorRatio(errors, reqs), errors + "/" + reqs);
+            }
+        }
+        assertEquals(0.01f, CircuitBreaker.errorRatio(1, 200));
+        assertEquals(0f,    CircuitBreaker.errorRatio(1, 201));
+        assertEquals(0.5f,  CircuitBreaker.errorRatio(1, 2));
+    }
+
+    @Test
+    void totalsTest() {
+        FlowStat flowStat = new FlowStat();
+        CircuitBreaker cb = circuitBreaker("totalsTest", CircuitBreaker.BreakStrategy.TOTAL_ERRORS);
+        ResourceStat rs = flowStat.getResourceStat(cb.resource);
+
+        complete(rs, START, 3, 1);
+        assertTrue(cb.permit(null, START, flowStat));
+        complete(rs, START + 1000, 3, 1);
+        assertTrue(cb.permit(null, START + 1000, flowStat));
+        complete(rs, START + 2000, 3, 1);
+        assertTrue(cb.permit(null, START + 2000, flowStat));
+        complete(rs, START + 3000, 1, 1);
+        // 10 requests and 4 errors
+        assertTrue(cb.permit(null, START + 3000, flowStat));
+
+        // the slot of the first second is folded already, the late error in it is still counted
+        complete(rs, START, 1, 1);
+        assertFalse(cb.permit(null, START + 3000, flowStat));
+        assertEquals(CircuitBreaker.State.OPEN, cb.stateRef.get());
+    }
+
+    @Test
+    void errorRatioStrategyTest() {
+        FlowStat flowStat = new FlowStat();
+        CircuitBreaker cb = circuitBreaker("errorRatioStrategyTest", CircuitBreaker.BreakStrategy.ERRORS_RATIO);
+        ResourceStat rs = flowStat.getResourceStat(cb.resource);
+
+        complete(rs, START, 6, 2);
+        assertTrue(cb.permit(null, START + 1000, flowStat));
+        complete(rs, START + 1000, 3, 2);
+        // 4 / 9, less than min requests
+        assertTrue(cb.permit(null, START + 1000, flowStat));
+        complete(rs, START + 1000, 1, 0);
+        // 4 / 10
+        assertTrue(cb.permit(null, START + 2000, flowStat));
+        complete(rs, START + 2000, 1, 1);
+        complete(rs, START + 1000, 1, 1);
+        // 6 / 12
+        assertFalse(cb.permit(null, START + 2000, flowStat));
+    }
+
+    @Test
+    void windowRestartTest() {
+        FlowStat flowStat = new FlowStat();
+        CircuitBreaker cb = circuitBreaker("windowRestartTest", CircuitBreaker.BreakStrategy.TOTAL_ERRORS);
+        ResourceStat rs = flowStat.getResourceStat(cb.resource);
+
+        complete(rs, START, 10, 4);
+        assertTrue(cb.permit(null, START + 1000, flowStat));
+
+        cb.stateStartTime = START + 2000;
+        complete(rs, START + 2000, 10, 1);
+        assertTrue(cb.permit(null, START + 3000, flowStat));
+        // late completions in the seconds before the window are not counted
+        complete(rs, START, 1, 1);
+        complete(rs, START + 1000, 3, 3);
+        assertTrue(cb.permit(null, START + 3000, flowStat));
+        complete(rs, START + 2000, 4, 4);
+        assertFalse(cb.permit(null, START + 3000, flowStat));
+    }
+
+    @Test
+    void idleTest() {
+        FlowStat flowStat = new FlowStat();
+        CircuitBreaker cb = circuitBreaker("idleTest", CircuitBreaker.BreakStrategy.TOTAL_ERRORS);
+        ResourceStat rs = flowStat.getResourceStat(cb.resource);
+
+        complete(rs, START, 10, 4);
+        assertTrue(cb.permit(null, START + 1000, flowStat));
+
+        // the state is not corrected while the resource is idle, the errors before are not counted after
+        long now = START + 10 * cb.monitorDuration;
+        complete(rs, now, 1, 1);
+        assertTrue(cb.permit(null, now, flowStat));
+        assertEquals(now, cb.stateStartTime);
+        assertEquals(CircuitBreaker.State.CLOSED, cb.stateRef.get());
+    }
+}
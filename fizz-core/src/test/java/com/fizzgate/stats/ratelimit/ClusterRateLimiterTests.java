@@ -0,0 +1,156 @@
+/*
+ *  Copyright (C) 2021 the original author or authors.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.fizzgate.stats.ratelimit;
+
+import com.fizzgate.util.ReflectionUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterRateLimiterTests {
+
+    /**
+     * Runs the reserve script against a map instead of redis, or returns the reply of the reply supplier
+     */
+    private static class TestClusterRateLimiter extends ClusterRateLimiter {
+
+        final Map<String, Long> redis = new HashMap<>();
+
+        Supplier<Mono<Long>>    reply;
+
+        int                     executions = 0;
+
+        @Override
+        Mono<Long> execute(String key, long qps, long leaseSize) {
+            executions++;
+            if (reply != null) {
+                return reply.get();
+            }
+            long used = redis.getOrDefault(key, 0L);
+            long grant = Math.min(qps - used, leaseSize);
+            if (grant <= 0) {
+                return Mono.just(0L);
+            }
+            redis.put(key, used + grant);
+            return Mono.just(grant);
+        }
+    }
+
+    private TestClusterRateLimiter limiter;
+
+    @BeforeEach
+    void beforeEach() {
+        limiter = new TestClusterRateLimiter();
+        ReflectionUtils.set(limiter, "minLease",           10L);
+        ReflectionUtils.set(limiter, "maxLeaseRatio",      0.1);
+        ReflectionUtils.set(limiter, "maxOverdraft",       5L);
+        ReflectionUtils.set(limiter, "redisTimeoutMillis", 60_000L);
+        ReflectionUtils.set(limiter, "fallbackMillis",     60_000L);
+        ReflectionUtils.set(limiter, "nodes",              1);
+    }
+
+    private int acquire(String resource, long qps, long window, int times) {
+        int permits = 0;
+        for (int i = 0; i < times; i++) {
+            if (limiter.tryAcquire(resource, qps, window)) {
+                permits++;
+            }
+        }
+        return permits;
+    }
+
+    @Test
+    void leaseTest() {
+        assertEquals(100, acquire("leaseTest", 100, 1000, 100));
+        assertEquals(100, limiter.redis.get("fizz_rate_limit_lease:leaseTest:1000").longValue());
+        // 10 permits are reserved at a time, and the last reservation finds no permit left
+        assertEquals(11, limiter.executions);
+        assertFalse(limiter.tryAcquire("leaseTest", 100, 1000));
+
+        // the lease of the next second adapts to the 100 requests of the previous second
+        limiter.redis.put("fizz_rate_limit_lease:leaseTest:2000", 0L);
+        assertTrue(limiter.tryAcquire("leaseTest", 1000, 2000));
+        assertEquals(25, limiter.redis.get("fizz_rate_limit_lease:leaseTest:2000").longValue());
+    }
+
+    @Test
+    void exhaustionTest() {
+        // another node has taken 95 permits
+        limiter.redis.put("fizz_rate_limit_lease:exhaustionTest:1000", 95L);
+        assertEquals(5, acquire("exhaustionTest", 100, 1000, 100));
+        int executions = limiter.executions;
+        assertFalse(limiter.tryAcquire("exhaustionTest", 100, 1000));
+        // no more reservation once redis has no permits left
+        assertEquals(executions, limiter.executions);
+        assertTrue(limiter.isAvailable());
+
+        assertTrue(limiter.tryAcquire("exhaustionTest", 100, 2000));
+    }
+
+    @Test
+    void overdraftTest() {
+        // the reservation is in flight
+        limiter.reply = Mono::never;
+        assertEquals(5, acquire("overdraftTest", 100, 1000, 100));
+        assertEquals(1, limiter.executions);
+        assertTrue(limiter.isAvailable());
+
+        limiter.release("overdraftTest", 1000);
+        assertTrue(limiter.tryAcquire("overdraftTest", 100, 1000));
+        assertFalse(limiter.tryAcquire("overdraftTest", 100, 1000));
+        // a permit of the previous second is not given back to the current one
+        limiter.release("overdraftTest", 0);
+        assertFalse(limiter.tryAcquire("overdraftTest", 100, 1000));
+    }
+
+    @Test
+    void fallbackTest() {
+        limiter.reply = () -> Mono.error(new IllegalStateException("redis down"));
+        assertTrue(limiter.isAvailable());
+        limiter.tryAcquire("fallbackTest", 100, 1000);
+        assertFalse(limiter.isAvailable());
+
+        assertEquals(100, limiter.localQps(100));
+        ReflectionUtils.set(limiter, "nodes", 3);
+        assertEquals(34, limiter.localQps(100));
+        assertEquals(1, limiter.localQps(1));
+        assertEquals(0, limiter.localQps(0));
+
+        ReflectionUtils.set(limiter, "fallbackUntil", System.currentTimeMillis() - 1);
+        assertTrue(limiter.isAvailable());
+    }
+
+    @Test
+    void evictTest() {
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire("evictTest" + i, 100, 1000);
+        }
+        assertEquals(10, limiter.getLeaseCount());
+        limiter.tryAcquire("evictTest0", 100, 31_000);
+        assertEquals(10, limiter.getLeaseCount());
+        // the leases without requests in the last minute are evicted
+        limiter.tryAcquire("evictTest0", 100, 61_000);
+        assertEquals(1, limiter.getLeaseCount());
+    }
+}
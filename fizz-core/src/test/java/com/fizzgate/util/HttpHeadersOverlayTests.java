@@ -0,0 +1,80 @@
+package com.fizzgate.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpHeadersOverlayTests {
+
+    @Test
+    void test() {
+        HttpHeaders base = new HttpHeaders();
+        base.add("a", "1");
+        base.add("b", "2");
+        base.add("b", "3");
+
+        HttpHeaders hdrs = new HttpHeaders(new HttpHeadersOverlay(base));
+        hdrs.set("A", "x");
+        hdrs.add("b", "4");
+        hdrs.add("c", "5");
+        hdrs.remove("d");
+
+        assertEquals(Collections.singletonList("x"), hdrs.get("a"));
+        assertEquals(Arrays.asList("2", "3", "4"), hdrs.get("B"));
+        assertEquals("5", hdrs.getFirst("c"));
+        assertFalse(hdrs.containsKey("d"));
+        assertEquals(3, hdrs.size());
+
+        assertEquals(Collections.singletonList("1"), base.get("a"));
+        assertEquals(Arrays.asList("2", "3"), base.get("b"));
+        assertFalse(base.containsKey("c"));
+
+        hdrs.remove("a");
+        assertNull(hdrs.get("a"));
+        assertEquals(2, hdrs.entrySet().size());
+        hdrs.add("a", "y");
+        assertEquals(Collections.singletonList("y"), hdrs.get("a"));
+        assertEquals(Collections.singletonList("1"), base.get("a"));
+
+        hdrs.clear();
+        assertTrue(hdrs.isEmpty());
+        assertEquals(2, base.size());
+    }
+
+    @Test
+    void sizeTest() {
+        HttpHeaders base = new HttpHeaders();
+        base.add("a", "1");
+        base.add("b", "2");
+        HttpHeadersOverlay overlay = new HttpHeadersOverlay(base);
+        assertEquals(2, overlay.size());
+
+        overlay.add("A", "3");
+        overlay.set("c", "4");
+        overlay.put("d", Collections.singletonList("5"));
+        assertEquals(4, overlay.size());
+        overlay.remove("b");
+        overlay.remove("b");
+        overlay.remove("e");
+        assertEquals(3, overlay.size());
+        overlay.add("b", "6");
+        assertEquals(4, overlay.size());
+        assertEquals(4, overlay.entrySet().size());
+        assertEquals(overlay.toSingleValueMap().size(), overlay.size());
+
+        assertNull(overlay.remove(1));
+        assertNull(overlay.remove(null));
+        assertEquals(4, overlay.size());
+
+        overlay.clear();
+        assertEquals(0, overlay.size());
+        assertTrue(overlay.isEmpty());
+        overlay.add("a", "7");
+        assertEquals(1, overlay.size());
+        assertFalse(overlay.isEmpty());
+    }
+}
@@ -0,0 +1,42 @@
+package com.fizzgate.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IntBitmapTests {
+
+    @Test
+    void test() {
+        IntBitmap bitmap = IntBitmap.of(3, 1, 70000, 1);
+        assertEquals(3, bitmap.cardinality());
+        assertArrayEquals(new int[]{1, 3, 70000}, bitmap.toArray());
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(2));
+        assertFalse(bitmap.contains(-1));
+
+        IntBitmap removed = bitmap.remove(3, 4);
+        assertArrayEquals(new int[]{1, 70000}, removed.toArray());
+        assertTrue(bitmap.contains(3));
+        assertSame(bitmap, bitmap.remove(4));
+        assertTrue(IntBitmap.EMPTY.add(5).remove(5).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> IntBitmap.of(-1));
+
+        TreeSet<Integer> set = new TreeSet<>();
+        int[] values = new int[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 3;
+            set.add(i * 3);
+        }
+        bitmap = IntBitmap.of(values).remove(0, 3, 65535 * 3);
+        set.remove(0);
+        set.remove(3);
+        set.remove(65535 * 3);
+        assertEquals(set.size(), bitmap.cardinality());
+        for (int i = 0; i < 30003; i++) {
+            assertEquals(set.contains(i), bitmap.contains(i));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.fizzgate.util;
+
+import org.junit.jupiter.api.Test;
+
+import com.fizzgate.stats.ratelimit.ResourceRateLimitConfig;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResourceKeyTests {
+
+    @Test
+    void parseTest() {
+        ResourceKey key = ResourceKey.of("xapp^192.168.1.1^^xservice^/ypath");
+        assertEquals("xapp",        key.app);
+        assertEquals("192.168.1.1", key.ip);
+        assertNull(key.node);
+        assertEquals("xservice",    key.service);
+        assertEquals("/ypath",      key.path);
+        assertSame(key, ResourceKey.of("xapp", "192.168.1.1", "", "xservice", "/ypath"));
+        assertEquals("xapp^192.168.1.1^^xservice^/ypath", key.toString());
+
+        assertSame(ResourceIdUtils.NODE_RESOURCE_KEY, ResourceKey.of(null, null, ResourceIdUtils.NODE, null, null));
+        assertEquals(ResourceIdUtils.NODE_RESOURCE, ResourceIdUtils.NODE_RESOURCE_KEY.toString());
+
+        ResourceKey opaque = ResourceKey.of("service1");
+        assertTrue(opaque.isOpaque());
+        assertNull(opaque.service);
+        assertEquals("service1", opaque.toString());
+        assertNotEquals(opaque, ResourceKey.of(null, null, null, null, null));
+    }
+
+    @Test
+    void boundedInternTest() {
+        ResourceKey hot = ResourceKey.of("xapp^^^xservice^/ypath");
+        for (int i = 0; i < 100_000; i++) {
+            ResourceKey.of("xapp^10." + (i >> 16) + '.' + ((i >> 8) & 255) + '.' + (i & 255) + "^^xservice^/ypath");
+            assertSame(hot, ResourceKey.of("xapp^^^xservice^/ypath"));
+        }
+        assertSame(hot, ResourceKey.of("xapp", null, null, "xservice", "/ypath"));
+    }
+
+    @Test
+    void rateLimitConfigTest() {
+        String json = "{\"concurrents\":1000,\"enable\":1,\"id\":1,\"isDeleted\":0,\"qps\":500,  \"type\":3,  \"resource\":\"xservice\"  }";
+        ResourceRateLimitConfig c = JacksonUtils.readValue(json, ResourceRateLimitConfig.class);
+        assertSame(ResourceKey.of(c.getResourceId()), c.getResourceKey());
+        assertEquals("xservice", c.getResourceKey().service);
+    }
+}
@@ -78,6 +78,7 @@ public class DedicatedLineCodecPluginFilter extends RequestBodyPlugin {
 
             FizzServerHttpRequestDecorator request = (FizzServerHttpRequestDecorator) exchange.getRequest();
             return request.getBody().defaultIfEmpty(NettyDataBufferUtils.EMPTY_DATA_BUFFER).single().flatMap(body -> {
+				NettyDataBufferUtils.releaseBody(body);
 				if (body != NettyDataBufferUtils.EMPTY_DATA_BUFFER && systemConfig.fizzDedicatedLineClientRequestCrypto()) {
 					byte[] bodyBytes = request.getBodyBytes();
 					request.setBody(decrypt(bodyBytes, cryptoKey));
@@ -304,6 +304,7 @@ public class GrayReleasePlugin extends RequestBodyPlugin {
                                    return ReactorUtils.NULL;
                                } else {
                                    String json = bodyDataBuffer.toString(StandardCharsets.UTF_8).trim();
+                                   NettyDataBufferUtils.releaseBody(bodyDataBuffer);
                                    if (LOGGER.isDebugEnabled()) {
                                        LOGGER.debug("request {} body: {}", request.getId(), json);
                                    }